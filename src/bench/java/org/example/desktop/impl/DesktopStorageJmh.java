@@ -0,0 +1,128 @@
+package org.example.desktop.impl;
+
+import org.example.desktop.model.RemoteFileMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The desktop {@link DiskRemoteStorage} at 1k/10k/100k entries, plus its metadata encoding. The client has no
+ * name index, so {@code findByName} is the scan of {@link DiskRemoteStorage#listFiles} it has to do; {@code updateContent}
+ * stands for uploads, replacing a random entry so the catalog keeps its size. Catalogs are built once under
+ * {@code target/jmh-catalogs} (or {@code -Dbench.dir}) and reused. Run with:
+ * <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args=DesktopStorageJmh</pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DesktopStorageJmh {
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"1000", "10000", "100000"})
+        public int size;
+
+        DiskRemoteStorage storage;
+        String[] ids, names;
+        Path content;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Path root = catalogDir("desktop-" + size), staging = catalogDir("desktop-staging");
+            boolean fresh = !Files.exists(root.resolve(".complete"));
+            if (fresh) deleteTree(root);
+            Files.createDirectories(staging);
+            byte[] bytes = new byte[4096];
+            ThreadLocalRandom.current().nextBytes(bytes);
+            storage = new DiskRemoteStorage(root, false);
+            storage.login("bench", "bench");
+            if (fresh) {
+                for (int i = 0; i < size; i++) {
+                    Path f = Files.write(staging.resolve(String.format("file-%06d%s", i, new String[] { ".txt", ".html", ".png", ".pdf" }[i % 4])), bytes);
+                    storage.upload(f, "user" + i % 50);
+                    Files.delete(f);
+                }
+                Files.createFile(root.resolve(".complete"));
+            }
+            content = Files.write(staging.resolve("content.bin"), bytes);
+            List<RemoteFileMetadata> all = storage.listFiles();
+            ids = all.stream().map(RemoteFileMetadata::getId).toArray(String[]::new);
+            names = all.stream().map(RemoteFileMetadata::getName).toArray(String[]::new);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Meta {
+        RemoteFileMetadata meta;
+        byte[] stored;
+
+        @Setup
+        public void setUp() throws IOException {
+            Instant now = Instant.now();
+            meta = new RemoteFileMetadata("0f8fad5b-d9cb-469f-a165-70867728950e", "quarterly report (final).html", now, now, "alice", "bob", 123_456);
+            ByteArrayOutputStream os = new ByteArrayOutputStream(512);
+            DiskRemoteStorage.toProps(meta).store(os, "remote-file-metadata");
+            stored = os.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public List<RemoteFileMetadata> listFiles(Catalog c) throws IOException { return c.storage.listFiles(); }
+
+    @Benchmark
+    public RemoteFileMetadata findByName(Catalog c) throws IOException {
+        String name = c.names[ThreadLocalRandom.current().nextInt(c.names.length)];
+        return c.storage.listFiles().stream().filter(m -> m.getName().equals(name)).findFirst().orElse(null);
+    }
+
+    @Benchmark
+    public byte[] download(Catalog c) throws IOException {
+        try (InputStream in = c.storage.download(c.ids[ThreadLocalRandom.current().nextInt(c.ids.length)])) { return in.readAllBytes(); }
+    }
+
+    @Benchmark
+    public RemoteFileMetadata updateContent(Catalog c) throws IOException {
+        return c.storage.updateContent(c.ids[ThreadLocalRandom.current().nextInt(c.ids.length)], c.content, "bench");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] writeMeta(Meta m) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(512);
+        DiskRemoteStorage.toProps(m.meta).store(os, "remote-file-metadata");
+        return os.toByteArray();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public RemoteFileMetadata readMeta(Meta m) throws IOException {
+        Properties p = new Properties();
+        p.load(new ByteArrayInputStream(m.stored));
+        return DiskRemoteStorage.fromProps(p);
+    }
+
+    static Path catalogDir(String name) throws IOException {
+        Path dir = Path.of(System.getProperty("bench.dir", "target"), "jmh-catalogs", name);
+        Files.createDirectories(dir.getParent());
+        return dir;
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted((a, b) -> b.getNameCount() - a.getNameCount())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.desktop.impl;
+
+import org.example.desktop.model.RemoteFileMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link InMemoryRemoteStorage}, the offline/demo backend, at 1k/10k/100k entries. {@code uploadAndDelete} pairs
+ * the two calls so the catalog keeps its size. Run with:
+ * <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args=InMemoryStorageJmh</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemoryStorageJmh {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private InMemoryRemoteStorage storage;
+    private String[] ids;
+    private Path content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storage = new InMemoryRemoteStorage();
+        storage.login("bench", "bench");
+        Path dir = Files.createTempDirectory("inmemory-jmh");
+        byte[] bytes = new byte[4096];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        content = Files.write(dir.resolve("content.bin"), bytes);
+        for (int i = 0; i < size; i++) storage.upload(content, "user" + i % 50);
+        ids = storage.listFiles().stream().map(RemoteFileMetadata::getId).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public List<RemoteFileMetadata> listFiles() throws IOException { return storage.listFiles(); }
+
+    @Benchmark
+    public byte[] download() throws IOException {
+        try (InputStream in = storage.download(ids[ThreadLocalRandom.current().nextInt(ids.length)])) { return in.readAllBytes(); }
+    }
+
+    @Benchmark
+    public RemoteFileMetadata updateContent() throws IOException {
+        return storage.updateContent(ids[ThreadLocalRandom.current().nextInt(ids.length)], content, "bench");
+    }
+
+    @Benchmark
+    public RemoteFileMetadata uploadAndDelete() throws IOException {
+        RemoteFileMetadata m = storage.upload(content, "bench");
+        storage.delete(m.getId());
+        return m;
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.desktop.util;
+
+import org.example.desktop.model.RemoteFileMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileQuery} filtering and sorting on catalog-sized lists (a third each of html, png and other files,
+ * 500 distinct uploaders). Run with:
+ * <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args=FileQueryJmh</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileQueryJmh {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<RemoteFileMetadata> files;
+
+    @Setup
+    public void setUp() {
+        Random rnd = new Random(42);
+        String[] ext = { ".html", ".png", ".txt" };
+        Instant now = Instant.now();
+        files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String user = "user" + rnd.nextInt(500);
+            files.add(new RemoteFileMetadata("id" + i, "file-" + i + ext[rnd.nextInt(ext.length)], now, now, user, user, rnd.nextInt(1 << 20)));
+        }
+    }
+
+    @Benchmark
+    public List<RemoteFileMetadata> filterByType() { return FileQuery.filterByType(files, FileQuery.TypeFilter.HTML); }
+
+    @Benchmark
+    public List<RemoteFileMetadata> sortByUploader() { return FileQuery.sortByUploader(files, true); }
+}
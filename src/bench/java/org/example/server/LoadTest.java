@@ -0,0 +1,286 @@
+package org.example.server;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load against a real server: starts {@link ServerApp} on a free port with a temp {@code server.dir}
+ * (or targets {@code -Dtarget=http://host:port}, e.g. the jar of another build), seeds a catalog, then runs closed-loop
+ * clients that each pick the next operation from a weighted mix while idle SSE subscribers keep event streams open.
+ * Prints throughput and p50/p95/p99/max latency per operation, and writes the same as JSON when {@code -Dout} is set,
+ * so two builds can be compared run against run. Run with:
+ * <pre>mvn -Pbench test-compile exec:java -Dbench.main=org.example.server.LoadTest</pre>
+ * Tunables: {@code -Dclients=32 -Dsubscribers=100 -Dseconds=30 -Dwarmup=5 -Dfiles=1000 -Dnames=2000 -Dsize=16384
+ * -DlistLimit=100 -Dmix=list:20,upload:20,update:15,download:40,delete:5 -Dout=target/load-result.json}.
+ * Server-side options ({@code -Dserver.fsync}, {@code -Dserver.threads=virtual}, ...) apply to the in-process server.
+ *
+ * <p>Uploads upsert a name out of {@code names} (so some create, most replace); update, download and delete pick an
+ * entry the harness knows to exist, which concurrent deletes can still remove first: those 404s are counted as
+ * misses, not errors.
+ */
+public class LoadTest {
+    enum Op { LIST, UPLOAD, UPDATE, DOWNLOAD, DELETE }
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final class Stats {
+        final LongAdder ok = new LongAdder(), missed = new LongAdder(), failed = new LongAdder();
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    }
+
+    private final String base;
+    private final HttpClient http;
+    private final AtomicReferenceArray<String> ids; // slot i: id of name f-<i>, null while it does not exist
+    private final byte[] content;
+    private final int listLimit;
+
+    LoadTest(String base, int names, int size, int listLimit) {
+        this.base = base;
+        this.http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        this.ids = new AtomicReferenceArray<>(names);
+        this.content = new byte[size];
+        this.listLimit = listLimit;
+        new Random(7).nextBytes(content);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("clients", 32), subscribers = Integer.getInteger("subscribers", 100);
+        int seconds = Integer.getInteger("seconds", 30), warmup = Integer.getInteger("warmup", 5);
+        int files = Integer.getInteger("files", 1000), names = Math.max(files, Integer.getInteger("names", 2000));
+        int size = Integer.getInteger("size", 16 << 10), listLimit = Integer.getInteger("listLimit", 100);
+        EnumMap<Op, Integer> mix = mix(System.getProperty("mix", "list:20,upload:20,update:15,download:40,delete:5"));
+        String target = System.getProperty("target");
+        System.out.printf("clients=%d subscribers=%d seconds=%d (+%d warmup) files=%d names=%d size=%dKB mix=%s%n",
+                clients, subscribers, seconds, warmup, files, names, size >> 10, mix);
+
+        ConfigurableApplicationContext ctx = null;
+        if (target == null) {
+            Path root = Files.createTempDirectory("load-test");
+            System.setProperty("server.dir", root.toString());
+            ctx = new SpringApplicationBuilder(ServerApp.class)
+                    .properties("server.port=0", "spring.threads.virtual.enabled=" + ServerThreads.virtual(), "logging.level.root=WARN")
+                    .run();
+            target = "http://localhost:" + ctx.getEnvironment().getProperty("local.server.port");
+            System.out.printf("server: %s dir=%s threads=%s fsync=%s%n", target, root, ServerThreads.virtual() ? "virtual" : "platform",
+                    System.getProperty("server.fsync", "group"));
+        }
+        LoadTest t = new LoadTest(target, names, size, listLimit);
+        try {
+            t.seed(files);
+            Map<Op, Stats> stats = t.run(mix, clients, subscribers, warmup, seconds);
+            report(stats, seconds, t.scrape());
+            String out = System.getProperty("out");
+            if (out != null) writeJson(Path.of(out), stats, seconds);
+        } finally {
+            t.http.shutdownNow();
+            if (ctx != null) ctx.close();
+        }
+    }
+
+    private void seed(int files) throws Exception {
+        long t0 = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> all = new ArrayList<>();
+            Semaphore inFlight = new Semaphore(32);
+            for (int i = 0; i < files; i++) {
+                int n = i; inFlight.acquire();
+                all.add(pool.submit(() -> { try { if (call(Op.UPLOAD, n) != 200) throw new IOException("seed upload failed"); return null; } finally { inFlight.release(); } }));
+            }
+            for (Future<?> f : all) f.get();
+        }
+        System.out.printf("seeded %d files in %.1f s%n", files, (System.nanoTime() - t0) / 1e9);
+    }
+
+    private Map<Op, Stats> run(EnumMap<Op, Integer> mix, int clients, int subscribers, int warmup, int seconds) throws Exception {
+        Map<Op, Stats> stats = new EnumMap<>(Op.class);
+        for (Op op : Op.values()) stats.put(op, new Stats());
+        Op[] wheel = mix.entrySet().stream().flatMap(e -> Collections.nCopies(e.getValue(), e.getKey()).stream()).toArray(Op[]::new);
+        LongAdder events = new LongAdder(), streamsOpen = new LongAdder();
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup), end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<InputStream> streams = Collections.synchronizedList(new ArrayList<>());
+            for (int s = 0; s < subscribers; s++) pool.execute(() -> subscribe(streams, events, streamsOpen));
+            List<Future<?>> workers = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                workers.add(pool.submit(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (long now; (now = System.nanoTime()) < end; ) {
+                        Op op = wheel[rnd.nextInt(wheel.length)];
+                        int status;
+                        try { status = call(op, pick(op, rnd)); } catch (Exception e) { status = -1; }
+                        long took = System.nanoTime() - now;
+                        if (now < measureFrom) continue;
+                        Stats st = stats.get(op);
+                        if (status >= 200 && status < 300) { st.ok.increment(); st.latencies.add(took); }
+                        else if (status == 404 || status == 0) st.missed.increment();
+                        else st.failed.increment();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> w : workers) w.get();
+            System.out.printf("sse: %d/%d streams open, %d events received%n", streamsOpen.sum(), subscribers, events.sum());
+            synchronized (streams) { for (InputStream in : streams) try { in.close(); } catch (IOException ignored) {} }
+            pool.shutdownNow();
+        }
+        return stats;
+    }
+
+    /** Slot to act on: any name for uploads, an existing entry for the rest (0 = nothing found, counted as a miss). */
+    private int pick(Op op, ThreadLocalRandom rnd) {
+        if (op == Op.UPLOAD) return rnd.nextInt(ids.length());
+        if (op == Op.LIST) return 0;
+        for (int tries = 0; tries < 16; tries++) { int i = rnd.nextInt(ids.length()); if (ids.get(i) != null) return i; }
+        return -1;
+    }
+
+    /** @return the HTTP status; 0 when there was no entry to act on */
+    private int call(Op op, int slot) throws IOException, InterruptedException {
+        String id = slot < 0 || op == Op.UPLOAD || op == Op.LIST ? null : ids.get(slot);
+        if (op != Op.UPLOAD && op != Op.LIST && id == null) return 0;
+        HttpRequest.Builder req = HttpRequest.newBuilder().timeout(Duration.ofSeconds(60));
+        switch (op) {
+            case LIST: {
+                String q = listLimit > 0 ? "?sort=name&limit=" + listLimit : "";
+                return discard(http.send(req.uri(URI.create(base + "/api/files" + q)).build(), HttpResponse.BodyHandlers.ofInputStream()));
+            }
+            case UPLOAD: {
+                HttpResponse<String> r = http.send(req.uri(URI.create(base + "/api/files/by-name/f-" + slot + ".txt"))
+                        .header("Content-Type", "application/octet-stream").PUT(HttpRequest.BodyPublishers.ofByteArray(content)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                Matcher m = ID.matcher(r.body());
+                if (r.statusCode() == 200 && m.find()) ids.set(slot, m.group(1));
+                return r.statusCode();
+            }
+            case UPDATE: {
+                String boundary = "load" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+                byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"f-" + slot + ".txt\"\r\n"
+                        + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+                HttpResponse<InputStream> r = http.send(req.uri(URI.create(base + "/api/files/" + id + "/content"))
+                        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, content, tail))).build(), HttpResponse.BodyHandlers.ofInputStream());
+                return notFoundIfGone(discard(r), slot, id);
+            }
+            case DOWNLOAD:
+                return notFoundIfGone(discard(http.send(req.uri(URI.create(base + "/api/files/" + id + "/content")).build(),
+                        HttpResponse.BodyHandlers.ofInputStream())), slot, id);
+            case DELETE: {
+                if (!ids.compareAndSet(slot, id, null)) return 0; // another client got there first
+                return discard(http.send(req.uri(URI.create(base + "/api/files/" + id)).DELETE().build(), HttpResponse.BodyHandlers.ofInputStream()));
+            }
+            default: throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * The server answers requests for an entry deleted in the meantime with 404 or, on some paths, 500; when the
+     * harness itself has dropped the slot since, either is a lost race rather than a failure.
+     */
+    private int notFoundIfGone(int status, int slot, String id) {
+        if (status >= 400 && !id.equals(ids.get(slot))) return 404;
+        return status;
+    }
+
+    private static int discard(HttpResponse<InputStream> r) throws IOException {
+        try (InputStream in = r.body()) { in.transferTo(OutputStream.nullOutputStream()); }
+        return r.statusCode();
+    }
+
+    /** An idle client: holds an event stream open and reads whatever arrives until closed. */
+    private void subscribe(List<InputStream> streams, LongAdder events, LongAdder open) {
+        try {
+            HttpResponse<InputStream> r = http.send(HttpRequest.newBuilder(URI.create(base + "/api/events")).header("Accept", "text/event-stream").build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            InputStream in = r.body();
+            streams.add(in);
+            open.increment();
+            byte[] buf = new byte[8192]; byte prev = 0;
+            for (int n; (n = in.read(buf)) >= 0; ) {
+                for (int i = 0; i < n; i++) { if (buf[i] == '\n' && prev == '\n') events.increment(); prev = buf[i]; } // blank line ends an event
+            }
+        } catch (Exception ignored) { // closed at the end of the run
+        }
+    }
+
+    /** A few server-side counters worth seeing next to the client view; empty when the target does not expose them. */
+    private Map<String, String> scrape() {
+        Map<String, String> out = new LinkedHashMap<>();
+        try {
+            String text = http.send(HttpRequest.newBuilder(URI.create(base + "/api/metrics")).build(), HttpResponse.BodyHandlers.ofString()).body();
+            for (String line : text.split("\n")) {
+                if (line.startsWith("drive_sse_dropped_total") || line.startsWith("drive_sse_disconnects_total") || line.startsWith("drive_catalog_entries")
+                        || line.startsWith("drive_bytes_")) out.put(line.substring(0, line.lastIndexOf(' ')), line.substring(line.lastIndexOf(' ') + 1));
+            }
+        } catch (Exception ignored) {}
+        return out;
+    }
+
+    private static EnumMap<Op, Integer> mix(String spec) {
+        EnumMap<Op, Integer> mix = new EnumMap<>(Op.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            int w = Integer.parseInt(kv[1].trim());
+            if (w > 0) mix.put(Op.valueOf(kv[0].trim().toUpperCase(Locale.ROOT)), w);
+        }
+        if (mix.isEmpty()) throw new IllegalArgumentException("empty mix: " + spec);
+        return mix;
+    }
+
+    private static double[] percentiles(Stats s) {
+        long[] l = s.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        if (l.length == 0) return new double[4];
+        return new double[] { l[l.length / 2] / 1e6, l[Math.min(l.length - 1, l.length * 95 / 100)] / 1e6,
+                l[Math.min(l.length - 1, l.length * 99 / 100)] / 1e6, l[l.length - 1] / 1e6 };
+    }
+
+    private static void report(Map<Op, Stats> stats, int seconds, Map<String, String> server) {
+        System.out.printf("%-9s %9s %9s %8s %8s %9s %9s %9s %9s%n", "op", "ok", "ops/s", "missed", "failed", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<Op, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            if (s.ok.sum() + s.missed.sum() + s.failed.sum() == 0) continue;
+            double[] p = percentiles(s);
+            total += s.ok.sum();
+            System.out.printf("%-9s %9d %9.1f %8d %8d %9.2f %9.2f %9.2f %9.2f%n", e.getKey().name().toLowerCase(Locale.ROOT), s.ok.sum(),
+                    s.ok.sum() / (double) seconds, s.missed.sum(), s.failed.sum(), p[0], p[1], p[2], p[3]);
+        }
+        System.out.printf("%-9s %9d %9.1f%n", "total", total, total / (double) seconds);
+        server.forEach((k, v) -> System.out.printf("server %s = %s%n", k, v));
+    }
+
+    private static void writeJson(Path file, Map<Op, Stats> stats, int seconds) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n  \"seconds\": ").append(seconds).append(",\n  \"operations\": {");
+        String sep = "\n";
+        for (Map.Entry<Op, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue(); double[] p = percentiles(s);
+            sb.append(sep).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"ok\": %d, \"opsPerSecond\": %.1f, \"missed\": %d, \"failed\": %d, \"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                    e.getKey().name().toLowerCase(Locale.ROOT), s.ok.sum(), s.ok.sum() / (double) seconds, s.missed.sum(), s.failed.sum(), p[0], p[1], p[2], p[3]));
+            sep = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        Files.writeString(file, sb);
+        System.out.println("results written to " + file);
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.server;
+
+import org.example.server.storage.DiskRemoteStorage;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slow clients against the server in platform-thread mode (Tomcat's pool, 200 threads) and in virtual-thread
+ * mode ({@code -Dserver.threads=virtual}). Every connection repeatedly downloads one file over keep-alive
+ * and reads it at a fixed pace, so a platform worker stays busy for the whole transfer. Reports completed
+ * downloads, bytes per second, response-time percentiles, live threads, heap and resident memory. Run with:
+ * <pre>mvn -Pbench test-compile exec:java -Dbench.main=org.example.server.VirtualThreadsBenchmark</pre>
+ * Tunables: {@code -Dconnections=10000 -Dseconds=20 -Dsize=8388608 -Dchunk=65536 -DpauseMillis=20 -Dmodes=platform,virtual}.
+ * 10k connections need about 25k file descriptors ({@code ulimit -n}); one mode per run gives cleaner memory numbers.
+ */
+public class VirtualThreadsBenchmark {
+    public static void main(String[] args) throws Exception {
+        int connections = Integer.getInteger("connections", 10_000), seconds = Integer.getInteger("seconds", 20);
+        int size = Integer.getInteger("size", 8 << 20), chunk = Integer.getInteger("chunk", 64 << 10), pause = Integer.getInteger("pauseMillis", 20);
+        System.out.printf("connections=%d seconds=%d size=%dKB read=%dKB/%dms%n", connections, seconds, size >> 10, chunk >> 10, pause);
+        for (String mode : System.getProperty("modes", "platform,virtual").split(",")) {
+            Path root = Files.createTempDirectory("vt-bench");
+            byte[] content = new byte[size]; new Random(1).nextBytes(content);
+            String id;
+            try (DiskRemoteStorage s = new DiskRemoteStorage(root)) { id = s.upload(new ByteArrayInputStream(content), "blob.bin", "bench").getId(); }
+            System.setProperty("server.threads", mode.trim());
+            System.setProperty("server.dir", root.toString());
+            ConfigurableApplicationContext ctx = new SpringApplicationBuilder(ServerApp.class)
+                    .properties("server.port=0", "spring.threads.virtual.enabled=" + ServerThreads.virtual(), "logging.level.root=WARN",
+                            "server.tomcat.max-connections=" + (connections + 100), "server.tomcat.accept-count=" + connections)
+                    .run();
+            try {
+                run(mode.trim(), Integer.parseInt(ctx.getEnvironment().getProperty("local.server.port")), id, size, connections, seconds, chunk, pause);
+            } finally { ctx.close(); }
+        }
+    }
+
+    private static void run(String mode, int port, String id, int size, int connections, int seconds, int chunk, int pause) throws Exception {
+        LongAdder done = new LongAdder(), bytes = new LongAdder(), failed = new LongAdder();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+        byte[] request = ("GET /api/files/" + id + "/content HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < connections; c++) {
+                clients.execute(() -> {
+                    byte[] buf = new byte[chunk];
+                    try (Socket sock = new Socket()) {
+                        sock.setReceiveBufferSize(chunk);
+                        sock.connect(new InetSocketAddress("localhost", port), 60_000);
+                        InputStream in = new BufferedInputStream(sock.getInputStream(), chunk);
+                        OutputStream out = sock.getOutputStream();
+                        while (System.nanoTime() < end) {
+                            long t0 = System.nanoTime();
+                            out.write(request); out.flush();
+                            long left = contentLength(in);
+                            while (left > 0) {
+                                int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                                if (r < 0) throw new EOFException();
+                                left -= r; bytes.add(r);
+                                Thread.sleep(pause);
+                            }
+                            done.increment(); latencies.add(System.nanoTime() - t0);
+                        }
+                    } catch (Exception e) { failed.increment(); }
+                });
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+            report(mode, connections, seconds, done, bytes, failed, null);
+        }
+        report(mode, connections, (System.nanoTime() - start) / 1e9, done, bytes, failed, latencies);
+    }
+
+    private static void report(String mode, int connections, double seconds, LongAdder done, LongAdder bytes, LongAdder failed, Collection<Long> latencies) {
+        if (latencies == null) { // mid-run snapshot: the memory and thread picture under full load
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            System.out.printf("%-8s under load: threads=%d heap=%dMB rss=%s%n", mode, ManagementFactory.getThreadMXBean().getThreadCount(), heap >> 20, rss());
+            return;
+        }
+        long[] l = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%-8s %d conns: %d downloads (%.1f/s), %.1f MB/s, failed=%d, p50=%.0f ms p99=%.0f ms%n", mode, connections, done.sum(),
+                done.sum() / seconds, bytes.sum() / seconds / (1 << 20), failed.sum(),
+                l.length == 0 ? 0.0 : l[l.length / 2] / 1e6, l.length == 0 ? 0.0 : l[Math.min(l.length - 1, l.length * 99 / 100)] / 1e6);
+    }
+
+    private static long contentLength(InputStream in) throws IOException {
+        long length = -1;
+        for (String line; !(line = readLine(in)).isEmpty(); ) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Long.parseLong(line.substring(15).trim());
+        }
+        if (length < 0) throw new IOException("No Content-Length");
+        return length;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c; (c = in.read()) != '\n'; ) { if (c < 0) throw new EOFException(); if (c != '\r') sb.append((char) c); }
+        return sb.toString();
+    }
+
+    private static String rss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) if (line.startsWith("VmRSS:")) return line.substring(6).trim();
+        } catch (IOException ignored) {}
+        return "n/a";
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.server.search;
+
+import org.example.server.storage.DiskRemoteStorage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Query latency of {@link SearchIndex} over a synthetic corpus with a Zipf-like vocabulary. Run with:
+ * <pre>mvn -Pbench test-compile exec:java -Dbench.main=org.example.server.search.SearchBenchmark</pre>
+ * Tunables: {@code -Ddocs=100000 -Dwords=300 -Dvocabulary=50000 -Dqueries=2000}.
+ */
+public class SearchBenchmark {
+    public static void main(String[] args) throws Exception {
+        int docs = Integer.getInteger("docs", 100_000), words = Integer.getInteger("words", 300);
+        int vocabulary = Integer.getInteger("vocabulary", 50_000), queries = Integer.getInteger("queries", 2000);
+        Random rnd = new Random(42);
+        Path root = Files.createTempDirectory("search-bench");
+        try (DiskRemoteStorage storage = new DiskRemoteStorage(root, false, false); SearchIndex index = new SearchIndex(storage)) {
+            long t0 = System.nanoTime();
+            StringBuilder sb = new StringBuilder();
+            for (int d = 0; d < docs; d++) {
+                sb.setLength(0);
+                for (int w = 0; w < words; w++) sb.append(word(rnd, vocabulary)).append(' ');
+                index.index("doc" + d, 1, sb, false);
+            }
+            System.out.printf("indexed %d docs x %d words in %.1f s, journal %d MB%n", docs, words, (System.nanoTime() - t0) / 1e9,
+                    Files.size(root.resolve(SearchIndex.FILE)) >> 20);
+            for (int warm = 0; warm < 200; warm++) index.search(word(rnd, vocabulary) + " " + word(rnd, vocabulary), 0, 20);
+            long[] nanos = new long[queries];
+            for (int q = 0; q < queries; q++) {
+                String query = word(rnd, vocabulary) + " " + word(rnd, vocabulary);
+                long s = System.nanoTime();
+                index.search(query, 0, 20);
+                nanos[q] = System.nanoTime() - s;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("2-term queries: p50=%.2f ms  p99=%.2f ms  max=%.2f ms%n",
+                    nanos[queries / 2] / 1e6, nanos[queries * 99 / 100] / 1e6, nanos[queries - 1] / 1e6);
+        }
+    }
+
+    /** Word ranks drawn roughly Zipf-distributed, so some terms occur in most documents and most in few. */
+    private static String word(Random rnd, int vocabulary) {
+        return "w" + (int) Math.floor(Math.pow(vocabulary, rnd.nextDouble()));
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.server.storage;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Upload throughput of the durable write path with per-request fsync ({@code always}) versus batched
+ * fsync ({@code group}). Run with:
+ * <pre>mvn -Pbench test-compile exec:java -Dbench.main=org.example.server.storage.GroupCommitBenchmark</pre>
+ * Tunables: {@code -Dthreads=32 -Dseconds=5 -Dsize=4096 -Dserver.fsync.windowMicros=500 -Dserver.fsync.maxBatch=64}.
+ * Pass {@code -Dbench.dir=/path} to run on the disk that will hold {@code server.dir} (default: java.io.tmpdir).
+ */
+public class GroupCommitBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 32), seconds = Integer.getInteger("seconds", 5), size = Integer.getInteger("size", 4096);
+        long window = Long.getLong("server.fsync.windowMicros", 500); int maxBatch = Integer.getInteger("server.fsync.maxBatch", 64);
+        Path base = Path.of(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        System.out.printf("threads=%d seconds=%d size=%dB window=%dus maxBatch=%d dir=%s%n", threads, seconds, size, window, maxBatch, base);
+        for (GroupCommitter.Mode mode : new GroupCommitter.Mode[] { GroupCommitter.Mode.ALWAYS, GroupCommitter.Mode.GROUP }) {
+            Path root = Files.createTempDirectory(base, "group-commit-bench");
+            GroupCommitter fsync = new GroupCommitter(mode, window, maxBatch);
+            try (DiskRemoteStorage storage = new DiskRemoteStorage(root, false, false, fsync)) {
+                LongAdder ops = new LongAdder();
+                long end = System.nanoTime() + seconds * 1_000_000_000L;
+                List<Thread> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    Thread w = new Thread(() -> {
+                        byte[] data = new byte[size];
+                        try {
+                            while (System.nanoTime() < end) {
+                                ThreadLocalRandom.current().nextBytes(data);
+                                storage.upload(new ByteArrayInputStream(data), "f" + ThreadLocalRandom.current().nextLong() + ".bin", "bench");
+                                ops.increment();
+                            }
+                        } catch (Exception e) { throw new RuntimeException(e); }
+                    });
+                    workers.add(w); w.start();
+                }
+                for (Thread w : workers) w.join();
+                long[] st = fsync.stats();
+                System.out.printf("%-6s %10.1f uploads/s   fsyncs/upload=%.2f   requests/batch=%.1f%n", mode,
+                        ops.sum() / (double) seconds, st[2] / (double) Math.max(1, ops.sum()), st[0] == 0 ? 0.0 : st[1] / (double) st[0]);
+            }
+        }
+    }
+}
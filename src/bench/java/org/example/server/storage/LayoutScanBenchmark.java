@@ -0,0 +1,98 @@
+package org.example.server.storage;
+
+import org.example.common.storage.EntryLayout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Startup cost of a large catalog: time for {@link DiskRemoteStorage} to load {@code -Dentries} (default 500k)
+ * entries from the flat layout and from the fan-out one, with a single scan thread and with the parallel scan,
+ * plus the time the online migration between the two takes. Run with:
+ * <pre>mvn -Pbench test-compile exec:java -Dbench.main=org.example.server.storage.LayoutScanBenchmark</pre>
+ * Tunables: {@code -Dentries=500000 -Drepeat=3 -Dserver.scan.threads=8}. The catalog is written straight to disk
+ * (meta.properties plus a small file per entry) under {@code -Dbench.dir} (default: java.io.tmpdir) and deleted at
+ * the end. Loads run on a warm page cache; {@code -Ddrop.caches=true} drops it before each load (root only, Linux).
+ */
+public class LayoutScanBenchmark {
+    public static void main(String[] args) throws Exception {
+        int entries = Integer.getInteger("entries", 500_000), repeat = Integer.getInteger("repeat", 3);
+        int threads = EntryLayout.scanThreads();
+        boolean drop = Boolean.getBoolean("drop.caches");
+        Path base = Path.of(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        Path root = Files.createTempDirectory(base, "layout-bench");
+        System.out.printf("entries=%d repeat=%d threads=%d cores=%d drop.caches=%b dir=%s%n",
+                entries, repeat, threads, Runtime.getRuntime().availableProcessors(), drop, root);
+        try {
+            long t0 = System.nanoTime();
+            generate(root, entries);
+            System.out.printf("generated in %.1f s%n", (System.nanoTime() - t0) / 1e9);
+
+            load("flat", root, false, 1, entries, repeat, drop);
+            load("flat", root, false, threads, entries, repeat, drop);
+
+            t0 = System.nanoTime();
+            try (DiskRemoteStorage s = open(root, true)) {
+                int moved = s.awaitLayoutMigration();
+                System.out.printf("migration to fan-out: %d entries in %.1f s%n", moved, (System.nanoTime() - t0) / 1e9);
+            }
+
+            load("fan-out", root, true, 1, entries, repeat, drop);
+            load("fan-out", root, true, threads, entries, repeat, drop);
+        } finally {
+            StorageJmh.deleteTree(root);
+        }
+    }
+
+    private static DiskRemoteStorage open(Path root, boolean fanOut) throws IOException {
+        return new DiskRemoteStorage(root, false, false, new GroupCommitter(GroupCommitter.Mode.OFF, 0, 1), fanOut);
+    }
+
+    private static void load(String layout, Path root, boolean fanOut, int threads, int entries, int repeat, boolean drop) throws Exception {
+        String saved = System.getProperty("server.scan.threads");
+        System.setProperty("server.scan.threads", String.valueOf(threads));
+        try {
+            long best = Long.MAX_VALUE, total = 0;
+            for (int r = 0; r < repeat; r++) {
+                if (drop) dropCaches();
+                long t0 = System.nanoTime();
+                try (DiskRemoteStorage s = open(root, fanOut)) {
+                    long took = System.nanoTime() - t0;
+                    if (s.list().size() != entries) throw new IllegalStateException("loaded " + s.list().size() + " of " + entries);
+                    best = Math.min(best, took); total += took;
+                }
+            }
+            System.out.printf("%-8s load, %2d thread(s): best %6.2f s  mean %6.2f s  (%.0f entries/s)%n",
+                    layout, threads, best / 1e9, total / 1e9 / repeat, entries / (best / 1e9));
+        } finally {
+            if (saved == null) System.clearProperty("server.scan.threads"); else System.setProperty("server.scan.threads", saved);
+        }
+    }
+
+    /** Flat entries as the properties layout stores them, written in parallel. */
+    private static void generate(Path root, int entries) {
+        Instant now = Instant.now();
+        byte[] content = "console.log('bench');\n".getBytes(StandardCharsets.UTF_8);
+        IntStream.range(0, entries).parallel().forEach(i -> {
+            try {
+                String id = UUID.randomUUID().toString(), name = StorageJmh.name(i);
+                Path dir = Files.createDirectory(root.resolve(id));
+                Files.write(dir.resolve(name), content);
+                RemoteFileMetadata m = new RemoteFileMetadata(id, name, now, now, "user" + i % 50, "user" + i % 50, content.length);
+                try (OutputStream os = Files.newOutputStream(dir.resolve(DiskRemoteStorage.META_FILE))) { DiskRemoteStorage.toProps(m).store(os, "meta"); }
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+        });
+    }
+
+    private static void dropCaches() throws IOException, InterruptedException {
+        new ProcessBuilder("sync").inheritIO().start().waitFor();
+        Files.writeString(Path.of("/proc/sys/vm/drop_caches"), "3");
+    }
+}
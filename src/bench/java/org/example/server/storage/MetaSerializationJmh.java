@@ -0,0 +1,49 @@
+package org.example.server.storage;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-entry metadata encoding of the server {@link DiskRemoteStorage}: what {@code writeMeta} and {@code readMeta}
+ * do besides the file I/O, i.e. the properties mapping plus {@link Properties#store}/{@link Properties#load}.
+ * Run with: <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args=MetaSerializationJmh</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetaSerializationJmh {
+    private RemoteFileMetadata meta;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() throws IOException {
+        Instant now = Instant.now();
+        meta = new RemoteFileMetadata("0f8fad5b-d9cb-469f-a165-70867728950e", "quarterly report (final).html", now, now, "alice", "bob", 123_456);
+        meta.setSha256("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        meta.setVersion(7);
+        stored = writeMeta();
+    }
+
+    @Benchmark
+    public byte[] writeMeta() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(512);
+        DiskRemoteStorage.toProps(meta).store(os, "meta");
+        return os.toByteArray();
+    }
+
+    @Benchmark
+    public RemoteFileMetadata readMeta() throws IOException {
+        Properties p = new Properties();
+        p.load(new ByteArrayInputStream(stored));
+        return DiskRemoteStorage.fromProps(p);
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.server.storage;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost the always-on instrumentation adds to each storage call: one timer sample (clock reads plus a record into
+ * the percentile histogram) and one counter increment, against the unbound composite used before a registry
+ * is attached. Run with: <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args="MetricsOverheadJmh -t 4"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadJmh {
+    private StorageMetrics bound, unbound;
+
+    @Setup
+    public void setUp() {
+        CompositeMeterRegistry meters = new CompositeMeterRegistry(); // wired like DiskRemoteStorage after bindTo
+        meters.add(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+        bound = new StorageMetrics(meters);
+        unbound = new StorageMetrics(new CompositeMeterRegistry());
+    }
+
+    @Benchmark
+    public void timedCallPrometheus() { long t0 = System.nanoTime(); StorageMetrics.stop(bound.download, t0); bound.uploaded.increment(4096); }
+
+    @Benchmark
+    public void timedCallUnbound() { long t0 = System.nanoTime(); StorageMetrics.stop(unbound.download, t0); unbound.uploaded.increment(4096); }
+}
@@ -0,0 +1,88 @@
+package org.example.server.storage;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Catalog hot paths of the server {@link DiskRemoteStorage} at 1k/10k/100k entries. Catalogs are built once under
+ * {@code target/jmh-catalogs} (or {@code -Dbench.dir}) and reused by later trials and runs; fsync is off so the numbers
+ * measure the storage code rather than the disk. {@code upload} goes through {@link DiskRemoteStorage#upsert} on an
+ * existing name, the path HTTP uploads take, so the catalog keeps its size. Run with:
+ * <pre>mvn -Pbench test-compile exec:exec@jmh -Djmh.args=StorageJmh</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageJmh {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private DiskRemoteStorage storage;
+    private String[] ids, names;
+    private final byte[] content = new byte[4096];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ThreadLocalRandom.current().nextBytes(content);
+        Path root = catalog("server-" + size);
+        boolean fresh = !Files.exists(root.resolve(".complete"));
+        if (fresh) deleteTree(root);
+        storage = new DiskRemoteStorage(root, false, false, new GroupCommitter(GroupCommitter.Mode.OFF, 0, 1));
+        if (fresh) {
+            for (int i = 0; i < size; i++) storage.upload(new ByteArrayInputStream(content), name(i), "user" + i % 50);
+            Files.createFile(root.resolve(".complete"));
+        }
+        List<RemoteFileMetadata> all = storage.list();
+        ids = all.stream().map(RemoteFileMetadata::getId).toArray(String[]::new);
+        names = all.stream().map(RemoteFileMetadata::getName).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException { storage.close(); }
+
+    @Benchmark
+    public List<RemoteFileMetadata> list() { return storage.list(); }
+
+    @Benchmark
+    public RemoteFileMetadata findByName() { return storage.findByName(names[ThreadLocalRandom.current().nextInt(names.length)]); }
+
+    @Benchmark
+    public byte[] download() throws IOException {
+        try (InputStream in = storage.download(ids[ThreadLocalRandom.current().nextInt(ids.length)])) { return in.readAllBytes(); }
+    }
+
+    @Benchmark
+    public RemoteFileMetadata upload() throws IOException {
+        return storage.upsert(names[ThreadLocalRandom.current().nextInt(names.length)], new ByteArrayInputStream(content), "bench", null);
+    }
+
+    static String name(int i) {
+        String[] ext = { ".txt", ".html", ".png", ".pdf" };
+        return String.format("file-%06d%s", i, ext[i % ext.length]);
+    }
+
+    static Path catalog(String name) throws IOException {
+        Path dir = Path.of(System.getProperty("bench.dir", "target"), "jmh-catalogs", name);
+        Files.createDirectories(dir.getParent());
+        return dir;
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted((a, b) -> b.getNameCount() - a.getNameCount())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
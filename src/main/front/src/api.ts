@@ -28,8 +28,8 @@ export async function listFiles() {
 }
 
 export async function uploadFile(f: File) {
-  const fd = new FormData(); fd.append('file', f);
-  const r = await fetch(`${BASE}/api/files`, { method:'POST', headers: headers(), body: fd });
+  // raw body: streamed once into storage server-side, no multipart spooling or size limit
+  const r = await fetch(`${BASE}/api/files/by-name/${encodeURIComponent(f.name)}`, { method:'PUT', headers: headers({'Content-Type':'application/octet-stream'}), body: f });
   if (!r.ok) throw new Error(await r.text());
   return r.json();
 }
@@ -48,8 +48,22 @@ export async function deleteFile(id: string) {
 
 export function downloadUrl(id: string) { return `${BASE}/api/files/${id}/content`; }
 
-export function connectSSE(onChange: (msg: string)=>void) {
+/** Server-side rendition: PNG thumbnail fitting w x h for images, the first few KB for text files. */
+export function previewUrl(id: string, w = 256, h = 256) { return `${BASE}/api/files/${id}/preview?w=${w}&h=${h}`; }
+
+/** Ranked full-text search over text files; `total` counts all matches, `hits` is one page. */
+export async function searchFiles(q: string, offset = 0, limit = 20) {
+  const r = await fetch(`${BASE}/api/search?q=${encodeURIComponent(q)}&offset=${offset}&limit=${limit}`, { headers: headers() });
+  if (!r.ok) throw new Error(await r.text());
+  return r.json();
+}
+
+export type Change = { seq: number; kind: 'CREATED' | 'UPDATED' | 'DELETED'; id: string; name: string; metadata: any | null };
+
+/** onChanges gets batches of changes to patch the view with; onResync means events were missed: reload the listing. */
+export function connectSSE(onChanges: (changes: Change[])=>void, onResync: ()=>void) {
   const ev = new EventSource(`${BASE}/api/events`);
-  ev.addEventListener('change', (e: MessageEvent) => onChange(e.data as string));
+  ev.addEventListener('changes', (e: MessageEvent) => onChanges(JSON.parse(e.data).changes as Change[]));
+  ev.addEventListener('resync', () => onResync());
   return () => ev.close();
 }
\ No newline at end of file
@@ -1,12 +1,22 @@
 import React, { useEffect, useMemo, useRef, useState } from 'react'
-import { login, listFiles, uploadFile, deleteFile, downloadUrl, connectSSE, updateContent, logout as apiLogout } from '../api'
+import { login, listFiles, uploadFile, deleteFile, downloadUrl, previewUrl, connectSSE, updateContent, logout as apiLogout } from '../api'
+import type { Change } from '../api'
 import type { Meta, Filter } from '../types'
 
-function useSSE(onTick: ()=>void) {
+function useSSE(onChanges: (changes: Change[])=>void, onResync: ()=>void) {
+  // one connection for the component's lifetime; handlers are read through a ref so re-renders don't reconnect
+  const handlers = useRef({ onChanges, onResync }); handlers.current = { onChanges, onResync };
   useEffect(() => {
-    const disconnect = connectSSE(() => onTick());
+    const disconnect = connectSSE(c => handlers.current.onChanges(c), () => handlers.current.onResync());
     return () => disconnect();
-  }, [onTick]);
+  }, []);
+}
+
+// events carry full metadata: patch the list in place instead of reloading it
+function applyChanges(files: Meta[], changes: Change[]): Meta[] {
+  const byId = new Map(files.map(m => [m.id, m] as [string, Meta]));
+  for (const c of changes) { if (c.kind === 'DELETED' || !c.metadata) byId.delete(c.id); else byId.set(c.id, c.metadata as Meta); }
+  return Array.from(byId.values());
 }
 
 function formatBytes(n:number){ if(n<1024) return n+" B"; const u=['KB','MB','GB','TB']; let i= -1; do { n/=1024; i++; } while(n>=1024 && i<u.length-1); return n.toFixed(1)+' '+u[i]; }
@@ -23,7 +33,7 @@ export default function App(){
 
   const refresh = async()=>{ const list = await listFiles(); setFiles(list); }
   useEffect(()=>{ if(user) refresh(); },[user]);
-  useSSE(()=>{ if(user) refresh(); })
+  useSSE((changes)=>{ if(user) setFiles(fs => applyChanges(fs, changes)); }, ()=>{ if(user) refresh(); })
 
   const filtered = useMemo(()=>{
     let a = files.slice();
@@ -159,12 +169,14 @@ function FilesTable({data, hidden, selected, onSelect}:{data:Meta[]; hidden:any;
 
 function Preview({meta}:{meta:Meta|null}){
   const [text,setText] = useState('');
-  useEffect(()=>{ setText(''); },[meta]);
+  useEffect(()=>{
+    setText('');
+    if (meta && meta.name.toLowerCase().endsWith('.js')) fetch(previewUrl(meta.id)).then(r=>r.ok ? r.text() : '').then(setText);
+  },[meta]);
   if(!meta) return <div style={{padding:12, border:'1px solid #eee'}}>No selection</div>
   const ext = meta.name.toLowerCase().split('.').pop();
-  if (ext === 'png') return <div style={{padding:12, border:'1px solid #eee'}}><img src={downloadUrl(meta.id)} style={{maxWidth:'100%'}}/></div>
+  if (ext === 'png') return <div style={{padding:12, border:'1px solid #eee'}}><img src={previewUrl(meta.id, 512, 512)} style={{maxWidth:'100%'}}/></div>
   if (ext === 'js') {
-    fetch(downloadUrl(meta.id)).then(r=>r.text()).then(setText);
     return <pre style={{padding:12, border:'1px solid #eee', overflow:'auto', whiteSpace:'pre-wrap'}}>{text}</pre>
   }
   return <div style={{padding:12, border:'1px solid #eee'}}>No preview</div>
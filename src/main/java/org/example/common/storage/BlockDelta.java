@@ -0,0 +1,205 @@
+package org.example.common.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync-style block deltas. A {@link Signature} describes a base file as fixed-size blocks, each with a rolling
+ * (Adler-style) and a strong (truncated MD5) checksum. {@link #delta} slides over a target, looks the rolling
+ * checksum of every window up in the signature and confirms hits with the strong one, and writes copy-block
+ * and literal-bytes instructions that rebuild the target from the base; {@link #apply} and
+ * {@link DeltaApplyingInputStream} replay them.
+ *
+ * <p>Delta format: {@code int MAGIC, int blockSize}, then ops: {@code COPY long offset int length},
+ * {@code LITERAL int length bytes}, and a final {@code END long targetLength}.
+ */
+public final class BlockDelta {
+    static final int MAGIC = 0x42444c31; // "BDL1"
+    static final byte END = 0, COPY = 1, LITERAL = 2;
+    public static final int MIN_BLOCK = 2048, MAX_BLOCK = 64 * 1024;
+    private static final int MAX_LITERAL = 64 * 1024;
+
+    private BlockDelta() {}
+
+    /** About the square root of the file size (as rsync picks it), a power of two between {@link #MIN_BLOCK} and {@link #MAX_BLOCK}. */
+    public static int blockSizeFor(long length) {
+        int bs = MIN_BLOCK;
+        while (bs < MAX_BLOCK && (long) bs * bs < length) bs <<= 1;
+        return bs;
+    }
+
+    /** Block checksums of a base file; the last block may be short. */
+    public static final class Signature {
+        public final int blockSize;
+        public final long length;
+        final int[] weak;
+        final long[] strong;
+        private int[] head, next; // weak checksum -> block chains, built on first lookup
+
+        Signature(int blockSize, long length, int[] weak, long[] strong) {
+            this.blockSize = blockSize; this.length = length; this.weak = weak; this.strong = strong;
+        }
+
+        public int blocks() { return weak.length; }
+
+        int blockLength(int i) { return (int) Math.min(blockSize, length - (long) i * blockSize); }
+
+        /** First block with this weak checksum, -1 if none; then {@link #nextCandidate}. */
+        int firstCandidate(int w) {
+            if (head == null) index();
+            return head.length == 0 ? -1 : head[w & (head.length - 1)];
+        }
+
+        int nextCandidate(int i) { return next[i]; }
+
+        private void index() {
+            int cap = Integer.highestOneBit(Math.max(1, weak.length) * 2 - 1) << 1;
+            int[] h = new int[weak.length == 0 ? 0 : cap], n = new int[weak.length];
+            Arrays.fill(h, -1);
+            for (int i = weak.length - 1; i >= 0; i--) { int slot = weak[i] & (cap - 1); n[i] = h[slot]; h[slot] = i; }
+            next = n; head = h;
+        }
+
+        /** {@code int blockSize, long length, int blocks}, then {@code int weak, long strong} per block. */
+        public void write(OutputStream out) throws IOException {
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            o.writeInt(blockSize); o.writeLong(length); o.writeInt(weak.length);
+            for (int i = 0; i < weak.length; i++) { o.writeInt(weak[i]); o.writeLong(strong[i]); }
+            o.flush();
+        }
+
+        public static Signature read(InputStream in) throws IOException {
+            DataInputStream d = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            int bs = d.readInt(); long len = d.readLong(); int n = d.readInt();
+            if (bs < 1 || len < 0 || n != (len + bs - 1) / bs) throw new IOException("Malformed signature");
+            int[] w = new int[n]; long[] s = new long[n];
+            for (int i = 0; i < n; i++) { w[i] = d.readInt(); s[i] = d.readLong(); }
+            return new Signature(bs, len, w, s);
+        }
+    }
+
+    public static Signature signature(InputStream base, int blockSize) throws IOException {
+        int[] weak = new int[16]; long[] strong = new long[16]; int n = 0; long length = 0;
+        byte[] block = new byte[blockSize]; MessageDigest md5 = md5();
+        while (true) {
+            int len = base.readNBytes(block, 0, blockSize);
+            if (len == 0) break;
+            if (n == weak.length) { weak = Arrays.copyOf(weak, n * 2); strong = Arrays.copyOf(strong, n * 2); }
+            weak[n] = weak(block, 0, len); strong[n] = strong(md5, block, 0, len); n++;
+            length += len;
+            if (len < blockSize) break;
+        }
+        return new Signature(blockSize, length, Arrays.copyOf(weak, n), Arrays.copyOf(strong, n));
+    }
+
+    /**
+     * Writes the instructions rebuilding {@code target} from the base {@code sig} was computed on. Memory stays
+     * bounded by the literal run limit; adjacent block copies are merged into one instruction.
+     * @return bytes of {@code target} covered by copies (the rest went out as literals)
+     */
+    public static long delta(Signature sig, InputStream target, OutputStream out) throws IOException {
+        Ops o = new Ops(out, sig.blockSize);
+        int bs = sig.blockSize; MessageDigest md5 = md5();
+        byte[] buf = new byte[MAX_LITERAL + 2 * bs + 8192];
+        int lit = 0, pos = 0, end = 0; // pending literal [lit, pos), window [pos, pos + bs), data up to end
+        int a = 0, b = 0; boolean rolled = false, eof = false;
+        while (true) {
+            if (end - pos < bs && !eof) {
+                if (pos - lit >= MAX_LITERAL) { o.literal(buf, lit, pos); lit = pos; }
+                if (lit > 0) { System.arraycopy(buf, lit, buf, 0, end - lit); pos -= lit; end -= lit; lit = 0; }
+                int r = target.readNBytes(buf, end, buf.length - end);
+                if (r == 0) eof = true;
+                end += r;
+                continue;
+            }
+            if (end - pos < bs) break;
+            if (!rolled) { int w = weak(buf, pos, bs); a = w & 0xffff; b = w >>> 16; rolled = true; }
+            int match = find(sig, (a & 0xffff) | (b << 16), buf, pos, bs, md5);
+            if (match >= 0) {
+                o.literal(buf, lit, pos); o.copy((long) match * bs, bs);
+                pos += bs; lit = pos; rolled = false;
+                continue;
+            }
+            int x = buf[pos] & 0xff;
+            if (pos + bs < end) { a += (buf[pos + bs] & 0xff) - x; b += a - bs * x; }
+            else rolled = false; // the next byte is not read yet
+            pos++;
+        }
+        // fewer than a block left: only the base's short last block can still match, right at the end
+        int last = sig.blocks() - 1, tail = last < 0 ? 0 : sig.blockLength(last);
+        if (tail > 0 && tail < bs && end - pos >= tail && find(sig, weak(buf, end - tail, tail), buf, end - tail, tail, md5) == last) {
+            o.literal(buf, lit, end - tail); o.copy((long) last * bs, tail); lit = end;
+        }
+        o.literal(buf, lit, end);
+        return o.finish();
+    }
+
+    /** Block of {@code sig} holding {@code buf[pos, pos + len)}, or -1. */
+    private static int find(Signature sig, int weak, byte[] buf, int pos, int len, MessageDigest md5) {
+        if (sig.blocks() == 0) return -1;
+        long strong = 0; boolean hashed = false;
+        for (int c = sig.firstCandidate(weak); c >= 0; c = sig.nextCandidate(c)) {
+            if (sig.weak[c] != weak || sig.blockLength(c) != len) continue;
+            if (!hashed) { strong = strong(md5, buf, pos, len); hashed = true; }
+            if (sig.strong[c] == strong) return c;
+        }
+        return -1;
+    }
+
+    /** Delta writer; holds back the last copy so that one starting where it ends extends it. */
+    private static final class Ops {
+        private final DataOutputStream o;
+        private long copyOff, copied, written; private int copyLen;
+
+        Ops(OutputStream out, int blockSize) throws IOException {
+            o = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            o.writeInt(MAGIC); o.writeInt(blockSize);
+        }
+
+        void copy(long off, int len) throws IOException {
+            if (copyLen > 0 && copyOff + copyLen == off && copyLen <= Integer.MAX_VALUE - len) copyLen += len;
+            else { flushCopy(); copyOff = off; copyLen = len; }
+            copied += len; written += len;
+        }
+
+        void literal(byte[] buf, int from, int to) throws IOException {
+            if (to <= from) return;
+            flushCopy();
+            o.writeByte(LITERAL); o.writeInt(to - from); o.write(buf, from, to - from);
+            written += to - from;
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyLen == 0) return;
+            o.writeByte(COPY); o.writeLong(copyOff); o.writeInt(copyLen); copyLen = 0;
+        }
+
+        long finish() throws IOException { flushCopy(); o.writeByte(END); o.writeLong(written); o.flush(); return copied; }
+    }
+
+    /** Rebuilds the target a delta was made for from {@code base} into {@code out}; see {@link DeltaApplyingInputStream}. */
+    public static long apply(Path base, InputStream delta, OutputStream out) throws IOException {
+        try (FileChannel ch = FileChannel.open(base, StandardOpenOption.READ)) { return new DeltaApplyingInputStream(ch, delta).transferTo(out); }
+    }
+
+    static int weak(byte[] buf, int off, int len) {
+        int a = 0, b = 0;
+        for (int i = 0; i < len; i++) { int x = buf[off + i] & 0xff; a += x; b += (len - i) * x; }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static long strong(MessageDigest md5, byte[] buf, int off, int len) {
+        md5.update(buf, off, len);
+        return ByteBuffer.wrap(md5.digest()).getLong();
+    }
+
+    private static MessageDigest md5() {
+        try { return MessageDigest.getInstance("MD5"); } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+}
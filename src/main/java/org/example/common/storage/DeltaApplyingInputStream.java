@@ -0,0 +1,74 @@
+package org.example.common.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The target of a {@link BlockDelta}, read while the delta streams in: copy instructions are served from the
+ * base with positional reads, literals straight from the delta. Nothing is buffered beyond one op, so a
+ * reconstructed file can be piped into storage like any upload. Deltas that do not fit the base (copies past
+ * its end, a wrong final length, unknown ops) fail with {@link StreamCorruptedException}.
+ */
+public class DeltaApplyingInputStream extends InputStream {
+    private final FileChannel base;
+    private final long baseSize;
+    private final DataInputStream delta;
+    private long copyOff; // next base offset of the current copy
+    private int copyLeft, literalLeft;
+    private long produced;
+    private boolean started, done;
+
+    /** {@code base} stays open and owned by the caller; {@code delta} is closed with this stream. */
+    public DeltaApplyingInputStream(FileChannel base, InputStream delta) throws IOException {
+        this.base = base; this.baseSize = base.size();
+        this.delta = new DataInputStream(new BufferedInputStream(delta, 1 << 16));
+    }
+
+    @Override public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (copyLeft == 0 && literalLeft == 0) if (!nextOp()) return -1;
+        int n;
+        if (copyLeft > 0) {
+            n = base.read(ByteBuffer.wrap(b, off, Math.min(len, copyLeft)), copyOff);
+            if (n <= 0) throw new EOFException("Base shrank while applying a delta");
+            copyOff += n; copyLeft -= n;
+        } else {
+            n = delta.read(b, off, Math.min(len, literalLeft));
+            if (n < 0) throw new EOFException("Delta ends inside a literal");
+            literalLeft -= n;
+        }
+        produced += n;
+        return n;
+    }
+
+    private boolean nextOp() throws IOException {
+        if (done) return false;
+        if (!started) {
+            if (delta.readInt() != BlockDelta.MAGIC) throw new StreamCorruptedException("Not a block delta");
+            delta.readInt(); started = true;
+        }
+        byte op = delta.readByte();
+        if (op == BlockDelta.END) {
+            if (delta.readLong() != produced) throw new StreamCorruptedException("Delta length mismatch");
+            done = true; return false;
+        }
+        if (op == BlockDelta.COPY) {
+            long o = delta.readLong(); int l = delta.readInt();
+            if (o < 0 || l < 0 || o + l > baseSize) throw new StreamCorruptedException("Delta copies past the base");
+            copyOff = o; copyLeft = l;
+        } else if (op == BlockDelta.LITERAL) {
+            int l = delta.readInt();
+            if (l < 0) throw new StreamCorruptedException("Negative literal length");
+            literalLeft = l;
+        } else throw new StreamCorruptedException("Unknown delta op " + op);
+        return true;
+    }
+
+    @Override public void close() throws IOException { delta.close(); }
+}
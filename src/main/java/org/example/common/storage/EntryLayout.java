@@ -0,0 +1,199 @@
+package org.example.common.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Where entry folders live under a storage root. Flat, the default: {@code <root>/<id>/}. Fan-out, with
+ * {@code -Dserver.layout=fanout}: {@code <root>/<ab>/<cd>/<id>/}, {@code abcd} being the first four hex digits
+ * of the id. Ids are random UUIDs, so that prefix is already a uniform hash and no folder ends up with more
+ * than a few hundred children, where a flat root holds the whole catalog. Shared by the server and the desktop
+ * DiskRemoteStorage, which read the same folders; both find entries in either layout. The helpers that are
+ * public but not mentioned here (buckets, staging, pruning) are for the server's layout migration.
+ *
+ * <p>{@link #scan} reads every entry folder on a fork-join pool, one task per top-level bucket (flat entries in
+ * slices), sized with {@code -Dserver.scan.threads} (default twice the cores, at least 4: the work is mostly waiting
+ * on the disk).
+ */
+public final class EntryLayout {
+    /** Metadata file of an entry folder, unless the metadata is journaled. */
+    public static final String META_FILE = "meta.properties";
+    /** Folder under the root holding content-addressed blobs: {@code <root>/.blobs/<first two hex>/<key>}. */
+    public static final String BLOBS = ".blobs";
+    /** Suffix of a fan-out folder being assembled by the migration; only renamed to the id once complete. */
+    static final String MIGRATING = ".migrating";
+    private static final int FLAT_SLICE = 4096;
+
+    private EntryLayout() {}
+
+    public static boolean fanOutEnabled() { return "fanout".equalsIgnoreCase(System.getProperty("server.layout", "flat")); }
+
+    public static Path flat(Path root, String id) { return root.resolve(id); }
+
+    public static Path fanOut(Path root, String id) {
+        String h = id.toLowerCase(Locale.ROOT);
+        return root.resolve(h.substring(0, 2)).resolve(h.substring(2, 4)).resolve(id);
+    }
+
+    /** The folder holding {@code id}: the fan-out one if it exists (it wins over a flat leftover), else the flat one. */
+    public static Path locate(Path root, String id) {
+        Path f = fanOut(root, id);
+        return Files.isDirectory(f) || !Files.isDirectory(flat(root, id)) ? f : flat(root, id);
+    }
+
+    /**
+     * Checks that {@code name} can be stored as an entry's file name: one path segment, not {@link #META_FILE}, and
+     * not starting with a dot ({@code .}, {@code ..} and the storage's own {@code .tmp}, {@code .blobs}, ...).
+     * @throws IllegalArgumentException if it cannot
+     */
+    public static String checkName(String name) {
+        if (name == null || name.isBlank() || name.startsWith(".") || name.equalsIgnoreCase(META_FILE)
+                || name.contains("/") || name.contains("\\") || name.indexOf('\0') >= 0) throw new IllegalArgumentException("Invalid name: " + name);
+        return name;
+    }
+
+    /** Name of the blob holding content with this hash, stored in {@code encoding} (null: as is). */
+    public static String blobKey(String sha256, String encoding) { return encoding == null ? sha256 : sha256 + "." + encoding; }
+
+    public static Path blob(Path root, String key) { return root.resolve(BLOBS).resolve(key.substring(0, 2)).resolve(key); }
+
+    /**
+     * File holding an entry's content as stored: {@code <dir>/<name>}, or the blob named by its hash and encoding
+     * when the folder is content-addressed. For readers that share the folder without running the server's blob
+     * store, like the desktop app; the bytes are in {@code encoding} when one is set.
+     */
+    public static Path storedContent(Path root, Path dir, String name, String sha256, String encoding) {
+        Path plain = dir.resolve(name);
+        return sha256 == null || Files.exists(plain) ? plain : blob(root, blobKey(sha256, encoding));
+    }
+
+    static boolean isBucket(String name) {
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0 && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    /** Entry folders directly under the root: everything but buckets and dot folders (.tmp, .blobs, ...). */
+    public static List<Path> flatEntries(Path root) throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, p -> {
+            String n = p.getFileName().toString();
+            return !n.startsWith(".") && !isBucket(n) && Files.isDirectory(p);
+        })) { for (Path p : ds) out.add(p); }
+        return out;
+    }
+
+    public static List<Path> buckets(Path root) throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(root, p -> isBucket(p.getFileName().toString()) && Files.isDirectory(p))) {
+            for (Path p : ds) out.add(p);
+        }
+        return out;
+    }
+
+    /** Entry folders of one top-level bucket; half-migrated folders are reported to {@code migrating} when it is not null. */
+    public static List<Path> bucketEntries(Path bucket, List<Path> migrating) throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> inner = Files.newDirectoryStream(bucket, p -> isBucket(p.getFileName().toString()))) {
+            for (Path b : inner) {
+                if (!Files.isDirectory(b)) continue;
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(b)) {
+                    for (Path p : ds) {
+                        if (p.getFileName().toString().endsWith(MIGRATING)) { if (migrating != null) migrating.add(p); }
+                        else if (Files.isDirectory(p)) out.add(p);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Every entry folder in both layouts, serially; a flat folder whose id also has a fan-out folder is left out. */
+    public static List<Path> entries(Path root) throws IOException {
+        List<Path> out = new ArrayList<>();
+        for (Path b : buckets(root)) out.addAll(bucketEntries(b, null));
+        for (Path p : flatEntries(root)) if (!Files.isDirectory(fanOut(root, p.getFileName().toString()))) out.add(p);
+        return out;
+    }
+
+    public static int scanThreads() { return Integer.getInteger("server.scan.threads", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())); }
+
+    /**
+     * Applies {@code read} to every entry folder of both layouts in parallel and returns the non-null results
+     * (in no particular order). Flat folders shadowed by a fan-out one are skipped, as in {@link #entries}.
+     */
+    public static <T> List<T> scan(Path root, Function<Path, T> read, int threads) throws IOException {
+        List<Callable<List<T>>> tasks = new ArrayList<>();
+        for (Path b : buckets(root)) tasks.add(() -> readAll(bucketEntries(b, null), read, null));
+        List<Path> flat = flatEntries(root);
+        for (int i = 0; i < flat.size(); i += FLAT_SLICE) {
+            List<Path> slice = flat.subList(i, Math.min(flat.size(), i + FLAT_SLICE));
+            tasks.add(() -> readAll(slice, read, root));
+        }
+        if (tasks.isEmpty()) return new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            List<T> out = new ArrayList<>();
+            for (Future<List<T>> f : pool.invokeAll(tasks)) out.addAll(f.get());
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + root, e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof UncheckedIOException) throw ((UncheckedIOException) c).getCause();
+            throw c instanceof IOException ? (IOException) c : new IOException(c);
+        } finally { pool.shutdown(); }
+    }
+
+    /** {@code root} set: the dirs are flat, skip those that also exist in the fan-out layout. */
+    private static <T> List<T> readAll(List<Path> dirs, Function<Path, T> read, Path root) {
+        List<T> out = new ArrayList<>(dirs.size());
+        for (Path d : dirs) {
+            if (root != null && Files.isDirectory(fanOut(root, d.getFileName().toString()))) continue;
+            T t = read.apply(d);
+            if (t != null) out.add(t);
+        }
+        return out;
+    }
+
+    /** Deletes a folder and the files in it (entry folders hold no subfolders). */
+    public static void deleteEntryDir(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) { for (Path p : ds) Files.deleteIfExists(p); }
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Assembles the fan-out copy of a flat entry next to its final place and renames it in: files are hard-linked
+     * (copied where links are not supported), so the flat folder stays intact and readable until it is deleted.
+     * @return the staging folder, to be made durable and renamed by the caller
+     */
+    public static Path stage(Path root, Path flatDir) throws IOException {
+        String id = flatDir.getFileName().toString();
+        Path target = fanOut(root, id), staging = target.resolveSibling(id + MIGRATING);
+        deleteEntryDir(staging);
+        Files.createDirectories(staging);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(flatDir)) {
+            for (Path p : ds) {
+                Path dst = staging.resolve(p.getFileName());
+                try { Files.createLink(dst, p); }
+                catch (UnsupportedOperationException | FileSystemException e) { Files.copy(p, dst, StandardCopyOption.COPY_ATTRIBUTES); }
+            }
+        }
+        return staging;
+    }
+
+    /** Removes buckets left empty, e.g. after moving entries back to the flat layout. */
+    public static void pruneEmptyBuckets(Path root) throws IOException {
+        for (Path b : buckets(root)) {
+            try (Stream<Path> inner = Files.list(b)) {
+                for (Path i : (Iterable<Path>) inner::iterator) try { Files.deleteIfExists(i); } catch (DirectoryNotEmptyException ignored) {}
+            }
+            try { Files.deleteIfExists(b); } catch (DirectoryNotEmptyException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.example.common.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only binary log of metadata changes kept in a single file: {@code <root>/meta.journal}.
+ * Used instead of one meta.properties per {@code <root>/<id>/} folder when {@code -Dserver.meta=journal}
+ * (shared by the server and the desktop DiskRemoteStorage, which read the same folder layout).
+ *
+ * <p>Record: {@code [length:int][crc32:int][op:byte][id:utf][count:int]([key:utf][value:utf])*}.
+ * Startup replays the file sequentially; a torn tail left by a crash mid-append is truncated.
+ * Once dead records outnumber live entries the file is compacted into a snapshot of the live
+ * set, written to a temp file that atomically replaces the journal. Guarded by a {@link ReentrantLock}, not the
+ * monitor, so writers on virtual threads do not pin their carrier.
+ *
+ * <p>One process at a time: an OS file lock on {@code <root>/meta.journal.lock} is held while the journal is
+ * open, and opening it again (the desktop app and the server default to the same folder) fails instead of
+ * letting two writers interleave records, which the next replay would truncate at the first bad CRC.
+ */
+public final class MetadataJournal implements Closeable {
+    public static final String FILE = "meta.journal";
+    public static final String LOCK_FILE = "meta.journal.lock";
+    private static final byte PUT = 1, REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private final Path file;
+    private final Map<String, Properties> live = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FileChannel lockChannel;
+    private FileChannel ch;
+    private long records;
+
+    /** @throws IOException also when another process (or another instance in this one) has the journal open */
+    public MetadataJournal(Path root) throws IOException {
+        this.file = root.resolve(FILE);
+        this.lockChannel = acquire(root.resolve(LOCK_FILE));
+        try {
+            long valid = replay();
+            ch = FileChannel.open(file, CREATE, WRITE);
+            if (ch.size() > valid) ch.truncate(valid);
+            ch.position(valid);
+            if (needsCompaction()) compact();
+        } catch (IOException | RuntimeException e) {
+            if (ch != null) ch.close();
+            lockChannel.close(); // releases the lock
+            throw e;
+        }
+    }
+
+    private static FileChannel acquire(Path lockFile) throws IOException {
+        FileChannel c = FileChannel.open(lockFile, CREATE, WRITE);
+        FileLock l;
+        try { l = c.tryLock(); } catch (OverlappingFileLockException e) { l = null; }
+        if (l == null) { c.close(); throw new IOException(lockFile.getParent() + " is in use by another process (" + LOCK_FILE + " is locked)"); }
+        return c;
+    }
+
+    /** Journal mode is opt-in: {@code -Dserver.meta=journal}; default stays one meta.properties per entry. */
+    public static boolean enabled() { return "journal".equalsIgnoreCase(System.getProperty("server.meta", "properties")); }
+
+    public Path file() { return file; }
+
+    public Map<String, Properties> entries() {
+        lock.lock();
+        try {
+            Map<String, Properties> copy = new LinkedHashMap<>();
+            live.forEach((id, p) -> copy.put(id, (Properties) p.clone()));
+            return copy;
+        } finally { lock.unlock(); }
+    }
+
+    public Properties get(String id) {
+        lock.lock();
+        try { Properties p = live.get(id); return p == null ? null : (Properties) p.clone(); }
+        finally { lock.unlock(); }
+    }
+
+    public void put(String id, Properties fields) throws IOException {
+        Properties p = (Properties) fields.clone();
+        ByteBuffer rec = encode(PUT, id, p);
+        lock.lock();
+        try {
+            append(rec);
+            live.put(id, p);
+            if (needsCompaction()) compact();
+        } finally { lock.unlock(); }
+    }
+
+    public void remove(String id) throws IOException {
+        lock.lock();
+        try {
+            if (!live.containsKey(id)) return;
+            append(encode(REMOVE, id, null));
+            live.remove(id);
+            if (needsCompaction()) compact();
+        } finally { lock.unlock(); }
+    }
+
+    /** Rewrites the journal as one PUT per live entry. */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            Path tmp = file.resolveSibling(FILE + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                for (Map.Entry<String, Properties> e : live.entrySet()) writeFully(out, encode(PUT, e.getKey(), e.getValue()));
+                out.force(true);
+            }
+            ch.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ch = FileChannel.open(file, WRITE);
+            ch.position(ch.size());
+            records = live.size();
+        } finally { lock.unlock(); }
+    }
+
+    public void force() throws IOException { lock.lock(); try { ch.force(false); } finally { lock.unlock(); } }
+
+    @Override public void close() throws IOException {
+        lock.lock();
+        try { ch.close(); } finally { lockChannel.close(); lock.unlock(); }
+    }
+
+    /**
+     * Migration from the per-folder layout: imports the meta.properties of every entry folder
+     * (either {@link EntryLayout layout}) and deletes
+     * the file once the journal holding it is on disk. Re-running after a crash simply re-imports.
+     */
+    public int importPropertiesLayout(Path root) throws IOException {
+        lock.lock();
+        try { return importLocked(root); } finally { lock.unlock(); }
+    }
+
+    private int importLocked(Path root) throws IOException {
+        List<Path> imported = new ArrayList<>();
+        for (Path dir : EntryLayout.entries(root)) {
+            Path meta = dir.resolve(EntryLayout.META_FILE);
+            if (!Files.isRegularFile(meta)) continue;
+            Properties p = new Properties();
+            try (InputStream is = Files.newInputStream(meta)) { p.load(is); } catch (IOException | IllegalArgumentException e) { continue; }
+            if (p.getProperty("id") == null) continue;
+            append(encode(PUT, p.getProperty("id"), p));
+            live.put(p.getProperty("id"), p);
+            imported.add(meta);
+        }
+        if (imported.isEmpty()) return 0;
+        ch.force(true);
+        for (Path meta : imported) Files.deleteIfExists(meta);
+        return imported.size();
+    }
+
+    /**
+     * Reverse migration used when journal mode is switched off: writes each live entry back as
+     * meta.properties into its entry folder and removes the journal once every file written, and the folder
+     * entry naming it, is on disk. Re-running after a crash simply re-exports.
+     */
+    public static void exportPropertiesLayout(Path root) throws IOException {
+        Path f = root.resolve(FILE);
+        if (!Files.exists(f)) return;
+        try (MetadataJournal j = new MetadataJournal(root)) {
+            Set<Path> written = new LinkedHashSet<>(), dirs = new LinkedHashSet<>();
+            for (Map.Entry<String, Properties> e : j.live.entrySet()) {
+                Path dir = EntryLayout.locate(root, e.getKey());
+                if (!Files.isDirectory(dir)) continue;
+                Path meta = dir.resolve(EntryLayout.META_FILE);
+                try (OutputStream os = Files.newOutputStream(meta)) { e.getValue().store(os, "meta"); }
+                written.add(meta); dirs.add(dir);
+            }
+            for (Path p : written) force(p);
+            for (Path d : dirs) force(d);
+        }
+        Files.delete(f);
+        force(root);
+    }
+
+    /** fsync of a file or, where the platform allows opening one, a directory. */
+    private static void force(Path p) throws IOException {
+        try (FileChannel c = FileChannel.open(p, READ)) { c.force(true); }
+        catch (IOException e) { if (!Files.isDirectory(p)) throw e; }
+    }
+
+    private boolean needsCompaction() { return records > MIN_COMPACT_RECORDS && records > 2L * live.size(); }
+
+    private void append(ByteBuffer rec) throws IOException { writeFully(ch, rec); records++; }
+
+    private static void writeFully(FileChannel c, ByteBuffer b) throws IOException { while (b.hasRemaining()) c.write(b); }
+
+    /** @return offset just past the last intact record */
+    private long replay() throws IOException {
+        if (!Files.exists(file)) return 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int len, crc; byte[] payload;
+                try {
+                    len = in.readInt(); crc = in.readInt();
+                    if (len <= 0) break;
+                    payload = new byte[len];
+                    in.readFully(payload);
+                } catch (EOFException torn) { break; }
+                CRC32 c = new CRC32(); c.update(payload);
+                if ((int) c.getValue() != crc) break;
+                apply(payload);
+                valid += 8 + len;
+                records++;
+            }
+        }
+        return valid;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte(); String id = in.readUTF();
+        if (op == REMOVE) { live.remove(id); return; }
+        Properties p = new Properties();
+        for (int i = in.readInt(); i > 0; i--) p.setProperty(in.readUTF(), in.readUTF());
+        live.put(id, p);
+    }
+
+    private static ByteBuffer encode(byte op, String id, Properties p) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(0); out.writeInt(0); // length + crc, patched below
+        out.writeByte(op); out.writeUTF(id);
+        if (op == PUT) {
+            out.writeInt(p.size());
+            for (String k : p.stringPropertyNames()) { out.writeUTF(k); out.writeUTF(p.getProperty(k)); }
+        }
+        out.flush();
+        ByteBuffer b = ByteBuffer.wrap(bos.toByteArray());
+        CRC32 c = new CRC32(); c.update(b.array(), 8, b.limit() - 8);
+        b.putInt(0, b.limit() - 8).putInt(4, (int) c.getValue());
+        return b;
+    }
+}
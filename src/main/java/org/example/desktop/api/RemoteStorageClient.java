@@ -1,11 +1,19 @@
 package org.example.desktop.api;
 
+import org.example.common.storage.BlockDelta;
 import org.example.desktop.model.RemoteFileMetadata;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public interface RemoteStorageClient {
     boolean login(String username, String password) throws IOException;
@@ -14,4 +22,71 @@ public interface RemoteStorageClient {
     RemoteFileMetadata updateContent(String fileId, Path localFile, String editorName) throws IOException;
     InputStream download(String fileId) throws IOException;
     void delete(String fileId) throws IOException;
+
+    /** Metadata of several entries in one call; unknown ids are left out. */
+    default List<RemoteFileMetadata> getFiles(Collection<String> fileIds) throws IOException {
+        Set<String> wanted = new HashSet<>(fileIds);
+        List<RemoteFileMetadata> out = new ArrayList<>();
+        for (RemoteFileMetadata m : listFiles()) if (wanted.contains(m.getId())) out.add(m);
+        return out;
+    }
+
+    /** Block signature of the file's current content, or null if this client cannot take delta uploads. */
+    default BlockDelta.Signature signature(String fileId) throws IOException { return null; }
+
+    /**
+     * Replaces the content of {@code fileId} with what {@code delta} rebuilds from the content {@code base} was
+     * taken from; a server-backed client sends it along with that content's tag, so a file changed in between
+     * is refused rather than patched.
+     */
+    default RemoteFileMetadata applyDelta(String fileId, BlockDelta.Signature base, InputStream delta, String editorName) throws IOException {
+        // no delta endpoint: rebuild locally from the downloaded content and upload the whole file
+        Path current = Files.createTempFile("delta", ".base"), rebuilt = Files.createTempFile("delta", ".part");
+        try {
+            try (InputStream in = download(fileId)) { Files.copy(in, current, StandardCopyOption.REPLACE_EXISTING); }
+            if (Files.size(current) != base.length) throw new IOException("Content changed since its signature was taken: " + fileId);
+            try (OutputStream out = Files.newOutputStream(rebuilt)) { BlockDelta.apply(current, delta, out); }
+            return updateContent(fileId, rebuilt, editorName);
+        } finally {
+            Files.deleteIfExists(current);
+            Files.deleteIfExists(rebuilt);
+        }
+    }
+
+    /**
+     * {@link #updateContent} that only sends the changed blocks: fetches the signature, computes the delta
+     * locally and uploads that; falls back to the whole file when the client has no signatures or the delta
+     * would not be smaller.
+     */
+    default RemoteFileMetadata updateContentDelta(String fileId, Path localFile, String editorName) throws IOException {
+        BlockDelta.Signature sig = signature(fileId);
+        if (sig == null) return updateContent(fileId, localFile, editorName);
+        Path delta = Files.createTempFile("upload", ".delta");
+        try {
+            try (InputStream in = Files.newInputStream(localFile); OutputStream out = Files.newOutputStream(delta)) { BlockDelta.delta(sig, in, out); }
+            if (Files.size(delta) >= Files.size(localFile)) return updateContent(fileId, localFile, editorName);
+            try (InputStream in = Files.newInputStream(delta)) { return applyDelta(fileId, sig, in, editorName); }
+        } finally { Files.deleteIfExists(delta); }
+    }
+
+    /** Deletes several entries; a server-backed client does it in one request. */
+    default void deleteAll(Collection<String> fileIds) throws IOException {
+        for (String id : fileIds) delete(id);
+    }
+
+    /** Writes the given entries to {@code out} as one ZIP, already-compressed images and archives without deflating them again. */
+    default void downloadArchive(Collection<String> fileIds, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Set<String> names = new HashSet<>();
+        for (RemoteFileMetadata m : getFiles(fileIds)) {
+            String ext = m.getExtensionLower();
+            zip.setLevel(Set.of("png", "jpg", "jpeg", "gif", "zip", "gz").contains(ext) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+            ZipEntry e = new ZipEntry(names.add(m.getName()) ? m.getName() : m.getId() + "-" + m.getName());
+            if (m.getModifiedAt() != null) e.setLastModifiedTime(FileTime.from(m.getModifiedAt()));
+            zip.putNextEntry(e);
+            try (InputStream in = download(m.getId())) { in.transferTo(zip); }
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
 }
@@ -1,29 +1,58 @@
 package org.example.desktop.impl;
 
+import org.example.common.storage.BlockDelta;
+import org.example.common.storage.EntryLayout;
+import org.example.common.storage.MetadataJournal;
 import org.example.desktop.api.RemoteStorageClient;
 import org.example.desktop.model.RemoteFileMetadata;
 
 import java.io.*;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * Persistent storage on disk. Each file lives in a folder: <root>/<id>/{meta.properties,<name>}
+ * In journal mode (-Dserver.meta=journal) metadata goes to <root>/meta.journal instead of meta.properties.
+ * With -Dserver.layout=fanout new folders go to <root>/<ab>/<cd>/<id>; entries are found in either layout.
+ * The folder may be the server's: content is read where and how the server stores it (blobs, gzip), and
+ * updates keep the metadata fields the server added (version, ...), changing only what the update changes.
  */
-public class DiskRemoteStorage implements RemoteStorageClient {
+public class DiskRemoteStorage implements RemoteStorageClient, Closeable {
     private final Path root;
+    private final MetadataJournal journal; // null -> one meta.properties per entry folder
     private volatile boolean authenticated = false;
     private String currentUser;
 
     private static final String META_FILE = "meta.properties";
 
     public DiskRemoteStorage(Path root) throws IOException {
+        this(root, MetadataJournal.enabled());
+    }
+
+    public DiskRemoteStorage(Path root, boolean journaled) throws IOException {
         this.root = root;
         Files.createDirectories(root);
+        if (journaled) {
+            journal = new MetadataJournal(root);
+            journal.importPropertiesLayout(root);
+        } else {
+            journal = null;
+            MetadataJournal.exportPropertiesLayout(root);
+        }
+    }
+
+    /** Releases the journal, and with it the folder, for another process. */
+    @Override
+    public void close() throws IOException {
+        if (journal != null) journal.close();
     }
 
     @Override
@@ -42,35 +71,42 @@ public class DiskRemoteStorage implements RemoteStorageClient {
     public List<RemoteFileMetadata> listFiles() throws IOException {
         ensureAuth();
         if (!Files.exists(root)) return Collections.emptyList();
-        try {
-            return Files.list(root)
-                    .filter(Files::isDirectory)
-                    .map(this::readMetaSafe)
+        if (journal != null) {
+            return journal.entries().values().stream()
+                    .map(this::fromPropsSafe)
                     .filter(Objects::nonNull)
                     .sorted(Comparator.comparing(RemoteFileMetadata::getName, String.CASE_INSENSITIVE_ORDER))
                     .collect(Collectors.toList());
-        } catch (IOException e) {
-            throw e;
         }
+        List<RemoteFileMetadata> out = EntryLayout.scan(root, this::readMetaSafe, EntryLayout.scanThreads());
+        out.sort(Comparator.comparing(RemoteFileMetadata::getName, String.CASE_INSENSITIVE_ORDER));
+        return out;
     }
 
     private RemoteFileMetadata readMetaSafe(Path dir) {
         try { return readMeta(dir); } catch (Exception e) { return null; }
     }
 
+    private RemoteFileMetadata fromPropsSafe(Properties props) {
+        try { return fromProps(props); } catch (Exception e) { return null; }
+    }
+
     @Override
     public RemoteFileMetadata upload(Path localFile, String uploadedBy) throws IOException {
         ensureAuth();
         String id = UUID.randomUUID().toString();
-        Path dir = root.resolve(id);
+        Path dir = EntryLayout.fanOutEnabled() ? EntryLayout.fanOut(root, id) : EntryLayout.flat(root, id);
         Files.createDirectories(dir);
         String name = localFile.getFileName().toString();
         Path dst = dir.resolve(name);
-        Files.copy(localFile, dst, REPLACE_EXISTING);
+        String sha256 = copyHashing(localFile, dst);
         long size = Files.size(dst);
         Instant now = Instant.now();
         RemoteFileMetadata meta = new RemoteFileMetadata(id, name, now, now, uploadedBy, uploadedBy, size);
-        writeMeta(dir, meta);
+        Properties props = toProps(meta);
+        props.setProperty("sha256", sha256);
+        props.setProperty("version", "1");
+        writeProps(dir, id, props);
         return meta;
     }
 
@@ -78,24 +114,68 @@ public class DiskRemoteStorage implements RemoteStorageClient {
     public RemoteFileMetadata updateContent(String fileId, Path localFile, String editorName) throws IOException {
         ensureAuth();
         Path dir = idDir(fileId);
-        RemoteFileMetadata meta = readMeta(dir);
-        Path dst = dir.resolve(meta.getName());
-        Files.copy(localFile, dst, REPLACE_EXISTING);
-        long size = Files.size(dst);
-        meta.setModifiedAt(Instant.now());
-        meta.setEditedBy(editorName);
-        meta.setSize(size);
-        writeMeta(dir, meta);
-        return meta;
+        Properties props = readProps(dir);
+        Path dst = dir.resolve(props.getProperty("name"));
+        String sha256 = copyHashing(localFile, dst);
+        props.setProperty("modifiedAt", String.valueOf(Instant.now().toEpochMilli()));
+        props.setProperty("editedBy", editorName);
+        props.setProperty("size", String.valueOf(Files.size(dst)));
+        props.setProperty("sha256", sha256);
+        props.remove("encoding"); // now plain in the entry folder; a content-addressed server adopts it on start
+        props.setProperty("version", String.valueOf(Long.parseLong(props.getProperty("version", "1")) + 1));
+        writeProps(dir, fileId, props);
+        return fromProps(props);
     }
 
     @Override
     public InputStream download(String fileId) throws IOException {
         ensureAuth();
         Path dir = idDir(fileId);
-        RemoteFileMetadata meta = readMeta(dir);
-        Path p = dir.resolve(meta.getName());
-        return Files.newInputStream(p);
+        Properties props = readProps(dir);
+        InputStream in = Files.newInputStream(storedContent(dir, props));
+        // the server may keep text content gzipped at rest (-Dserver.compress=gzip)
+        return "gzip".equals(props.getProperty("encoding")) ? new GZIPInputStream(in) : in;
+    }
+
+    private Path storedContent(Path dir, Properties props) {
+        return EntryLayout.storedContent(root, dir, props.getProperty("name"), props.getProperty("sha256"), props.getProperty("encoding"));
+    }
+
+    /** Copies {@code from} over {@code to}, returning the SHA-256 of the content as the server records it. */
+    private static String copyHashing(Path from, Path to) throws IOException {
+        MessageDigest md;
+        try { md = MessageDigest.getInstance("SHA-256"); } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(from), md)) { Files.copy(in, to, REPLACE_EXISTING); }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    @Override
+    public BlockDelta.Signature signature(String fileId) throws IOException {
+        ensureAuth();
+        RemoteFileMetadata meta = readMeta(idDir(fileId));
+        try (InputStream in = download(fileId)) { return BlockDelta.signature(in, BlockDelta.blockSizeFor(meta.getSize())); }
+    }
+
+    @Override
+    public RemoteFileMetadata applyDelta(String fileId, BlockDelta.Signature base, InputStream delta, String editorName) throws IOException {
+        ensureAuth();
+        Path dir = idDir(fileId);
+        Properties props = readProps(dir);
+        if (Long.parseLong(props.getProperty("size")) != base.length) throw new IOException("Content changed since its signature was taken: " + fileId);
+        Path plain = null, rebuilt = Files.createTempFile("delta", ".part");
+        try {
+            Path from = storedContent(dir, props);
+            if ("gzip".equals(props.getProperty("encoding"))) {
+                plain = Files.createTempFile("delta", ".base");
+                try (InputStream in = download(fileId)) { Files.copy(in, plain, REPLACE_EXISTING); }
+                from = plain;
+            }
+            try (OutputStream out = Files.newOutputStream(rebuilt)) { BlockDelta.apply(from, delta, out); }
+            return updateContent(fileId, rebuilt, editorName);
+        } finally {
+            Files.deleteIfExists(rebuilt);
+            if (plain != null) Files.deleteIfExists(plain);
+        }
     }
 
     @Override
@@ -107,15 +187,26 @@ public class DiskRemoteStorage implements RemoteStorageClient {
             for (Path p : ds) Files.deleteIfExists(p);
         }
         Files.deleteIfExists(dir);
+        if (journal != null) journal.remove(fileId);
     }
 
     private Path idDir(String id) throws IOException {
-        Path d = root.resolve(id);
+        Path d = EntryLayout.locate(root, id);
         if (!Files.isDirectory(d)) throw new FileNotFoundException("No such id: " + id);
         return d;
     }
 
-    private void writeMeta(Path dir, RemoteFileMetadata meta) throws IOException {
+    private void writeProps(Path dir, String id, Properties props) throws IOException {
+        if (journal != null) {
+            journal.put(id, props);
+            return;
+        }
+        try (OutputStream os = Files.newOutputStream(dir.resolve(META_FILE))) {
+            props.store(os, "remote-file-metadata");
+        }
+    }
+
+    static Properties toProps(RemoteFileMetadata meta) {
         Properties props = new Properties();
         props.setProperty("id", meta.getId());
         props.setProperty("name", meta.getName());
@@ -124,16 +215,28 @@ public class DiskRemoteStorage implements RemoteStorageClient {
         props.setProperty("uploadedBy", meta.getUploadedBy());
         props.setProperty("editedBy", meta.getEditedBy());
         props.setProperty("size", String.valueOf(meta.getSize()));
-        try (OutputStream os = Files.newOutputStream(dir.resolve(META_FILE))) {
-            props.store(os, "remote-file-metadata");
-        }
+        return props;
     }
 
     private RemoteFileMetadata readMeta(Path dir) throws IOException {
-        Properties props = new Properties();
-        try (InputStream is = Files.newInputStream(dir.resolve(META_FILE))) {
-            props.load(is);
+        return fromProps(readProps(dir));
+    }
+
+    private Properties readProps(Path dir) throws IOException {
+        Properties props;
+        if (journal != null) {
+            props = journal.get(dir.getFileName().toString());
+            if (props == null) throw new FileNotFoundException("No metadata for: " + dir.getFileName());
+        } else {
+            props = new Properties();
+            try (InputStream is = Files.newInputStream(dir.resolve(META_FILE))) {
+                props.load(is);
+            }
         }
+        return props;
+    }
+
+    static RemoteFileMetadata fromProps(Properties props) {
         String id = props.getProperty("id");
         String name = props.getProperty("name");
         Instant created = Instant.ofEpochMilli(Long.parseLong(props.getProperty("createdAt")));
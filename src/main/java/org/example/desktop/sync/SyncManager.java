@@ -74,7 +74,7 @@ public class SyncManager implements Runnable {
                             for (RemoteFileMetadata m : client.listFiles()) remoteByName.put(m.getName(), m);
                             RemoteFileMetadata remote = remoteByName.get(p.getFileName().toString());
                             if (remote == null) client.upload(p, username);
-                            else client.updateContent(remote.getId(), p, username);
+                            else client.updateContentDelta(remote.getId(), p, username);
                         } catch (IOException ignored) {}
                     }
                     key.reset();
@@ -111,7 +111,7 @@ public class SyncManager implements Runnable {
                 RemoteFileMetadata remote = remoteByName.get(name);
                 Instant lmLocal = Files.getLastModifiedTime(p).toInstant();
                 if (remote == null) client.upload(p, username);
-                else if (lmLocal.isAfter(remote.getModifiedAt())) client.updateContent(remote.getId(), p, username);
+                else if (lmLocal.isAfter(remote.getModifiedAt())) client.updateContentDelta(remote.getId(), p, username);
             }
         }
         pullRemoteUpdates();
@@ -39,7 +39,7 @@ public class MainFrame extends JFrame {
 
         // Table
         table.setRowSorter(sorter);
-        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
             @Override public void valueChanged(ListSelectionEvent e) { updatePreview(); }
         });
@@ -159,10 +159,22 @@ public class MainFrame extends JFrame {
         }
     }
 
+    private java.util.List<RemoteFileMetadata> selected() {
+        java.util.List<RemoteFileMetadata> out = new ArrayList<>();
+        for (int row : table.getSelectedRows()) out.add(tableModel.getAt(table.convertRowIndexToModel(row)));
+        return out;
+    }
+
+    private static java.util.List<String> ids(java.util.List<RemoteFileMetadata> files) {
+        java.util.List<String> out = new ArrayList<>();
+        for (RemoteFileMetadata f : files) out.add(f.getId());
+        return out;
+    }
+
     private void doDownload() {
-        int row = table.getSelectedRow(); if (row < 0) return;
-        int m = table.convertRowIndexToModel(row);
-        RemoteFileMetadata meta = tableModel.getAt(m);
+        java.util.List<RemoteFileMetadata> sel = selected(); if (sel.isEmpty()) return;
+        if (sel.size() > 1) { doDownloadArchive(sel); return; }
+        RemoteFileMetadata meta = sel.get(0);
         JFileChooser fc = new JFileChooser(); fc.setSelectedFile(new File(meta.getName()));
         if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             try (InputStream is = client.download(meta.getId()); FileOutputStream fos = new FileOutputStream(fc.getSelectedFile())) {
@@ -171,12 +183,19 @@ public class MainFrame extends JFrame {
         }
     }
 
+    private void doDownloadArchive(java.util.List<RemoteFileMetadata> sel) {
+        JFileChooser fc = new JFileChooser(); fc.setSelectedFile(new File("files.zip"));
+        if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try (FileOutputStream fos = new FileOutputStream(fc.getSelectedFile())) { client.downloadArchive(ids(sel), fos); }
+            catch (IOException ex) { JOptionPane.showMessageDialog(this, ex.getMessage()); }
+        }
+    }
+
     private void doDelete() {
-        int row = table.getSelectedRow(); if (row < 0) return;
-        int m = table.convertRowIndexToModel(row);
-        RemoteFileMetadata meta = tableModel.getAt(m);
-        if (JOptionPane.showConfirmDialog(this, "Delete " + meta.getName() + "?", "Confirm", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
-            try { client.delete(meta.getId()); refresh(); }
+        java.util.List<RemoteFileMetadata> sel = selected(); if (sel.isEmpty()) return;
+        String what = sel.size() == 1 ? sel.get(0).getName() : sel.size() + " files";
+        if (JOptionPane.showConfirmDialog(this, "Delete " + what + "?", "Confirm", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            try { client.deleteAll(ids(sel)); refresh(); }
             catch (IOException ex) { JOptionPane.showMessageDialog(this, ex.getMessage()); }
         }
     }
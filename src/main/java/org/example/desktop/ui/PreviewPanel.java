@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 public class PreviewPanel extends JPanel {
+    private static final int TEXT_PREVIEW_BYTES = 64 * 1024;
     private final RemoteStorageClient client;
     private final JTextArea text = new JTextArea();
     private final JScrollPane scrollText = new JScrollPane(text);
@@ -29,7 +30,7 @@ public class PreviewPanel extends JPanel {
         String ext = meta.getExtensionLower();
         if ("js".equals(ext)) {
             try (InputStream is = client.download(meta.getId())) {
-                byte[] bytes = is.readAllBytes();
+                byte[] bytes = is.readNBytes(TEXT_PREVIEW_BYTES); // only what the pane can usefully show
                 text.setText(new String(bytes, "UTF-8"));
                 removeAll(); add(scrollText, BorderLayout.CENTER); revalidate(); repaint();
             } catch (IOException ex) { setError(ex); }
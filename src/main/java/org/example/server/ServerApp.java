@@ -6,6 +6,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class ServerApp {
     public static void main(String[] args) {
+        if (ServerThreads.virtual()) System.setProperty("spring.threads.virtual.enabled", "true");
         SpringApplication.run(ServerApp.class, args);
     }
 }
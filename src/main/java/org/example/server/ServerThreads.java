@@ -0,0 +1,34 @@
+package org.example.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread mode of the server, {@code -Dserver.threads=platform|virtual} (default platform). In virtual mode
+ * Tomcat runs each request on its own virtual thread (Spring Boot's {@code spring.threads.virtual.enabled},
+ * which {@link ServerApp} turns on) and so does the server's own blocking work such as SSE delivery.
+ * Tomcat still caps open connections at {@code server.tomcat.max-connections} (default 8192).
+ */
+public final class ServerThreads {
+    private ServerThreads() {}
+
+    public static boolean virtual() {
+        return "virtual".equalsIgnoreCase(System.getProperty("server.threads", "platform"))
+                || Boolean.parseBoolean(System.getProperty("spring.threads.virtual.enabled"));
+    }
+
+    /** Virtual threads, or daemon platform threads, named {@code name}. */
+    public static ThreadFactory factory(String name) {
+        return virtual() ? Thread.ofVirtual().name(name + "-", 0).factory() : Thread.ofPlatform().name(name).daemon().factory();
+    }
+
+    /**
+     * For tasks that may block for as long as a client lets them (a write to a peer that stopped reading): a
+     * virtual thread per task, or platform threads made on demand and retired after a minute idle, so a few
+     * stuck tasks never hold up the others.
+     */
+    public static ExecutorService elastic(String name) {
+        return virtual() ? Executors.newThreadPerTaskExecutor(factory(name)) : Executors.newCachedThreadPool(factory(name));
+    }
+}
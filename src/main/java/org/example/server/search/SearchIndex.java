@@ -0,0 +1,356 @@
+package org.example.server.search;
+
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Full-text index over the content of text entries (HTML, JS, CSS, JSON, ...), ranked with BM25.
+ *
+ * <p>Kept current from the {@link org.example.server.storage.ChangeLog} by a single indexer thread, so search
+ * trails a write by the time it takes to tokenize the new content. Each indexed entry is appended to
+ * {@code <root>/search.journal} as its term frequencies, framed like the metadata journal; a restart replays
+ * those instead of re-reading content and only re-indexes entries whose version changed meanwhile. Superseded
+ * records are compacted away once they outnumber live ones. The journal is derived data and never fsynced:
+ * a torn tail is truncated and the entries it held are indexed again.
+ *
+ * <p>Postings are per-term arrays of (document number, term frequency). Replacing or deleting an entry leaves
+ * its postings behind for queries to skip until dead postings outnumber live ones and are purged. Only the first
+ * {@code -Dserver.search.maxBytes} (default 1 MB) of a file are indexed.
+ */
+@Component
+public final class SearchIndex implements Closeable {
+    public static final String FILE = "search.journal";
+    private static final byte PUT = 1, REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 1024, MIN_PURGE_POSTINGS = 1 << 20;
+    private static final double K1 = 1.2, B = 0.75;
+    private static final Set<String> TEXT = Set.of("html", "htm", "js", "mjs", "ts", "txt", "md", "css", "json", "xml", "csv");
+
+    private static final class Doc {
+        final String id; final long version; final int length, terms;
+        long offset; final int recordLength; // latest journal record, copied over by compaction
+        Doc(String id, long version, int length, int terms, long offset, int recordLength) {
+            this.id = id; this.version = version; this.length = length; this.terms = terms; this.offset = offset; this.recordLength = recordLength;
+        }
+    }
+
+    private static final class Postings {
+        int[] docs = new int[2], tfs = new int[2]; int size;
+        void add(int doc, int tf) {
+            if (size == docs.length) { docs = Arrays.copyOf(docs, size * 2); tfs = Arrays.copyOf(tfs, size * 2); }
+            docs[size] = doc; tfs[size++] = tf;
+        }
+    }
+
+    private final DiskRemoteStorage storage;
+    private final Path file;
+    private final int maxBytes = Integer.getInteger("server.search.maxBytes", 1 << 20);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final List<Doc> docs = new ArrayList<>(); // by document number; null once deleted or replaced
+    private final Map<String, Integer> byId = new HashMap<>();
+    private long totalLength, livePostings, deadPostings, records;
+    private FileChannel ch;
+
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Thread indexer = new Thread(this::run, "search-indexer");
+    private volatile boolean closed;
+
+    public SearchIndex(DiskRemoteStorage storage) throws IOException {
+        this.storage = storage;
+        this.file = storage.root().resolve(FILE);
+        long valid = replay();
+        ch = FileChannel.open(file, CREATE, READ, WRITE);
+        if (ch.size() > valid) ch.truncate(valid);
+        ch.position(valid);
+        purgeIfNeeded();
+        if (needsCompaction()) compact();
+        storage.changeLog().subscribe(c -> enqueue(c.id));
+        Set<String> catalog = new HashSet<>();
+        for (RemoteFileMetadata m : storage.list()) {
+            if (!indexable(m)) continue;
+            catalog.add(m.getId());
+            if (indexedVersion(m.getId()) != m.getVersion()) enqueue(m.getId());
+        }
+        for (String id : new ArrayList<>(byId.keySet())) if (!catalog.contains(id)) remove(id);
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    public static boolean indexable(RemoteFileMetadata m) { return TEXT.contains(m.getExtensionLower()); }
+
+    /**
+     * Entries matching any query term, best first; {@code total} counts all of them. Entries deleted since they
+     * were indexed are left out of the page.
+     * @throws IllegalArgumentException when the query has no searchable terms
+     */
+    public SearchResults search(String query, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        Tokenizer.tokenize(query, false, terms::add);
+        if (terms.isEmpty()) throw new IllegalArgumentException("Query has no searchable terms");
+        String[] ids; double[] scores; int total = 0;
+        lock.readLock().lock();
+        try {
+            int n = byId.size();
+            if (n == 0) return new SearchResults(0, offset, List.of());
+            double avg = totalLength / (double) n;
+            double[] score = new double[docs.size()];
+            for (String t : terms) {
+                Postings p = postings.get(t);
+                if (p == null) continue;
+                int df = 0;
+                for (int i = 0; i < p.size; i++) if (docs.get(p.docs[i]) != null) df++;
+                double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+                for (int i = 0; i < p.size; i++) {
+                    int d = p.docs[i]; Doc doc = docs.get(d);
+                    if (doc == null) continue;
+                    if (score[d] == 0) total++;
+                    int tf = p.tfs[i];
+                    score[d] += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / avg));
+                }
+            }
+            int k = (int) Math.min((long) offset + limit, total);
+            PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, k), (a, b) -> a.equals(b) ? 0 : score[a] != score[b] ? Double.compare(score[a], score[b]) : Integer.compare(b, a));
+            for (int d = 0; d < score.length && k > 0; d++) {
+                if (score[d] == 0) continue;
+                if (top.size() < k) top.add(d);
+                else if (top.comparator().compare(d, top.peek()) > 0) { top.poll(); top.add(d); }
+            }
+            int from = Math.min(offset, top.size()), count = top.size() - from;
+            ids = new String[count]; scores = new double[count];
+            while (top.size() > from) { int d = top.poll(), at = top.size() - from; ids[at] = docs.get(d).id; scores[at] = score[d]; }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<SearchResults.Hit> hits = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            RemoteFileMetadata m = storage.get(ids[i]);
+            if (m != null) hits.add(new SearchResults.Hit(m, scores[i]));
+        }
+        return new SearchResults(total, offset, hits);
+    }
+
+    /** Waits until every queued entry has been indexed; for tests and benchmarks. */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (outstanding.get() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private void enqueue(String id) {
+        if (queued.add(id)) { outstanding.incrementAndGet(); pending.add(id); }
+    }
+
+    private void run() {
+        while (!closed) {
+            String id;
+            try { id = pending.poll(100, TimeUnit.MILLISECONDS); } catch (InterruptedException e) { break; }
+            if (id == null) continue;
+            queued.remove(id); // before indexing: a change arriving meanwhile queues the entry again
+            try { refresh(id); }
+            catch (IOException | RuntimeException ignored) {} // picked up again on the entry's next change or at restart
+            finally { outstanding.decrementAndGet(); }
+        }
+    }
+
+    private void refresh(String id) throws IOException {
+        RemoteFileMetadata m = storage.get(id);
+        if (m == null || !indexable(m)) { remove(id); return; }
+        if (indexedVersion(id) == m.getVersion()) return;
+        byte[] head;
+        try (InputStream in = storage.download(id)) { head = in.readNBytes(maxBytes); }
+        catch (FileNotFoundException | NoSuchFileException e) { remove(id); return; }
+        String ext = m.getExtensionLower();
+        index(id, m.getVersion(), new String(head, StandardCharsets.UTF_8), ext.equals("html") || ext.equals("htm"));
+    }
+
+    /** Indexes {@code text} as the content of entry {@code id} at {@code version}, replacing what was there. */
+    void index(String id, long version, CharSequence text, boolean html) throws IOException {
+        Map<String, int[]> tf = new HashMap<>();
+        int[] length = { 0 };
+        Tokenizer.tokenize(text, html, t -> { length[0]++; tf.computeIfAbsent(t, x -> new int[1])[0]++; });
+        ByteBuffer rec = encodePut(id, version, length[0], tf);
+        lock.writeLock().lock();
+        try {
+            long offset = append(rec);
+            put(id, version, length[0], tf, offset, rec.limit());
+            purgeIfNeeded();
+            if (needsCompaction()) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String id) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!byId.containsKey(id)) return;
+            append(encode(REMOVE, id, out -> {}));
+            drop(id);
+            purgeIfNeeded();
+            if (needsCompaction()) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long indexedVersion(String id) {
+        lock.readLock().lock();
+        try { Integer d = byId.get(id); return d == null ? -1 : docs.get(d).version; }
+        finally { lock.readLock().unlock(); }
+    }
+
+    private void put(String id, long version, int length, Map<String, int[]> tf, long offset, int recordLength) {
+        drop(id);
+        int d = docs.size();
+        docs.add(new Doc(id, version, length, tf.size(), offset, recordLength));
+        byId.put(id, d);
+        totalLength += length; livePostings += tf.size();
+        for (Map.Entry<String, int[]> e : tf.entrySet()) postings.computeIfAbsent(e.getKey(), x -> new Postings()).add(d, e.getValue()[0]);
+    }
+
+    private void drop(String id) {
+        Integer d = byId.remove(id);
+        if (d == null) return;
+        Doc old = docs.set(d, null);
+        totalLength -= old.length; livePostings -= old.terms; deadPostings += old.terms;
+    }
+
+    /** Renumbers live documents densely and removes the postings of dead ones. */
+    private void purgeIfNeeded() {
+        if (deadPostings <= livePostings || deadPostings < MIN_PURGE_POSTINGS) return;
+        int[] renumber = new int[docs.size()];
+        List<Doc> dense = new ArrayList<>(byId.size());
+        for (int i = 0; i < docs.size(); i++) {
+            Doc doc = docs.get(i);
+            if (doc == null) { renumber[i] = -1; continue; }
+            renumber[i] = dense.size(); byId.put(doc.id, dense.size()); dense.add(doc);
+        }
+        for (Iterator<Postings> it = postings.values().iterator(); it.hasNext(); ) {
+            Postings p = it.next(); int k = 0;
+            for (int i = 0; i < p.size; i++) { int d = renumber[p.docs[i]]; if (d >= 0) { p.docs[k] = d; p.tfs[k++] = p.tfs[i]; } }
+            p.size = k;
+            if (k == 0) it.remove();
+        }
+        docs.clear(); docs.addAll(dense);
+        deadPostings = 0;
+    }
+
+    private boolean needsCompaction() { return records > MIN_COMPACT_RECORDS && records > 2L * byId.size(); }
+
+    /** Rewrites the journal as the latest record of each live document. */
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(FILE + ".tmp");
+        List<Doc> live = new ArrayList<>(byId.size());
+        long[] offsets = new long[byId.size()];
+        try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            for (Doc doc : docs) {
+                if (doc == null) continue;
+                ByteBuffer b = ByteBuffer.allocate(doc.recordLength);
+                while (b.hasRemaining()) if (ch.read(b, doc.offset + b.position()) < 0) throw new EOFException(file.toString());
+                b.flip();
+                offsets[live.size()] = out.position();
+                live.add(doc);
+                writeFully(out, b);
+            }
+        }
+        ch.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ch = FileChannel.open(file, READ, WRITE);
+        ch.position(ch.size());
+        for (int i = 0; i < live.size(); i++) live.get(i).offset = offsets[i];
+        records = live.size();
+    }
+
+    private long append(ByteBuffer rec) throws IOException {
+        long at = ch.position();
+        writeFully(ch, rec);
+        records++;
+        return at;
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer b) throws IOException { while (b.hasRemaining()) c.write(b); }
+
+    /** @return offset just past the last intact record */
+    private long replay() throws IOException {
+        if (!Files.exists(file)) return 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int len, crc; byte[] payload;
+                try {
+                    len = in.readInt(); crc = in.readInt();
+                    if (len <= 0) break;
+                    payload = new byte[len];
+                    in.readFully(payload);
+                } catch (EOFException torn) { break; }
+                CRC32 c = new CRC32(); c.update(payload);
+                if ((int) c.getValue() != crc) break;
+                apply(payload, valid);
+                valid += 8 + len;
+                records++;
+            }
+        }
+        return valid;
+    }
+
+    private void apply(byte[] payload, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte(); String id = in.readUTF();
+        if (op == REMOVE) { drop(id); return; }
+        long version = in.readLong(); int length = in.readInt();
+        Map<String, int[]> tf = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) tf.put(in.readUTF(), new int[] { in.readInt() });
+        put(id, version, length, tf, offset, 8 + payload.length);
+    }
+
+    private interface Body { void write(DataOutputStream out) throws IOException; }
+
+    private static ByteBuffer encodePut(String id, long version, int length, Map<String, int[]> tf) throws IOException {
+        return encode(PUT, id, out -> {
+            out.writeLong(version); out.writeInt(length); out.writeInt(tf.size());
+            for (Map.Entry<String, int[]> e : tf.entrySet()) { out.writeUTF(e.getKey()); out.writeInt(e.getValue()[0]); }
+        });
+    }
+
+    private static ByteBuffer encode(byte op, String id, Body body) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(0); out.writeInt(0); // length + crc, patched below
+        out.writeByte(op); out.writeUTF(id);
+        body.write(out);
+        out.flush();
+        ByteBuffer b = ByteBuffer.wrap(bos.toByteArray());
+        CRC32 c = new CRC32(); c.update(b.array(), 8, b.limit() - 8);
+        b.putInt(0, b.limit() - 8).putInt(4, (int) c.getValue());
+        return b;
+    }
+
+    @Override public void close() throws IOException {
+        closed = true;
+        try { indexer.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        lock.writeLock().lock();
+        try { ch.close(); } finally { lock.writeLock().unlock(); }
+    }
+}
@@ -0,0 +1,23 @@
+package org.example.server.search;
+
+import org.example.server.storage.RemoteFileMetadata;
+
+import java.util.List;
+
+/** One page of ranked hits; {@code total} counts every matching entry, not just this page. */
+public class SearchResults {
+    public int total;
+    public int offset;
+    public List<Hit> hits;
+
+    public static class Hit {
+        public RemoteFileMetadata file;
+        public double score;
+
+        public Hit() {}
+        public Hit(RemoteFileMetadata file, double score) { this.file = file; this.score = score; }
+    }
+
+    public SearchResults() {}
+    SearchResults(int total, int offset, List<Hit> hits) { this.total = total; this.offset = offset; this.hits = hits; }
+}
@@ -0,0 +1,75 @@
+package org.example.server.search;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into lower-cased terms: runs of letters and digits, 2 to 64 characters long. HTML is reduced
+ * to its visible text first: tags, comments and the bodies of {@code <script>}/{@code <style>} are dropped
+ * and common entities decoded. Queries go through the same path, so they match what was indexed.
+ */
+public final class Tokenizer {
+    static final int MIN_LENGTH = 2, MAX_LENGTH = 64;
+    private static final Map<String, Character> ENTITIES = Map.of("amp", '&', "lt", '<', "gt", '>', "quot", '"', "apos", '\'', "nbsp", ' ');
+
+    private Tokenizer() {}
+
+    public static void tokenize(CharSequence text, boolean html, Consumer<String> sink) {
+        CharSequence plain = html ? visibleText(text) : text;
+        int start = -1;
+        for (int i = 0, n = plain.length(); i <= n; i++) {
+            boolean word = i < n && Character.isLetterOrDigit(plain.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                int len = i - start;
+                if (len >= MIN_LENGTH && len <= MAX_LENGTH) sink.accept(plain.subSequence(start, i).toString().toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    static String visibleText(CharSequence html) {
+        String s = html.toString();
+        StringBuilder out = new StringBuilder(s.length() / 2);
+        int i = 0, n = s.length();
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '<') {
+                if (s.startsWith("<!--", i)) { int e = s.indexOf("-->", i + 4); i = e < 0 ? n : e + 3; continue; }
+                int e = s.indexOf('>', i);
+                if (e < 0) break;
+                String tag = tagName(s, i + 1, e);
+                i = e + 1;
+                if (tag.equals("script") || tag.equals("style")) { // skip the body up to the closing tag
+                    int close = i;
+                    while ((close = s.indexOf("</", close)) >= 0 && !s.regionMatches(true, close + 2, tag, 0, tag.length())) close += 2;
+                    i = close < 0 ? n : close;
+                }
+                out.append(' '); // tags separate words
+            } else if (c == '&') {
+                int e = s.indexOf(';', i);
+                Character decoded = e > i && e - i <= 10 ? entity(s.substring(i + 1, e)) : null;
+                if (decoded != null) { out.append(decoded.charValue()); i = e + 1; }
+                else { out.append(c); i++; }
+            } else { out.append(c); i++; }
+        }
+        return out.toString();
+    }
+
+    private static String tagName(String s, int from, int to) {
+        int i = from;
+        while (i < to && Character.isLetterOrDigit(s.charAt(i))) i++;
+        return s.substring(from, i).toLowerCase(Locale.ROOT);
+    }
+
+    private static Character entity(String name) {
+        if (name.startsWith("#")) {
+            try {
+                int cp = name.startsWith("#x") || name.startsWith("#X") ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+                return Character.isBmpCodePoint(cp) ? (char) cp : ' ';
+            } catch (NumberFormatException e) { return null; }
+        }
+        return ENTITIES.get(name.toLowerCase(Locale.ROOT));
+    }
+}
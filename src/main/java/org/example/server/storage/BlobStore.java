@@ -0,0 +1,133 @@
+package org.example.server.storage;
+
+import org.example.common.storage.EntryLayout;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed blobs under {@code <root>/.blobs/<first two hex>/<sha256>}, enabled with
+ * {@code -Dserver.blobs=cas}. Identical content is stored once; metadata entries reference blobs by
+ * hash and the last {@link #release} deletes the file. Reference counts are not persisted: they are
+ * rebuilt from the catalog at startup, where unreferenced blobs are collected.
+ */
+public class BlobStore {
+    public static final String DIR = EntryLayout.BLOBS;
+
+    private final Path dir;
+    private final Path tmp;
+    private final Map<String, Integer> refs = new ConcurrentHashMap<>();
+
+    public BlobStore(Path root) throws IOException {
+        this.dir = root.resolve(DIR);
+        this.tmp = dir.resolve("tmp");
+        Files.createDirectories(tmp);
+        try (Stream<Path> stale = Files.list(tmp)) { for (Path p : (Iterable<Path>) stale::iterator) Files.deleteIfExists(p); }
+    }
+
+    public static boolean enabled() { return "cas".equalsIgnoreCase(System.getProperty("server.blobs", "plain")); }
+
+    /**
+     * Content staged in a temp file, already hashed while it was streamed in. {@code sha256} and {@code size}
+     * describe the content itself; with an {@code encoding} the file holds it in that encoding.
+     */
+    public static final class Staged {
+        public final Path file; public final String sha256; public final long size; public final String encoding;
+        Staged(Path file, String sha256, long size) { this(file, sha256, size, null); }
+        Staged(Path file, String sha256, long size, String encoding) { this.file = file; this.sha256 = sha256; this.size = size; this.encoding = encoding; }
+    }
+
+    /** Blob name: the content hash, suffixed when the blob holds it encoded, so both forms can coexist. */
+    public static String key(String sha256, String encoding) { return EntryLayout.blobKey(sha256, encoding); }
+
+    public Path path(String key) { return dir.resolve(key.substring(0, 2)).resolve(key); }
+
+    static Path pathIn(Path root, String key) { return EntryLayout.blob(root, key); }
+
+    public Staged stage(InputStream content) throws IOException {
+        Path t = tmp.resolve(UUID.randomUUID() + ".tmp");
+        return copyHashing(content, t);
+    }
+
+    /** Moves staged content into place unless the blob already exists, and takes a reference on it. */
+    public void commit(Staged s) throws IOException {
+        try {
+            refs.compute(key(s.sha256, s.encoding), (h, n) -> {
+                try {
+                    Path dst = path(h);
+                    if (Files.exists(dst)) Files.deleteIfExists(s.file);
+                    else { Files.createDirectories(dst.getParent()); Files.move(s.file, dst, StandardCopyOption.ATOMIC_MOVE); }
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+                return n == null ? 1 : n + 1;
+            });
+        } catch (UncheckedIOException e) { throw e.getCause(); }
+    }
+
+    /** Adopts an existing file (startup migration) without copying it when the blob is new. */
+    public String adopt(Path file) throws IOException {
+        String sha;
+        try (InputStream is = Files.newInputStream(file)) { sha = hash(is); }
+        commit(new Staged(file, sha, Files.size(file)));
+        return sha;
+    }
+
+    public void retain(String key) { refs.merge(key, 1, Integer::sum); }
+
+    public void release(String key) throws IOException {
+        try {
+            refs.computeIfPresent(key, (h, n) -> {
+                if (n > 1) return n - 1;
+                try { Files.deleteIfExists(path(h)); } catch (IOException e) { throw new UncheckedIOException(e); }
+                return null;
+            });
+        } catch (UncheckedIOException e) { throw e.getCause(); }
+    }
+
+    /** Deletes blobs nobody references; call once after the catalog has {@link #retain}ed its hashes. */
+    public int collectGarbage() throws IOException {
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(p) || p.getParent().equals(tmp)) continue;
+                String h = p.getFileName().toString();
+                if (!refs.containsKey(h) && Files.deleteIfExists(p)) removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Removes the whole store; used when CAS mode is switched off after entries were copied out. */
+    public static void deleteAll(Path root) throws IOException {
+        Path d = root.resolve(DIR);
+        if (!Files.exists(d)) return;
+        try (Stream<Path> files = Files.walk(d)) {
+            for (Path p : (Iterable<Path>) files.sorted((a, b) -> b.getNameCount() - a.getNameCount())::iterator) Files.deleteIfExists(p);
+        }
+    }
+
+    /** Streams content to {@code dst} computing SHA-256 on the way, so no second pass is needed. */
+    public static Staged copyHashing(InputStream content, Path dst) throws IOException {
+        MessageDigest md = sha256();
+        long size = Files.copy(new DigestInputStream(content, md), dst, StandardCopyOption.REPLACE_EXISTING);
+        return new Staged(dst, HexFormat.of().formatHex(md.digest()), size);
+    }
+
+    static String hash(InputStream is) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[1 << 16]; int r;
+        while ((r = is.read(buf)) != -1) md.update(buf, 0, r);
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try { return MessageDigest.getInstance("SHA-256"); } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.server.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a listing. {@code nextCursor} is null on the last page; otherwise it encodes the sort position
+ * of the last item (not an offset), so pages stay consistent while entries are added or removed.
+ */
+public class CatalogPage {
+    public List<RemoteFileMetadata> items;
+    public String nextCursor;
+
+    public CatalogPage() {}
+    CatalogPage(List<RemoteFileMetadata> items, String nextCursor) { this.items = items; this.nextCursor = nextCursor; }
+
+    /** Opaque cursor holding the listing (sort, direction, filter) and every field the orders compare on. */
+    static String cursor(String listing, RemoteFileMetadata last) {
+        String s = String.join("\n", listing, last.getId(), last.getName(),
+                last.getUploadedBy() == null ? "" : last.getUploadedBy(), last.getModifiedAt().toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return a probe positioned where the cursor's page ended */
+    static RemoteFileMetadata position(String listing, String cursor) {
+        String[] f;
+        try { f = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", -1); }
+        catch (IllegalArgumentException e) { throw new IllegalArgumentException("Malformed cursor"); }
+        if (f.length != 5 || !f[0].equals(listing)) throw new IllegalArgumentException("Cursor does not belong to this listing");
+        RemoteFileMetadata p = new RemoteFileMetadata();
+        p.setId(f[1]); p.setName(f[2]); p.setUploadedBy(f[3]);
+        try { p.setModifiedAt(Instant.parse(f[4])); } catch (RuntimeException e) { throw new IllegalArgumentException("Malformed cursor"); }
+        return p;
+    }
+}
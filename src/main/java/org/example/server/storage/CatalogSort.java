@@ -0,0 +1,25 @@
+package org.example.server.storage;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+/** Orders the catalog can be listed in; each one is backed by its own sorted index in {@link MetadataIndex}. */
+public enum CatalogSort {
+    NAME("name", MetadataIndex.BY_NAME),
+    UPLOADED_BY("uploadedBy", Comparator.comparing((RemoteFileMetadata m) -> m.getUploadedBy() == null ? "" : m.getUploadedBy(), String.CASE_INSENSITIVE_ORDER).thenComparing(MetadataIndex.BY_NAME)),
+    MODIFIED_AT("modifiedAt", Comparator.comparing(RemoteFileMetadata::getModifiedAt).thenComparing(RemoteFileMetadata::getId)),
+    EXTENSION("extension", Comparator.comparing(RemoteFileMetadata::getExtensionLower).thenComparing(MetadataIndex.BY_NAME));
+
+    final String field;
+    final Comparator<RemoteFileMetadata> order; // total: always ends on the id, so every entry has one position
+
+    CatalogSort(String field, Comparator<RemoteFileMetadata> order) { this.field = field; this.order = order; }
+
+    /** Accepts the JSON field names ({@code uploadedBy}) as well as the constant names. */
+    public static CatalogSort parse(String s) {
+        for (CatalogSort c : values()) if (c.field.equalsIgnoreCase(s) || c.name().equalsIgnoreCase(s)) return c;
+        throw new IllegalArgumentException("Unknown sort field: " + s);
+    }
+
+    public String field() { return field; }
+}
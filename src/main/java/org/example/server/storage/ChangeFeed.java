@@ -0,0 +1,26 @@
+package org.example.server.storage;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answer to "what changed after sequence N". Apply {@code changes} in order and continue from {@code lastSeq}
+ * (again right away while {@code hasMore}). With {@code resyncRequired} the log no longer covers the position:
+ * reload the full listing and continue from the {@code lastSeq} returned with it.
+ */
+public class ChangeFeed {
+    public List<Entry> changes = new ArrayList<>();
+    public long lastSeq;
+    public boolean hasMore, resyncRequired;
+
+    public static class Entry {
+        public long seq; public ChangeLog.Kind kind; public String id, name; public Instant at;
+        public RemoteFileMetadata metadata; // current state; null for deletions and entries deleted since
+
+        public Entry() {}
+        public Entry(ChangeLog.Change c, RemoteFileMetadata metadata) {
+            seq = c.seq; kind = c.kind; id = c.id; name = c.name; at = c.at; this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.example.server.storage;
+
+import org.example.common.storage.MetadataJournal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Durable, gap-free sequence of catalog changes in {@code <root>/changes.log}: every create, content update and
+ * delete (a tombstone that keeps the name) gets the next sequence number. Clients remember the last number
+ * they applied and ask only for what came after it.
+ *
+ * <p>Only the newest {@code -Dserver.changes.retain} (default 100000) changes are kept, in a ring in memory and
+ * on disk; a client whose position fell out of that window is told to resync from the full listing. Records use
+ * the {@link MetadataJournal} framing ({@code [length][crc32]} + payload) and a torn tail is truncated on replay.
+ * Appends are made durable by the caller's group commit together with the write they describe, and become
+ * visible to {@link #since} only once {@link #publish published}: readers never see a change whose write is not
+ * durable and in the catalog yet. Writers finish out of seq order, so the visible end is the highest seq below
+ * which every change has been published.
+ * State is guarded by a {@link ReentrantLock} rather than the monitor, so appends never pin a virtual thread
+ * to its carrier while they write.
+ */
+public final class ChangeLog implements Closeable {
+    public static final String FILE = "changes.log";
+
+    public enum Kind { CREATED, UPDATED, DELETED }
+
+    public static final class Change {
+        public final long seq; public final Kind kind; public final String id, name; public final Instant at;
+        Change(long seq, Kind kind, String id, String name, Instant at) { this.seq = seq; this.kind = kind; this.id = id; this.name = name; this.at = at; }
+    }
+
+    private final Path file;
+    private final Change[] ring; // change n lives at ring[n % length]
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel ch;
+    private long last, records, oldest = 1; // last seq handed out; records in the file; first seq in the file
+    private long published; // every change up to here is published
+    private final TreeSet<Long> publishedAhead = new TreeSet<>(); // published out of order, above published + 1
+
+    public ChangeLog(Path root) throws IOException { this(root, Integer.getInteger("server.changes.retain", 100_000)); }
+
+    public ChangeLog(Path root, int retain) throws IOException {
+        this.file = root.resolve(FILE);
+        this.ring = new Change[Math.max(1, retain)];
+        long valid = replay();
+        ch = FileChannel.open(file, CREATE, WRITE);
+        if (ch.size() > valid) ch.truncate(valid);
+        ch.position(valid);
+        if (records > 2L * ring.length) compact();
+        published = last; // what was replayed is durable
+    }
+
+    public Path file() { return file; }
+
+    public long lastSeq() { lock.lock(); try { return last; } finally { lock.unlock(); } }
+
+    /** Highest seq up to which every change has been published; the end of what {@link #since} serves. */
+    public long publishedSeq() { lock.lock(); try { return published; } finally { lock.unlock(); } }
+
+    /** Oldest sequence number still retained; {@code lastSeq() + 1} when the log is empty. */
+    public long firstSeq() { lock.lock(); try { return Math.max(oldest, last - ring.length + 1); } finally { lock.unlock(); } }
+
+    /** Appends and returns the change; it is on disk once {@link #file()} has been fsynced. */
+    public Change append(Kind kind, String id, String name) throws IOException {
+        lock.lock();
+        try {
+            Change c = new Change(last + 1, kind, id, name, Instant.ofEpochMilli(System.currentTimeMillis()));
+            ByteBuffer rec = encode(c);
+            while (rec.hasRemaining()) ch.write(rec);
+            last = c.seq; records++;
+            ring[(int) (c.seq % ring.length)] = c;
+            if (records > 2L * ring.length) compact();
+            return c;
+        } finally { lock.unlock(); }
+    }
+
+    /** Makes a change visible to readers and tells subscribers about it, once the write it describes is durable and indexed. */
+    public void publish(Change c) {
+        settle(c);
+        for (Consumer<Change> l : listeners) { try { l.accept(c); } catch (RuntimeException ignored) {} }
+    }
+
+    /**
+     * For a change whose write failed after it was appended: its record stays, so readers are let past it
+     * (they find the entry as it is), but subscribers are not told. Without this the visible end would stall.
+     */
+    public void abandon(Change c) { settle(c); }
+
+    private void settle(Change c) {
+        lock.lock();
+        try {
+            if (c.seq <= published) return;
+            publishedAhead.add(c.seq);
+            while (publishedAhead.remove(published + 1)) published++;
+        } finally { lock.unlock(); }
+    }
+
+    public void subscribe(Consumer<Change> listener) { listeners.add(listener); }
+
+    /**
+     * Up to {@code limit} published changes with a sequence number above {@code since}, oldest first, or null
+     * when {@code since} is no longer (or not yet) covered by the log and the caller has to resync.
+     */
+    public List<Change> since(long since, int limit) {
+        lock.lock();
+        try {
+            if (since > last || since < firstSeq() - 1) return null;
+            List<Change> out = new ArrayList<>((int) Math.max(0, Math.min(limit, published - since)));
+            for (long s = since + 1; s <= published && out.size() < limit; s++) out.add(ring[(int) (s % ring.length)]);
+            return out;
+        } finally { lock.unlock(); }
+    }
+
+    /** Rewrites the file with just the retained window. */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            Path tmp = file.resolveSibling(FILE + ".tmp");
+            long n = 0;
+            try (FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                for (long s = firstSeq(); s <= last; s++, n++) { ByteBuffer b = encode(ring[(int) (s % ring.length)]); while (b.hasRemaining()) out.write(b); }
+                out.force(true);
+            }
+            ch.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ch = FileChannel.open(file, WRITE);
+            ch.position(ch.size());
+            oldest = firstSeq(); records = n;
+        } finally { lock.unlock(); }
+    }
+
+    @Override public void close() throws IOException { lock.lock(); try { ch.close(); } finally { lock.unlock(); } }
+
+    private long replay() throws IOException {
+        if (!Files.exists(file)) return 0;
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int len, crc; byte[] payload;
+                try {
+                    len = in.readInt(); crc = in.readInt();
+                    if (len <= 0) break;
+                    payload = new byte[len];
+                    in.readFully(payload);
+                } catch (EOFException torn) { break; }
+                CRC32 c = new CRC32(); c.update(payload);
+                if ((int) c.getValue() != crc) break;
+                DataInputStream p = new DataInputStream(new ByteArrayInputStream(payload));
+                Change ch = new Change(p.readLong(), Kind.values()[p.readByte()], p.readUTF(), p.readUTF(), Instant.ofEpochMilli(p.readLong()));
+                if (records == 0) oldest = ch.seq;
+                ring[(int) (ch.seq % ring.length)] = ch; last = ch.seq;
+                valid += 8 + len; records++;
+            }
+        }
+        return valid;
+    }
+
+    private static ByteBuffer encode(Change c) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(0); out.writeInt(0); // length + crc, patched below
+        out.writeLong(c.seq); out.writeByte(c.kind.ordinal()); out.writeUTF(c.id); out.writeUTF(c.name); out.writeLong(c.at.toEpochMilli());
+        out.flush();
+        ByteBuffer b = ByteBuffer.wrap(bos.toByteArray());
+        CRC32 crc = new CRC32(); crc.update(b.array(), 8, b.limit() - 8);
+        b.putInt(0, b.limit() - 8).putInt(4, (int) crc.getValue());
+        return b;
+    }
+}
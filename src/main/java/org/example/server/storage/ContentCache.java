@@ -0,0 +1,282 @@
+package org.example.server.storage;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-bounded on-heap cache of stored file content, at most one version per entry, with W-TinyLFU
+ * admission: new content enters a small LRU window (1% of the budget, but never less than the largest entry,
+ * so with the defaults it is the 1 MiB entry limit); what falls out of it only replaces
+ * the least recent entry of the main area if a frequency sketch has seen it requested more often, so a
+ * burst of one-off reads (a crawler, a reindex) cannot flush the popular files. The main area is a
+ * segmented LRU: entries hit again move from probation (20%) to protected (80%).
+ *
+ * <p>A hit takes no lock: the lookup is a concurrent map read, and the request is put in a small lossy ring
+ * buffer that is drained under the policy lock (sketch counts, LRU order) by whichever thread finds it half full
+ * and the lock free, or by the next write. When the buffer is full or contended the read is not recorded, a
+ * sample lost, as in Caffeine.
+ *
+ * <p>Misses for the same entry share one load ({@link #get}); the others wait for it. A load that was still
+ * running when any entry was invalidated is returned but not cached, since it may have read the old content. Budget and largest cached file: {@code -Dserver.cache.bytes} (default 64 MiB, 0 turns the cache off) and
+ * {@code -Dserver.cache.maxEntryBytes} (default 1 MiB).
+ */
+public final class ContentCache {
+    public interface Loader { byte[] load() throws IOException; }
+
+    private static final int PROBATION = 0, PROTECTED = 1, WINDOW = 2;
+    private static final int READS = 256; // ring buffer slots, a power of two
+
+    private static final class Node {
+        final String id; final long version; final byte[] data; int segment;
+        Node(String id, long version, byte[] data) { this.id = id; this.version = version; this.data = data; }
+    }
+
+    private final long capacity, windowMax, protectedMax;
+    private final int maxEntry;
+    private final Map<String, Node> data = new ConcurrentHashMap<>(); // lock-free hit check; order kept below
+    private final List<LinkedHashMap<String, Node>> segments = List.of(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>()); // LRU first
+    private final long[] weights = new long[3];
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock(); // guards segments, weights, sketch and node segments
+    private final AtomicReferenceArray<Object> reads = new AtomicReferenceArray<>(READS); // hit Nodes, missed ids
+    private final AtomicLong readTail = new AtomicLong();
+    private volatile long readHead; // written under lock
+    private volatile long invalidations; // written under lock; a load that saw another value is not cached
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), loads = new LongAdder(), collapsed = new LongAdder();
+    private final LongAdder evictions = new LongAdder(), rejections = new LongAdder();
+
+    public ContentCache(long capacity, int maxEntry) {
+        this.capacity = capacity; this.maxEntry = (int) Math.min(maxEntry, capacity);
+        this.windowMax = Math.max(this.maxEntry, capacity / 100);
+        this.protectedMax = (capacity - windowMax) * 4 / 5;
+        sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, capacity / 4096)));
+    }
+
+    /** Null when caching is off. */
+    static ContentCache fromSystemProperties() {
+        long bytes = Long.getLong("server.cache.bytes", 64L << 20);
+        return bytes <= 0 ? null : new ContentCache(bytes, Integer.getInteger("server.cache.maxEntryBytes", 1 << 20));
+    }
+
+    /**
+     * Content of {@code version} of {@code id}, loading it on a miss; concurrent misses wait for the first one's
+     * load. {@code loader} may return null (not cacheable after all), which is passed on and not cached.
+     */
+    public byte[] get(String id, long version, Loader loader) throws IOException {
+        byte[] hit = lookup(id, version);
+        if (hit != null) { hits.increment(); return hit; }
+        misses.increment();
+        String key = id + "@" + version;
+        CompletableFuture<byte[]> mine = new CompletableFuture<>(), running = loading.putIfAbsent(key, mine);
+        if (running != null) { collapsed.increment(); return await(running); }
+        try {
+            long seen = invalidations;
+            byte[] b = loader.load();
+            if (b != null) { loads.increment(); if (b.length <= maxEntry) put(id, version, b, seen); }
+            mine.complete(b);
+            return b;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e); throw e;
+        } finally { loading.remove(key, mine); }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> f) throws IOException {
+        try { return f.get(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException("Interrupted waiting for a content load"); }
+        catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new UncheckedIOException(new IOException(c));
+        }
+    }
+
+    /** A hit without loading on a miss; still counts as a request for admission. */
+    public byte[] peek(String id, long version) {
+        byte[] hit = lookup(id, version);
+        if (hit != null) hits.increment(); else misses.increment();
+        return hit;
+    }
+
+    private byte[] lookup(String id, long version) {
+        Node n = data.get(id);
+        boolean hit = n != null && n.version == version;
+        record(hit ? n : id);
+        return hit ? n.data : null;
+    }
+
+    /** Queues a request for the policy; a full or contended buffer drops it. Drains if half full and nobody else is. */
+    private void record(Object read) {
+        long h = readHead, t = readTail.get();
+        if (t - h < READS && readTail.compareAndSet(t, t + 1)) reads.lazySet((int) (t & (READS - 1)), read);
+        if (t - h >= READS / 2 && lock.tryLock()) { try { drainReads(); } finally { lock.unlock(); } }
+    }
+
+    /** Replays buffered requests: sketch counts for all, and hits move up in their LRU. Under lock. */
+    private void drainReads() {
+        long h = readHead, t = readTail.get();
+        for (; h < t; h++) {
+            int i = (int) (h & (READS - 1));
+            Object r = reads.get(i);
+            if (r == null) break; // slot taken but not written yet: next drain
+            reads.lazySet(i, null);
+            if (!(r instanceof Node)) { sketch.increment((String) r); continue; }
+            Node n = (Node) r;
+            sketch.increment(n.id);
+            if (data.get(n.id) != n) continue; // evicted or replaced meanwhile
+            segments.get(n.segment).remove(n.id);
+            if (n.segment == PROBATION) { move(n, PROTECTED); demoteProtected(); }
+            else segments.get(n.segment).put(n.id, n);
+        }
+        readHead = h;
+    }
+
+    private void put(String id, long version, byte[] b, long seenInvalidations) {
+        lock.lock();
+        try { drainReads(); if (invalidations == seenInvalidations) insert(id, version, b); } finally { lock.unlock(); }
+    }
+
+    private void insert(String id, long version, byte[] b) {
+        Node old = data.get(id);
+        if (old != null) { if (old.version >= version) return; unlink(old); }
+        Node n = new Node(id, version, b);
+        data.put(id, n);
+        n.segment = WINDOW; segments.get(WINDOW).put(id, n); weights[WINDOW] += b.length;
+        while (weights[WINDOW] > windowMax) {
+            Node candidate = segments.get(WINDOW).values().iterator().next();
+            segments.get(WINDOW).remove(candidate.id); weights[WINDOW] -= candidate.data.length;
+            candidate.segment = PROBATION; segments.get(PROBATION).put(candidate.id, candidate); weights[PROBATION] += candidate.data.length;
+            admit(candidate);
+        }
+    }
+
+    /** Makes room in the main area for {@code candidate}, just added to probation, or drops it if it loses to the victims. */
+    private void admit(Node candidate) {
+        int freq = sketch.frequency(candidate.id);
+        while (weights[PROBATION] + weights[PROTECTED] + weights[WINDOW] > capacity) {
+            Node victim = null;
+            for (int s : new int[] { PROBATION, PROTECTED }) {
+                for (Iterator<Node> it = segments.get(s).values().iterator(); it.hasNext() && victim == null; ) {
+                    Node v = it.next();
+                    if (v != candidate) victim = v;
+                }
+                if (victim != null) break;
+            }
+            if (victim == null || freq <= sketch.frequency(victim.id)) { unlink(candidate); rejections.increment(); return; }
+            unlink(victim); evictions.increment();
+        }
+    }
+
+    private void demoteProtected() {
+        while (weights[PROTECTED] > protectedMax) {
+            Node lru = segments.get(PROTECTED).values().iterator().next();
+            segments.get(PROTECTED).remove(lru.id); weights[PROTECTED] -= lru.data.length;
+            lru.segment = PROBATION; segments.get(PROBATION).put(lru.id, lru); weights[PROBATION] += lru.data.length;
+        }
+    }
+
+    private void move(Node n, int segment) {
+        weights[n.segment] -= n.data.length;
+        n.segment = segment; segments.get(segment).put(n.id, n); weights[segment] += n.data.length;
+    }
+
+    private void unlink(Node n) {
+        data.remove(n.id, n);
+        if (segments.get(n.segment).remove(n.id, n)) weights[n.segment] -= n.data.length;
+    }
+
+    /** Drops whatever is cached for {@code id}; called when it is updated or deleted. */
+    public void invalidate(String id) {
+        lock.lock();
+        try { invalidations++; Node n = data.get(id); if (n != null) unlink(n); } finally { lock.unlock(); }
+    }
+
+    /** Largest content cached, in bytes. */
+    public int maxEntryBytes() { return maxEntry; }
+
+    /** Bytes currently cached; never more than the budget. */
+    public long weight() { lock.lock(); try { return weights[0] + weights[1] + weights[2]; } finally { lock.unlock(); } }
+
+    public int entries() { return data.size(); }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long loads() { return loads.sum(); }
+    /** Misses that waited for another one's load instead of reading themselves. */
+    public long collapsed() { return collapsed.sum(); }
+    public long evictions() { return evictions.sum(); }
+    public long rejections() { return rejections.sum(); }
+
+    /** {@code drive.cache.*}: requests by result, loads, collapsed misses, evictions, rejected admissions, size. */
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("drive.cache.requests", hits, LongAdder::sum).tag("result", "hit").description("Content cache lookups").register(registry);
+        FunctionCounter.builder("drive.cache.requests", misses, LongAdder::sum).tag("result", "miss").description("Content cache lookups").register(registry);
+        FunctionCounter.builder("drive.cache.loads", loads, LongAdder::sum).description("Disk reads made for cache misses").register(registry);
+        FunctionCounter.builder("drive.cache.collapsed", collapsed, LongAdder::sum).description("Misses that waited for another request's load").register(registry);
+        FunctionCounter.builder("drive.cache.evictions", evictions, LongAdder::sum).description("Entries evicted for admitted ones").register(registry);
+        FunctionCounter.builder("drive.cache.rejections", rejections, LongAdder::sum).description("New entries refused by the admission policy").register(registry);
+        Gauge.builder("drive.cache.size", this, ContentCache::weight).baseUnit("bytes").description("Cached content bytes").register(registry);
+        Gauge.builder("drive.cache.entries", this, ContentCache::entries).description("Cached files").register(registry);
+    }
+
+    /**
+     * Count-min sketch with four 4-bit counters per key, halved once the sample count reaches ten times the
+     * width, so the frequencies follow what is popular now rather than ever. Not thread-safe: used under the cache's lock.
+     */
+    static final class FrequencySketch {
+        private final long[] table; // 16 counters of 4 bits per long
+        private final int mask, sampleSize;
+        private int samples;
+
+        FrequencySketch(int width) {
+            int n = Integer.highestOneBit(Math.max(64, width) - 1) << 1;
+            table = new long[n / 16 * 4]; mask = table.length - 1; sampleSize = 10 * n;
+        }
+
+        void increment(String key) {
+            int h = spread(key.hashCode()); boolean added = false;
+            for (int i = 0; i < 4; i++) added |= incrementAt(index(h, i), counter(h, i));
+            if (added && ++samples >= sampleSize) reset();
+        }
+
+        int frequency(String key) {
+            int h = spread(key.hashCode()), f = 15;
+            for (int i = 0; i < 4; i++) f = Math.min(f, (int) ((table[index(h, i)] >>> (counter(h, i) << 2)) & 0xf));
+            return f;
+        }
+
+        private boolean incrementAt(int i, int c) {
+            int shift = c << 2;
+            if (((table[i] >>> shift) & 0xf) == 0xf) return false;
+            table[i] += 1L << shift; return true;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            samples /= 2;
+        }
+
+        private int index(int h, int i) { int x = h * (0x9e3779b9 + 2 * i) ; return (x ^ (x >>> 16)) & mask; }
+
+        private static int counter(int h, int i) { return (h >>> (i * 8)) & 0xf; }
+
+        private static int spread(int h) { h *= 0x85ebca6b; return h ^ (h >>> 13); }
+    }
+}
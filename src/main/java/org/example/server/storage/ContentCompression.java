@@ -0,0 +1,67 @@
+package org.example.server.storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Optional gzip at rest ({@code -Dserver.compress=gzip}). Types that are compressed already are never touched;
+ * for the rest the first 64 KB are deflated as a probe and the file is only gzipped when that sample shrinks
+ * below 90%. Entries keep their logical size and SHA-256; the encoding is recorded in the metadata and
+ * downloads can hand the stored bytes to clients that accept gzip.
+ */
+final class ContentCompression {
+    static final String GZIP = "gzip";
+    private static final int SAMPLE = 64 * 1024;
+    private static final long MIN_SIZE = 1024;
+    private static final double MAX_RATIO = 0.9;
+    private static final Set<String> PRECOMPRESSED = Set.of("png", "jpg", "jpeg", "gif", "webp", "avif", "zip", "gz", "tgz",
+            "bz2", "xz", "zst", "7z", "rar", "jar", "docx", "xlsx", "pptx", "odt", "pdf", "mp3", "mp4", "m4a", "mkv", "mov",
+            "avi", "webm", "ogg", "woff", "woff2");
+
+    private ContentCompression() {}
+
+    static boolean enabled() { return GZIP.equalsIgnoreCase(System.getProperty("server.compress", "off")); }
+
+    /**
+     * @return a gzipped copy of {@code s} written to {@code tmpDir}, or null when the content should stay as is.
+     * The source file is left alone.
+     */
+    static BlobStore.Staged maybeCompress(BlobStore.Staged s, String name, Path tmpDir) throws IOException {
+        if (s.encoding != null || s.size < MIN_SIZE || PRECOMPRESSED.contains(extension(name)) || !worthIt(s.file)) return null;
+        Path gz = tmpDir.resolve(UUID.randomUUID() + ".gz");
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(gz), 1 << 16), 1 << 16)) {
+            Files.copy(s.file, out);
+        }
+        if (Files.size(gz) >= s.size * MAX_RATIO) { Files.deleteIfExists(gz); return null; } // the probe was not representative
+        return new BlobStore.Staged(gz, s.sha256, s.size, GZIP);
+    }
+
+    /** Formats that are compressed already; deflating them again costs CPU and saves nothing. */
+    static boolean precompressed(String name) { return PRECOMPRESSED.contains(extension(name)); }
+
+    private static boolean worthIt(Path file) throws IOException {
+        byte[] sample = new byte[SAMPLE]; int n = 0;
+        try (InputStream in = Files.newInputStream(file)) { for (int r; n < SAMPLE && (r = in.read(sample, n, SAMPLE - n)) > 0; ) n += r; }
+        CountingSink sink = new CountingSink();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try (DeflaterOutputStream d = new DeflaterOutputStream(sink, deflater)) { d.write(sample, 0, n); } finally { deflater.end(); }
+        return sink.count < n * MAX_RATIO;
+    }
+
+    private static String extension(String name) {
+        int i = name.lastIndexOf('.');
+        return i >= 0 ? name.substring(i + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static final class CountingSink extends OutputStream {
+        long count;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count += len; }
+    }
+}
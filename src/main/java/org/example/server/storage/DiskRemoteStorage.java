@@ -1,85 +1,653 @@
 package org.example.server.storage;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.example.common.storage.BlockDelta;
+import org.example.common.storage.DeltaApplyingInputStream;
+import org.example.common.storage.EntryLayout;
+import org.example.common.storage.MetadataJournal;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.Stream;
 
 @Component
-public class DiskRemoteStorage {
+public class DiskRemoteStorage implements Closeable, MeterBinder {
     private final Path root;
-    public static final String META_FILE = "meta.properties";
+    public static final String META_FILE = EntryLayout.META_FILE;
+
+    private final MetadataIndex index = new MetadataIndex();
+    private final MetadataJournal journal; // null -> one meta.properties per entry folder
+    private final BlobStore blobs; // null -> content stored as <root>/<id>/<name>
+    private final GroupCommitter fsync;
+    private final ChangeLog changes;
+    private final VersionStore versions;
+    private final ContentCache cache = ContentCache.fromSystemProperties(); // null -> off
+    private final Path tmp; // staged content and metadata, renamed into place once durable
+    private static final String PIN = "pin-"; // .tmp/pin-<millis>-<uuid>: content links kept for sendfile, see pin()
+    private final long pinMillis = Long.getLong("server.sendfile.pinSeconds", 60) * 1000;
+    private final AtomicLong lastPinSweep = new AtomicLong();
+    private final StripedLocks locks = StripedLocks.fromSystemProperties();
+    private final boolean compress = ContentCompression.enabled();
+    private final boolean fanOut; // entry folders under <root>/<ab>/<cd>/ instead of <root>/
+    private volatile boolean flatLeft; // fan-out mode: the migration has not removed every flat folder yet
+    private final CompletableFuture<Integer> migration = new CompletableFuture<>();
+    private volatile Thread migrator;
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry(); // records nothing until bound
+    private final StorageMetrics metrics = new StorageMetrics(meters);
+
+    /** {@code expectedVersion} accepted by conditional writes when any existing version will do ({@code If-Match: *}). */
+    public static final long ANY_VERSION = 0;
 
     public DiskRemoteStorage() throws IOException {
-        String dir = System.getProperty("server.dir", System.getProperty("user.home")+"/.light-drive-server");
-        this.root = Paths.get(dir);
-        Files.createDirectories(root);
+        this(Paths.get(System.getProperty("server.dir", System.getProperty("user.home")+"/.light-drive-server")));
+    }
+
+    public DiskRemoteStorage(Path root) throws IOException { this(root, MetadataJournal.enabled(), BlobStore.enabled()); }
+
+    public DiskRemoteStorage(Path root, boolean journaled, boolean contentAddressed) throws IOException {
+        this(root, journaled, contentAddressed, GroupCommitter.fromSystemProperties());
+    }
+
+    public DiskRemoteStorage(Path root, boolean journaled, boolean contentAddressed, GroupCommitter fsync) throws IOException {
+        this(root, journaled, contentAddressed, fsync, EntryLayout.fanOutEnabled());
+    }
+
+    /**
+     * {@code fanOut}: keep entry folders in the {@link EntryLayout fan-out layout}. Flat folders found at startup
+     * are then moved over by a background migration while the storage serves requests; switching back to flat
+     * moves everything back before the constructor returns.
+     */
+    public DiskRemoteStorage(Path root, boolean journaled, boolean contentAddressed, GroupCommitter fsync, boolean fanOut) throws IOException {
+        this.root = root;
+        this.fsync = fsync;
+        this.fanOut = fanOut;
+        this.tmp = root.resolve(".tmp");
+        Files.createDirectories(tmp);
+        try (Stream<Path> stale = Files.list(tmp)) { for (Path p : (Iterable<Path>) stale::iterator) Files.deleteIfExists(p); }
+        if (journaled) { journal = new MetadataJournal(root); journal.importPropertiesLayout(root); }
+        else { journal = null; MetadataJournal.exportPropertiesLayout(root); }
+        blobs = contentAddressed ? new BlobStore(root) : null;
+        changes = new ChangeLog(root);
+        if (!fanOut) flatten();
+        flatLeft = fanOut; // until startMigration has looked
+        loadIndex();
+        reconcileContentLayout();
+        versions = new VersionStore(root, tmp, VersionStore.retention(), fsync);
+        Set<String> ids = new HashSet<>(); for (RemoteFileMetadata m : index.sorted()) ids.add(m.getId());
+        versions.collectGarbage(ids);
+        if (fanOut) startMigration();
+        else migration.complete(0);
+    }
+
+    /** One sequential read at startup; afterwards the catalog is served from {@link MetadataIndex}. */
+    private void loadIndex() throws IOException {
+        if (journal != null) {
+            for (Properties p : journal.entries().values()) { try { index.put(fromProps(p)); } catch (RuntimeException ignored) {} }
+            return;
+        }
+        for (RemoteFileMetadata m : EntryLayout.scan(root, this::readMetaSafe, EntryLayout.scanThreads())) index.put(m);
+    }
+
+    /** Moves fan-out folders back to {@code <root>/<id>}; a flat leftover of an interrupted migration is older and goes. */
+    private void flatten() throws IOException {
+        List<Path> migrating = new ArrayList<>(), moved = new ArrayList<>();
+        for (Path bucket : EntryLayout.buckets(root)) {
+            for (Path dir : EntryLayout.bucketEntries(bucket, migrating)) {
+                Path flat = EntryLayout.flat(root, dir.getFileName().toString());
+                EntryLayout.deleteEntryDir(flat);
+                Files.move(dir, flat, StandardCopyOption.ATOMIC_MOVE);
+                moved.add(dir.getParent());
+            }
+        }
+        for (Path m : migrating) EntryLayout.deleteEntryDir(m);
+        if (moved.isEmpty()) return;
+        moved.add(root);
+        fsync.sync(new LinkedHashSet<>(moved));
+        EntryLayout.pruneEmptyBuckets(root);
+    }
+
+    /**
+     * Online migration to the fan-out layout. Pass one copies each flat entry into place under its id lock, so no write
+     * to it can slip in between; from then on every lookup resolves to the new folder. Pass two deletes the flat folders,
+     * which readers that resolved a path before the switch could still be opening until then. Resumes after a crash:
+     * half-assembled folders are dropped and redone, flat folders that already have a fan-out twin are just deleted.
+     */
+    private void startMigration() throws IOException {
+        List<Path> migrating = new ArrayList<>();
+        for (Path bucket : EntryLayout.buckets(root)) EntryLayout.bucketEntries(bucket, migrating);
+        for (Path m : migrating) EntryLayout.deleteEntryDir(m);
+        List<Path> flat = EntryLayout.flatEntries(root);
+        if (flat.isEmpty()) { flatLeft = false; migration.complete(0); return; }
+        migrator = new Thread(() -> {
+            try { migration.complete(migrate(flat)); } catch (Throwable t) { migration.completeExceptionally(t); }
+        }, "layout-migration");
+        migrator.setDaemon(true);
+        migrator.start();
+    }
+
+    private int migrate(List<Path> flat) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(EntryLayout.scanThreads()); // parallel so group commit can batch the fsyncs
+        try {
+            List<Callable<Boolean>> moves = new ArrayList<>(flat.size());
+            for (Path dir : flat) moves.add(() -> migrateEntry(dir));
+            int moved = 0;
+            for (Future<Boolean> f : pool.invokeAll(moves)) if (f.get()) moved++;
+            if (migrator == null) return moved; // closed meanwhile
+            Set<Path> touched = new HashSet<>();
+            for (Path dir : flat) {
+                if (!Files.isDirectory(EntryLayout.fanOut(root, dir.getFileName().toString()))) continue; // not an entry, leave it alone
+                EntryLayout.deleteEntryDir(dir);
+                touched.add(root);
+            }
+            fsync.sync(touched);
+            flatLeft = false;
+            return moved;
+        } finally { pool.shutdown(); }
     }
 
-    public List<RemoteFileMetadata> list() throws IOException {
-        if (!Files.exists(root)) return Collections.emptyList();
+    private boolean migrateEntry(Path flatDir) throws IOException {
+        if (migrator == null) return false;
+        String id = flatDir.getFileName().toString();
+        ReentrantLock l = locks.id(id); l.lock();
         try {
-            return Files.list(root)
-                    .filter(Files::isDirectory)
-                    .map(this::readMetaSafe)
-                    .filter(Objects::nonNull)
-                    .sorted(Comparator.comparing(RemoteFileMetadata::getName, String.CASE_INSENSITIVE_ORDER))
-                    .collect(Collectors.toList());
-        } catch (IOException e) { throw e; }
+            Path target = EntryLayout.fanOut(root, id);
+            if (Files.isDirectory(target) || index.get(id) == null || !Files.isDirectory(flatDir)) return false;
+            Path staging = EntryLayout.stage(root, flatDir);
+            List<Path> durable = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(staging)) { for (Path p : ds) durable.add(p); }
+            durable.add(staging); durable.add(staging.getParent()); durable.add(staging.getParent().getParent()); durable.add(root);
+            fsync.sync(durable);
+            Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+            fsync.sync(target.getParent());
+            return true;
+        } finally { l.unlock(); }
+    }
+
+    /** Waits for the startup migration to the fan-out layout, if one is running. @return entries moved */
+    public int awaitLayoutMigration() throws IOException {
+        try { return migration.get(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException("Interrupted waiting for the layout migration"); }
+        catch (ExecutionException e) { throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()); }
+    }
+
+    /** Folder of an existing entry. */
+    private Path dir(String id) {
+        if (!fanOut) return EntryLayout.flat(root, id);
+        return flatLeft ? EntryLayout.locate(root, id) : EntryLayout.fanOut(root, id);
     }
 
+    /**
+     * Moves content between {@code <id>/<name>} files and the blob store when the mode was switched since
+     * the last run, and rebuilds blob reference counts from the catalog.
+     */
+    private void reconcileContentLayout() throws IOException {
+        for (RemoteFileMetadata m : index.sorted()) {
+            Path dir = dir(m.getId()), plain = dir.resolve(m.getName());
+            if (blobs != null) {
+                if (Files.exists(plain) && m.getEncoding() != null) blobs.commit(new BlobStore.Staged(plain, m.getSha256(), m.getSize(), m.getEncoding()));
+                else if (Files.exists(plain)) { RemoteFileMetadata c = m.copy(); c.setSha256(blobs.adopt(plain)); writeMeta(dir, c); index.put(c); }
+                else if (m.getSha256() != null) blobs.retain(blobKey(m));
+            } else if (m.getSha256() != null && !Files.exists(plain)) {
+                Path blob = BlobStore.pathIn(root, blobKey(m));
+                if (Files.exists(blob)) Files.copy(blob, plain);
+            }
+        }
+        if (blobs != null) blobs.collectGarbage(); else BlobStore.deleteAll(root);
+    }
+
+    /** Times every public operation into {@code registry} and exposes the catalog size as {@code drive.catalog.entries}. */
+    @Override public void bindTo(MeterRegistry registry) {
+        Gauge.builder("drive.catalog.entries", this, s -> s.index.size()).description("Entries in the catalog").register(registry);
+        if (cache != null) cache.bindTo(registry);
+        meters.add(registry);
+    }
+
+    public List<RemoteFileMetadata> list() {
+        long t0 = System.nanoTime();
+        try { return index.sorted(); } finally { StorageMetrics.stop(metrics.list, t0); }
+    }
+
+    public RemoteFileMetadata get(String id) { return index.get(id); }
+
+    /**
+     * One page of the catalog in {@code sort} order, optionally only files with the given extension. Served from
+     * the index's sorted sets, so the cost follows {@code limit}, not the catalog size. {@code cursor} is the
+     * previous page's {@link CatalogPage#nextCursor}, or null for the first page.
+     */
+    public CatalogPage list(String extension, CatalogSort sort, boolean descending, String cursor, int limit) {
+        long t0 = System.nanoTime();
+        try { return page(extension, sort, descending, cursor, limit); } finally { StorageMetrics.stop(metrics.list, t0); }
+    }
+
+    private CatalogPage page(String extension, CatalogSort sort, boolean descending, String cursor, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive");
+        String ext = extension == null ? null : extension.toLowerCase(Locale.ROOT);
+        String listing = sort.name() + (descending ? ":desc" : "") + (ext == null ? "" : ":" + ext);
+        RemoteFileMetadata after = cursor == null ? null : CatalogPage.position(listing, cursor);
+        List<RemoteFileMetadata> items = index.page(sort, descending, ext, after, (int) Math.min(Integer.MAX_VALUE, limit + 1L));
+        String next = null;
+        if (items.size() > limit) { items.remove(limit); next = CatalogPage.cursor(listing, items.get(limit - 1)); }
+        return new CatalogPage(items, next);
+    }
+
+    /**
+     * Changes after sequence number {@code since} joined with the entries' current metadata (null once deleted),
+     * or a feed with {@code resyncRequired} when {@code since} fell out of the retained window.
+     */
+    public ChangeFeed changesSince(long since, int limit) {
+        long t0 = System.nanoTime();
+        try { return feed(since, limit); } finally { StorageMetrics.stop(metrics.changes, t0); }
+    }
+
+    private ChangeFeed feed(long since, int limit) {
+        ChangeFeed feed = new ChangeFeed();
+        List<ChangeLog.Change> list = changes.since(since, limit);
+        long published = changes.publishedSeq();
+        feed.lastSeq = published;
+        if (list == null) { feed.resyncRequired = true; return feed; }
+        for (ChangeLog.Change c : list) feed.changes.add(new ChangeFeed.Entry(c, c.kind == ChangeLog.Kind.DELETED ? null : index.get(c.id)));
+        if (!list.isEmpty()) { feed.lastSeq = list.get(list.size() - 1).seq; feed.hasMore = feed.lastSeq < published; }
+        else feed.lastSeq = Math.max(since, published);
+        return feed;
+    }
+
+    /** Feed of durable catalog changes; listeners run after each write is on disk. */
+    public ChangeLog changeLog() { return changes; }
+
+    /** Opaque token that changes with every catalog mutation; ETag of {@link #list()}. */
+    public String catalogTag() { return index.tag(); }
+
     private RemoteFileMetadata readMetaSafe(Path dir) { try { return readMeta(dir); } catch (Exception e) { return null; } }
 
     public RemoteFileMetadata upload(Path localFile, String user) throws IOException {
-        String id = UUID.randomUUID().toString();
-        Path dir = root.resolve(id); Files.createDirectories(dir);
-        String name = localFile.getFileName().toString();
-        Path dst = dir.resolve(name); Files.copy(localFile, dst, REPLACE_EXISTING);
-        long size = Files.size(dst); Instant now = Instant.now();
-        RemoteFileMetadata meta = new RemoteFileMetadata(id, name, now, now, user, user, size);
-        writeMeta(dir, meta); return meta;
+        try (InputStream is = Files.newInputStream(localFile)) { return upload(is, localFile.getFileName().toString(), user); }
     }
 
+    /** Always adds a new entry, even when one with the same name exists; see {@link #upsert} for the usual path. */
     public RemoteFileMetadata upload(InputStream content, String originalName, String user) throws IOException {
-        String id = UUID.randomUUID().toString();
-        Path dir = root.resolve(id); Files.createDirectories(dir);
-        Path dst = dir.resolve(originalName); Files.copy(content, dst, REPLACE_EXISTING);
-        long size = Files.size(dst); Instant now = Instant.now();
-        RemoteFileMetadata meta = new RemoteFileMetadata(id, originalName, now, now, user, user, size);
-        writeMeta(dir, meta); return meta;
+        long t0 = System.nanoTime();
+        try {
+            BlobStore.Staged s = stage(content, originalName);
+            ReentrantLock l = locks.name(originalName); l.lock();
+            try { return create(originalName, user, s); }
+            catch (IOException | RuntimeException e) { Files.deleteIfExists(s.file); throw e; }
+            finally { l.unlock(); }
+        } finally { StorageMetrics.stop(metrics.upload, t0); }
     }
 
     public RemoteFileMetadata updateContent(String id, InputStream content, String editor) throws IOException {
-        Path dir = idDir(id); RemoteFileMetadata meta = readMeta(dir);
-        Path dst = dir.resolve(meta.getName()); Files.copy(content, dst, REPLACE_EXISTING);
-        long size = Files.size(dst); meta.setModifiedAt(Instant.now()); meta.setEditedBy(editor); meta.setSize(size);
-        writeMeta(dir, meta); return meta;
+        return updateContent(id, content, editor, null);
     }
 
+    /**
+     * Replaces the content of {@code id}. With an {@code expectedVersion} the write only happens if the entry is
+     * still at that version ({@link #ANY_VERSION}: merely exists), otherwise {@link VersionConflictException}.
+     */
+    public RemoteFileMetadata updateContent(String id, InputStream content, String editor, Long expectedVersion) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            idDir(id); BlobStore.Staged s = stage(content, indexed(id).getName());
+            try { return replaceLocked(id, editor, s, expectedVersion); } catch (IOException | RuntimeException e) { Files.deleteIfExists(s.file); throw e; }
+        } finally { StorageMetrics.stop(metrics.update, t0); }
+    }
+
+    /**
+     * Block signature of the current content (inflated, if stored gzipped), for a client to compute a
+     * {@link BlockDelta} against; its metadata must be read before, so that its version is not newer.
+     */
+    public BlockDelta.Signature signature(String id) throws IOException {
+        RemoteFileMetadata meta = indexed(id);
+        try (InputStream in = open(meta)) { return BlockDelta.signature(in, BlockDelta.blockSizeFor(meta.getSize())); }
+    }
+
+    /**
+     * Replaces the content of {@code id} with the one a {@link BlockDelta} made against {@code expectedVersion}
+     * describes, reconstructed while the delta streams in. The write fails with {@link VersionConflictException}
+     * if the entry is at another version by then, including when it moved on while the delta was applied.
+     * ({@link #ANY_VERSION} or null mean the version found when it starts.) A delta that does not fit the
+     * content fails with {@link StreamCorruptedException} and changes nothing.
+     */
+    public RemoteFileMetadata applyDelta(String id, InputStream delta, String editor, Long expectedVersion) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            idDir(id); RemoteFileMetadata base = indexed(id);
+            long expected = expectedVersion == null || expectedVersion == ANY_VERSION ? base.getVersion() : expectedVersion;
+            if (expected != base.getVersion()) throw new VersionConflictException(id, expected, base.getVersion());
+            Path plain = null;
+            try {
+                if (base.getEncoding() != null) { plain = tmp.resolve(UUID.randomUUID() + ".base"); try (InputStream in = open(base)) { Files.copy(in, plain); } }
+                BlobStore.Staged s;
+                try (FileChannel ch = FileChannel.open(plain != null ? plain : contentPath(base), StandardOpenOption.READ);
+                     InputStream in = new DeltaApplyingInputStream(ch, delta)) { s = stage(in, base.getName()); }
+                try { return replaceLocked(id, editor, s, expected); } catch (IOException | RuntimeException e) { Files.deleteIfExists(s.file); throw e; }
+            } finally { if (plain != null) Files.deleteIfExists(plain); }
+        } finally { StorageMetrics.stop(metrics.update, t0); }
+    }
+
+    /**
+     * Creates {@code name} or replaces its content if an entry with that name exists. Content is staged before
+     * any lock is taken; only the lookup and the commit run under the name's (then the entry's) stripe, so
+     * uploads of different files proceed in parallel and uploads of one name are applied one after the other.
+     */
+    public RemoteFileMetadata upsert(String name, InputStream content, String user, Long expectedVersion) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            BlobStore.Staged s = stage(content, name);
+            try { return upsertStaged(name, user, s, expectedVersion); } catch (IOException | RuntimeException e) { Files.deleteIfExists(s.file); throw e; }
+        } finally { StorageMetrics.stop(metrics.upsert, t0); }
+    }
+
+    /**
+     * {@link #upsert} for a file that was already written next to the storage (an assembled chunked upload),
+     * renamed into place instead of copied. {@code sha256} may be null, in which case it is computed.
+     */
+    public RemoteFileMetadata importFile(Path file, String sha256, String name, String user) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            BlobStore.Staged s = adopt(file, sha256, name);
+            try { return upsertStaged(name, user, s, null); } catch (IOException | RuntimeException e) { if (!s.file.equals(file)) Files.deleteIfExists(s.file); throw e; }
+        } finally { StorageMetrics.stop(metrics.upsert, t0); }
+    }
+
+    /** Same as {@link #importFile} but replacing the content of a given entry. */
+    public RemoteFileMetadata replaceContent(String id, Path file, String sha256, String editor) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            BlobStore.Staged s = adopt(file, sha256, indexed(id).getName());
+            try { return replaceLocked(id, editor, s, null); } catch (IOException | RuntimeException e) { if (!s.file.equals(file)) Files.deleteIfExists(s.file); throw e; }
+        } finally { StorageMetrics.stop(metrics.update, t0); }
+    }
+
+    public Path root() { return root; }
+
+    private RemoteFileMetadata upsertStaged(String name, String user, BlobStore.Staged s, Long expectedVersion) throws IOException {
+        ReentrantLock l = locks.name(name); l.lock();
+        try {
+            RemoteFileMetadata existing = index.getByName(name);
+            if (existing != null) return replaceLocked(existing.getId(), user, s, expectedVersion);
+            if (expectedVersion != null) throw new VersionConflictException(null, expectedVersion, 0);
+            return create(name, user, s);
+        } finally { l.unlock(); }
+    }
+
+    private RemoteFileMetadata replaceLocked(String id, String editor, BlobStore.Staged s, Long expectedVersion) throws IOException {
+        ReentrantLock l = locks.id(id); l.lock();
+        try {
+            long current = indexed(id).getVersion();
+            if (expectedVersion != null && expectedVersion != ANY_VERSION && expectedVersion != current) throw new VersionConflictException(id, expectedVersion, current);
+            return replace(id, editor, s);
+        } finally { l.unlock(); }
+    }
+
+    private RemoteFileMetadata create(String name, String user, BlobStore.Staged s) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Path dir = fanOut ? EntryLayout.fanOut(root, id) : EntryLayout.flat(root, id); Files.createDirectories(dir);
+        Instant now = Instant.now();
+        RemoteFileMetadata meta = new RemoteFileMetadata(id, name, now, now, user, user, s.size); meta.setSha256(s.sha256); meta.setEncoding(s.encoding);
+        ChangeLog.Change c = commit(dir, meta, s, true); index.put(meta); changes.publish(c); return meta;
+    }
+
+    private RemoteFileMetadata replace(String id, String editor, BlobStore.Staged s) throws IOException {
+        Path dir = idDir(id); RemoteFileMetadata old = indexed(id), meta = old.copy(); String previous = meta.getSha256() == null ? null : blobKey(meta);
+        versions.record(old, () -> open(old), () -> open(s), s.size);
+        meta.setModifiedAt(Instant.now()); meta.setEditedBy(editor); meta.setSize(s.size); meta.setSha256(s.sha256); meta.setEncoding(s.encoding); meta.setVersion(meta.getVersion() + 1);
+        ChangeLog.Change c = commit(dir, meta, s, false); index.put(meta); changes.publish(c);
+        if (cache != null) cache.invalidate(id);
+        if (blobs != null && previous != null) blobs.release(previous);
+        return meta;
+    }
+
+    /** The content as uploaded; entries stored gzipped are inflated on the fly. Small hot files come from {@link #hotContent}. */
     public InputStream download(String id) throws IOException {
-        Path dir = idDir(id); RemoteFileMetadata meta = readMeta(dir);
-        Path p = dir.resolve(meta.getName()); return Files.newInputStream(p);
+        long t0 = System.nanoTime();
+        try {
+            idDir(id); RemoteFileMetadata meta = indexed(id);
+            byte[] hot = hotContent(meta);
+            if (hot == null) return open(meta);
+            InputStream in = new ByteArrayInputStream(hot);
+            return ContentCompression.GZIP.equals(meta.getEncoding()) ? new GZIPInputStream(in, 1 << 16) : in;
+        } finally { StorageMetrics.stop(metrics.download, t0); }
+    }
+
+    /**
+     * Stored bytes of version {@code meta} of an entry (gzipped if it has an encoding) from the in-memory
+     * {@link ContentCache}, read from disk once on a miss however many requests miss at the same time. Null
+     * when the cache is off, the content is larger than {@code -Dserver.cache.maxEntryBytes} or the entry is no
+     * longer at that version; callers then read {@link #contentPath} themselves.
+     */
+    public byte[] hotContent(RemoteFileMetadata meta) throws IOException {
+        if (cache == null || meta.getEncoding() == null && meta.getSize() > cache.maxEntryBytes()) return null;
+        String id = meta.getId();
+        return cache.get(id, meta.getVersion(), () -> {
+            ReentrantLock l = locks.id(id); l.lock();
+            try {
+                RemoteFileMetadata current = index.get(id);
+                if (current == null || current.getVersion() != meta.getVersion()) return null;
+                Path p = contentPath(current);
+                return Files.size(p) > cache.maxEntryBytes() ? null : Files.readAllBytes(p);
+            } finally { l.unlock(); }
+        });
+    }
+
+    private InputStream open(RemoteFileMetadata meta) throws IOException {
+        InputStream in = Files.newInputStream(contentPath(meta));
+        return ContentCompression.GZIP.equals(meta.getEncoding()) ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static InputStream open(BlobStore.Staged s) throws IOException {
+        InputStream in = Files.newInputStream(s.file);
+        return ContentCompression.GZIP.equals(s.encoding) ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    /** The current version of {@code id} followed by its stored previous versions, newest first; see {@link VersionStore}. */
+    public List<RemoteFileMetadata> versions(String id) throws IOException {
+        ReentrantLock l = locks.id(id); l.lock();
+        try {
+            RemoteFileMetadata current = indexed(id);
+            List<RemoteFileMetadata> out = new ArrayList<>(); out.add(current);
+            out.addAll(versions.list(id, current.getVersion()));
+            return out;
+        } finally { l.unlock(); }
+    }
+
+    /** Content of a version listed by {@link #versions}; older ones are rebuilt from deltas into a temp file first. */
+    public InputStream downloadVersion(String id, long version) throws IOException {
+        Path p = rebuild(id, version);
+        return p == null ? download(id) : Files.newInputStream(p, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /** Makes the content of an older version current again, as a new version; the history is kept. */
+    public RemoteFileMetadata restoreVersion(String id, long version, String editor) throws IOException {
+        Path p = rebuild(id, version);
+        if (p == null) return indexed(id);
+        try { return replaceContent(id, p, null, editor); } finally { Files.deleteIfExists(p); }
+    }
+
+    /** Temp file holding {@code version}'s content, or null when that is the current version. */
+    private Path rebuild(String id, long version) throws IOException {
+        ReentrantLock l = locks.id(id); l.lock();
+        try {
+            RemoteFileMetadata current = indexed(id);
+            if (version == current.getVersion()) return null;
+            if (versions.list(id, current.getVersion()).stream().noneMatch(v -> v.getVersion() == version)) throw new FileNotFoundException(id + " version " + version);
+            if (current.getEncoding() == null) return versions.rebuild(id, current.getVersion(), version, contentPath(current));
+            Path plain = tmp.resolve(UUID.randomUUID() + ".version");
+            try {
+                try (InputStream in = open(current)) { Files.copy(in, plain); }
+                return versions.rebuild(id, current.getVersion(), version, plain);
+            } finally { Files.deleteIfExists(plain); }
+        } finally { l.unlock(); }
     }
 
+    /** Adds to {@code drive.bytes.downloaded}; called by the HTTP layer for what it sends, as internal readers also use {@link #download}. */
+    public void recordDownloaded(long bytes) { metrics.downloaded.increment(bytes); }
+
     public void delete(String id) throws IOException {
-        Path dir = idDir(id); if (!Files.exists(dir)) return;
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) { for (Path p: ds) Files.deleteIfExists(p); }
-        Files.deleteIfExists(dir);
+        if (deleteAll(List.of(id)).isEmpty()) throw new FileNotFoundException(id);
+    }
+
+    /**
+     * Deletes several entries paying each fsync phase once for the whole batch rather than once per entry.
+     * Ids not in the catalog are skipped.
+     * @return the deleted entries, in request order
+     */
+    public List<RemoteFileMetadata> deleteAll(Collection<String> ids) throws IOException {
+        long t0 = System.nanoTime();
+        try { return remove(ids); } finally { StorageMetrics.stop(metrics.delete, t0); }
     }
 
-    public RemoteFileMetadata findByName(String name) throws IOException {
-        for (RemoteFileMetadata m : list()) if (m.getName().equals(name)) return m; return null;
+    private List<RemoteFileMetadata> remove(Collection<String> ids) throws IOException {
+        List<RemoteFileMetadata> gone = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            RemoteFileMetadata known = index.get(id);
+            if (known == null) continue;
+            ReentrantLock n = locks.name(known.getName()), l = locks.id(id);
+            n.lock(); l.lock();
+            try { RemoteFileMetadata m = unlist(id); if (m != null) gone.add(m); } finally { l.unlock(); n.unlock(); }
+            if (cache != null) cache.invalidate(id);
+        }
+        if (gone.isEmpty()) return gone;
+        if (journal != null) fsync.sync(journal.file()); // unlisted for good before any content goes
+        List<ChangeLog.Change> cs = new ArrayList<>(gone.size());
+        Set<Path> touched = new LinkedHashSet<>();
+        try {
+            for (RemoteFileMetadata m : gone) {
+                Path dir = dir(m.getId());
+                EntryLayout.deleteEntryDir(dir); touched.add(dir.getParent());
+                if (flatLeft) EntryLayout.deleteEntryDir(EntryLayout.flat(root, m.getId())); // a not yet deleted pre-migration copy
+                versions.delete(m.getId());
+                cs.add(changes.append(ChangeLog.Kind.DELETED, m.getId(), m.getName()));
+            }
+            touched.add(changes.file());
+            fsync.sync(touched);
+        } catch (IOException | RuntimeException e) { for (ChangeLog.Change c : cs) changes.abandon(c); throw e; }
+        if (blobs != null) for (RemoteFileMetadata m : gone) if (m.getSha256() != null) blobs.release(blobKey(m));
+        for (ChangeLog.Change c : cs) changes.publish(c);
+        return gone;
+    }
+
+    /** Drops an entry from the catalog: index, then journal or meta.properties. Its folder is left to the caller. */
+    private RemoteFileMetadata unlist(String id) throws IOException {
+        RemoteFileMetadata meta = index.get(id);
+        if (meta == null) return null;
+        index.remove(id);
+        if (journal != null) journal.remove(id);
+        else Files.deleteIfExists(dir(id).resolve(META_FILE)); // first, so a half-deleted folder is never listed again
+        return meta;
     }
 
-    private Path idDir(String id) throws IOException { Path d = root.resolve(id); if (!Files.isDirectory(d)) throw new FileNotFoundException(id); return d; }
+    private BlobStore.Staged adopt(Path file, String sha256, String name) throws IOException {
+        if (sha256 == null) try (InputStream is = Files.newInputStream(file)) { sha256 = BlobStore.hash(is); }
+        return encode(new BlobStore.Staged(file, sha256, Files.size(file)), name, false);
+    }
+
+    /** Streams content into a temp file, hashing it inline. */
+    private BlobStore.Staged stage(InputStream content, String name) throws IOException {
+        return encode(blobs != null ? blobs.stage(content) : BlobStore.copyHashing(content, tmp.resolve(UUID.randomUUID() + ".part")), name, true);
+    }
+
+    /** Swaps staged content for a gzipped copy when at-rest compression is on and pays off; {@code owned} raw files are removed. */
+    private BlobStore.Staged encode(BlobStore.Staged raw, String name, boolean owned) throws IOException {
+        if (!compress) return raw;
+        BlobStore.Staged gz;
+        try { gz = ContentCompression.maybeCompress(raw, name, tmp); }
+        catch (IOException | RuntimeException e) { if (owned) Files.deleteIfExists(raw.file); throw e; }
+        if (gz == null) return raw;
+        if (owned) Files.deleteIfExists(raw.file);
+        return gz;
+    }
+
+    private static String blobKey(RemoteFileMetadata meta) { return BlobStore.key(meta.getSha256(), meta.getEncoding()); }
+
+    /**
+     * Durable write path: staged content (and meta.properties) are fsynced in one group commit, renamed into
+     * place, then the touched folders (or the journal) are fsynced in a second one. A crash leaves either
+     * the old or the new version of each file, never a torn one.
+     */
+    private ChangeLog.Change commit(Path dir, RemoteFileMetadata meta, BlobStore.Staged s, boolean created) throws IOException {
+        Properties props = toProps(meta); Path metaTmp = null;
+        if (journal == null) { metaTmp = tmp.resolve(UUID.randomUUID() + ".meta"); try (OutputStream os = Files.newOutputStream(metaTmp)) { props.store(os, "meta"); } }
+        fsync.sync(metaTmp == null ? List.of(s.file) : List.of(s.file, metaTmp));
+        List<Path> touched = new ArrayList<>(4); touched.add(dir);
+        if (created) for (Path p = dir.getParent(); p.startsWith(root); p = p.getParent()) touched.add(p); // fan-out buckets may be new too
+        if (blobs != null) { blobs.commit(s); touched.add(blobs.path(BlobStore.key(s.sha256, s.encoding)).getParent()); }
+        else Files.move(s.file, dir.resolve(meta.getName()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (metaTmp != null) Files.move(metaTmp, dir.resolve(META_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        else { journal.put(meta.getId(), props); touched.add(journal.file()); }
+        ChangeLog.Change c = changes.append(created ? ChangeLog.Kind.CREATED : ChangeLog.Kind.UPDATED, meta.getId(), meta.getName());
+        touched.add(changes.file());
+        try { fsync.sync(touched); } catch (IOException | RuntimeException e) { changes.abandon(c); throw e; }
+        metrics.uploaded.increment(s.size);
+        return c;
+    }
 
+    /**
+     * File holding the content of {@code id} as stored, i.e. in {@link RemoteFileMetadata#getEncoding()} if set;
+     * callers that stream it directly (zero-copy downloads) use this.
+     */
+    public Path contentPath(String id) throws IOException { return contentPath(indexed(id)); }
+
+    /**
+     * A hard link under .tmp to the content file {@code file}, left for at least {@code -Dserver.sendfile.pinSeconds}
+     * (default 60): a blob may be released and deleted, and a plain content file replaced by rename or deleted, once
+     * the request that found it returns, before the connector's sendfile opens it by name; the link keeps those
+     * bytes. Content is never rewritten in place, so the link cannot change either. Older pins are swept as new
+     * ones are made. Null when the file is already gone or the file system has no hard links.
+     */
+    public Path pin(Path file) {
+        long now = System.currentTimeMillis(), last = lastPinSweep.get();
+        if (now - last > pinMillis / 4 && lastPinSweep.compareAndSet(last, now)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(tmp, PIN + "*")) {
+                for (Path p : ds) {
+                    String n = p.getFileName().toString();
+                    try { if (now - Long.parseLong(n.substring(PIN.length(), n.indexOf('-', PIN.length()))) > pinMillis) Files.deleteIfExists(p); }
+                    catch (IOException | RuntimeException ignored) {} // still open where that cannot be deleted: next sweep
+                }
+            } catch (IOException ignored) {}
+        }
+        try { return Files.createLink(tmp.resolve(PIN + now + "-" + UUID.randomUUID()), file); }
+        catch (IOException | UnsupportedOperationException e) { return null; }
+    }
+
+    private Path contentPath(RemoteFileMetadata meta) {
+        return blobs != null ? blobs.path(blobKey(meta)) : dir(meta.getId()).resolve(meta.getName());
+    }
+
+    public RemoteFileMetadata findByName(String name) { return index.getByName(name); }
+
+    private RemoteFileMetadata indexed(String id) throws IOException { RemoteFileMetadata m = index.get(id); if (m == null) throw new FileNotFoundException(id); return m; }
+
+    private Path idDir(String id) throws IOException { Path d = dir(id); if (!Files.isDirectory(d)) throw new FileNotFoundException(id); return d; }
+
+    @Override public void close() throws IOException {
+        Thread m = migrator; migrator = null; // resumes on the next start
+        if (m != null) try { m.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        fsync.close(); changes.close(); if (journal != null) journal.close();
+    }
+
+    /** Replaces the metadata of an entry without touching its content, with the same tmp/fsync/rename as {@link #commit}. */
     private void writeMeta(Path dir, RemoteFileMetadata meta) throws IOException {
+        Properties props = toProps(meta);
+        if (journal != null) { journal.put(meta.getId(), props); fsync.sync(journal.file()); return; }
+        Path metaTmp = tmp.resolve(UUID.randomUUID() + ".meta");
+        try (OutputStream os = Files.newOutputStream(metaTmp)) { props.store(os, "meta"); }
+        try { fsync.sync(metaTmp); } catch (IOException | RuntimeException e) { Files.deleteIfExists(metaTmp); throw e; }
+        Files.move(metaTmp, dir.resolve(META_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        fsync.sync(dir);
+    }
+
+    static Properties toProps(RemoteFileMetadata meta) {
         Properties props = new Properties();
         props.setProperty("id", meta.getId());
         props.setProperty("name", meta.getName());
@@ -88,16 +656,25 @@ public class DiskRemoteStorage {
         props.setProperty("uploadedBy", meta.getUploadedBy());
         props.setProperty("editedBy", meta.getEditedBy());
         props.setProperty("size", String.valueOf(meta.getSize()));
-        try (OutputStream os = Files.newOutputStream(dir.resolve(META_FILE))) { props.store(os, "meta"); }
+        if (meta.getSha256() != null) props.setProperty("sha256", meta.getSha256());
+        if (meta.getEncoding() != null) props.setProperty("encoding", meta.getEncoding());
+        props.setProperty("version", String.valueOf(meta.getVersion()));
+        return props;
     }
 
     private RemoteFileMetadata readMeta(Path dir) throws IOException {
         Properties p = new Properties(); try (InputStream is = Files.newInputStream(dir.resolve(META_FILE))) { p.load(is); }
+        return fromProps(p);
+    }
+
+    static RemoteFileMetadata fromProps(Properties p) {
         String id = p.getProperty("id"), name = p.getProperty("name");
         Instant c = Instant.ofEpochMilli(Long.parseLong(p.getProperty("createdAt")));
         Instant m = Instant.ofEpochMilli(Long.parseLong(p.getProperty("modifiedAt")));
         String up = p.getProperty("uploadedBy"), ed = p.getProperty("editedBy");
         long size = Long.parseLong(p.getProperty("size"));
-        return new RemoteFileMetadata(id, name, c, m, up, ed, size);
+        RemoteFileMetadata meta = new RemoteFileMetadata(id, name, c, m, up, ed, size);
+        meta.setSha256(p.getProperty("sha256")); meta.setVersion(Long.parseLong(p.getProperty("version", "1")));
+        meta.setEncoding(p.getProperty("encoding")); return meta;
     }
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package org.example.server.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes files and directory entries durable for many concurrent writers with few fsyncs.
+ * Callers hand in the paths they need on disk and block until they are. A single committer thread
+ * collects requests for up to {@code windowMicros} (or {@code maxBatch} requests), fsyncs every
+ * distinct path of the batch once, in parallel, and releases all waiters. Shared paths (the storage
+ * root, blob fan-out folders, the metadata journal) therefore cost one fsync per batch instead of one
+ * per request.
+ *
+ * <p>Configured with {@code -Dserver.fsync=group|always|off}, {@code -Dserver.fsync.windowMicros}
+ * and {@code -Dserver.fsync.maxBatch}. {@code always} fsyncs on the calling thread.
+ */
+public class GroupCommitter implements Closeable {
+    public enum Mode { GROUP, ALWAYS, OFF }
+
+    private static final class Request {
+        final Collection<Path> paths; final CompletableFuture<Void> done = new CompletableFuture<>();
+        Request(Collection<Path> paths) { this.paths = paths; }
+    }
+
+    private final Mode mode;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService syncPool;
+    private final Thread committer;
+    private volatile boolean closed;
+    private final LongAdder batches = new LongAdder(), requests = new LongAdder(), fsyncs = new LongAdder();
+
+    public GroupCommitter(Mode mode, long windowMicros, int maxBatch) {
+        this.mode = mode;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+        this.maxBatch = Math.max(1, maxBatch);
+        if (mode == Mode.GROUP) {
+            syncPool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "fsync-worker"); t.setDaemon(true); return t;
+            });
+            committer = new Thread(this::run, "group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        } else { syncPool = null; committer = null; }
+    }
+
+    public static GroupCommitter fromSystemProperties() {
+        Mode mode = Mode.valueOf(System.getProperty("server.fsync", "group").toUpperCase(Locale.ROOT));
+        return new GroupCommitter(mode, Long.getLong("server.fsync.windowMicros", 500), Integer.getInteger("server.fsync.maxBatch", 64));
+    }
+
+    public Mode mode() { return mode; }
+
+    /** Blocks until every path (regular file or directory) has been fsynced. */
+    public void sync(Collection<Path> paths) throws IOException {
+        if (paths.isEmpty() || mode == Mode.OFF) return;
+        requests.increment();
+        if (mode == Mode.ALWAYS) { for (Path p : new LinkedHashSet<>(paths)) force(p); return; }
+        if (closed) throw new IOException("Committer closed");
+        Request r = new Request(paths);
+        queue.add(r);
+        // closed in between: the committer may be gone and close() done draining; if r is still queued nobody will take it
+        if (closed && queue.remove(r)) throw new IOException("Committer closed");
+        try { r.done.get(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException("Interrupted waiting for fsync"); }
+        catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            throw c instanceof IOException ? (IOException) c : new IOException(c);
+        }
+    }
+
+    public void sync(Path... paths) throws IOException { sync(Arrays.asList(paths)); }
+
+    /** Batches issued, requests served and fsync calls made; used by the benchmark. */
+    public long[] stats() { return new long[] { batches.sum(), requests.sum(), fsyncs.sum() }; }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>();
+        try { loop(batch); }
+        finally { closed = true; failQueued(); } // died of an Error: fail new and waiting requests rather than strand them
+    }
+
+    private void loop(List<Request> batch) {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Request next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                if (closed) break;
+            } catch (RuntimeException e) {
+                fail(batch, e); // and keep serving the others
+            } finally {
+                fail(batch, new IOException("Committer closed")); // no-op for those already completed
+                batch.clear();
+            }
+        }
+    }
+
+    private static void fail(Collection<Request> requests, Throwable t) { for (Request r : requests) r.done.completeExceptionally(t); }
+
+    private void failQueued() {
+        for (Request r; (r = queue.poll()) != null; ) r.done.completeExceptionally(new IOException("Committer closed"));
+    }
+
+    private void commit(List<Request> batch) {
+        batches.increment();
+        Map<Path, Future<?>> work = new LinkedHashMap<>();
+        for (Request r : batch) for (Path p : r.paths) work.computeIfAbsent(p, x -> syncPool.submit(() -> { force(x); return null; }));
+        Map<Path, Throwable> failed = new HashMap<>();
+        for (Map.Entry<Path, Future<?>> e : work.entrySet()) {
+            try { e.getValue().get(); }
+            catch (ExecutionException ex) { failed.put(e.getKey(), ex.getCause()); }
+            catch (InterruptedException ex) { Thread.currentThread().interrupt(); failed.put(e.getKey(), ex); }
+        }
+        for (Request r : batch) {
+            Throwable t = null;
+            for (Path p : r.paths) if ((t = failed.get(p)) != null) break;
+            if (t == null) r.done.complete(null); else r.done.completeExceptionally(t);
+        }
+    }
+
+    private void force(Path p) throws IOException {
+        fsyncs.increment();
+        boolean dir = Files.isDirectory(p);
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) { ch.force(true); }
+        catch (IOException e) {
+            // directories cannot be opened for fsync on every platform (e.g. Windows); the rename itself stands
+            if (!dir) throw e;
+        }
+    }
+
+    @Override public void close() {
+        if (committer == null) return;
+        closed = true;
+        try { committer.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        committer.interrupt();
+        syncPool.shutdown();
+        failQueued();
+    }
+}
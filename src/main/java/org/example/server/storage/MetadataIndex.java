@@ -0,0 +1,90 @@
+package org.example.server.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent in-memory view of the catalog: id -> metadata, name -> id and one sorted set per {@link CatalogSort},
+ * for the whole catalog and per file extension, so a filtered, sorted page is a range scan of one set.
+ * Entries are treated as snapshots: writers put a fresh copy instead of mutating a stored one.
+ */
+class MetadataIndex {
+    static final Comparator<RemoteFileMetadata> BY_NAME =
+            Comparator.comparing(RemoteFileMetadata::getName, String.CASE_INSENSITIVE_ORDER).thenComparing(RemoteFileMetadata::getId);
+
+    private final Map<String, RemoteFileMetadata> byId = new ConcurrentHashMap<>();
+    private final Map<String, String> idByName = new ConcurrentHashMap<>();
+    private final Map<CatalogSort, NavigableSet<RemoteFileMetadata>> orders = newOrders();
+    private final NavigableSet<RemoteFileMetadata> sorted = orders.get(CatalogSort.NAME);
+    private final Map<String, Map<CatalogSort, NavigableSet<RemoteFileMetadata>>> byExtension = new ConcurrentHashMap<>();
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong modifications = new AtomicLong();
+
+    RemoteFileMetadata get(String id) { return byId.get(id); }
+
+    RemoteFileMetadata getByName(String name) {
+        String id = idByName.get(name);
+        return id == null ? null : byId.get(id);
+    }
+
+    List<RemoteFileMetadata> sorted() { return new ArrayList<>(sorted); }
+
+    int size() { return byId.size(); }
+
+    /**
+     * Up to {@code limit} entries in {@code sort} order that come strictly after {@code after} (null: from the start),
+     * optionally only those with extension {@code ext}.
+     */
+    List<RemoteFileMetadata> page(CatalogSort sort, boolean descending, String ext, RemoteFileMetadata after, int limit) {
+        Map<CatalogSort, NavigableSet<RemoteFileMetadata>> source = ext == null ? orders : byExtension.get(ext);
+        if (source == null) return new ArrayList<>();
+        NavigableSet<RemoteFileMetadata> set = source.get(sort);
+        if (descending) set = set.descendingSet();
+        if (after != null) set = set.tailSet(after, false);
+        List<RemoteFileMetadata> out = new ArrayList<>(Math.min(limit, 1024));
+        for (RemoteFileMetadata m : set) { if (out.size() == limit) break; out.add(m); }
+        return out;
+    }
+
+    /** Changes whenever the catalog does (and across restarts), so it can back an ETag of the listing. */
+    String tag() { return epoch + "-" + modifications.get(); }
+
+    void put(RemoteFileMetadata m) {
+        RemoteFileMetadata old = byId.put(m.getId(), m);
+        if (old != null) unlink(old);
+        for (CatalogSort s : CatalogSort.values()) orders.get(s).add(m);
+        byExtension.computeIfAbsent(m.getExtensionLower(), e -> newOrders()).values().forEach(set -> set.add(m));
+        idByName.put(m.getName(), m.getId());
+        modifications.incrementAndGet();
+    }
+
+    void remove(String id) {
+        RemoteFileMetadata old = byId.remove(id);
+        if (old == null) return;
+        unlink(old);
+        modifications.incrementAndGet();
+        if (idByName.remove(old.getName(), id)) {
+            // another entry may still carry the same name (legacy duplicates) -> keep it reachable
+            for (RemoteFileMetadata m : sorted.subSet(probe(old.getName(), ""), true, probe(old.getName(), "\uffff"), true))
+                if (m.getName().equals(old.getName())) { idByName.putIfAbsent(m.getName(), m.getId()); break; }
+        }
+    }
+
+    private void unlink(RemoteFileMetadata old) {
+        for (NavigableSet<RemoteFileMetadata> set : orders.values()) set.remove(old);
+        Map<CatalogSort, NavigableSet<RemoteFileMetadata>> ext = byExtension.get(old.getExtensionLower());
+        if (ext != null) for (NavigableSet<RemoteFileMetadata> set : ext.values()) set.remove(old);
+    }
+
+    private static Map<CatalogSort, NavigableSet<RemoteFileMetadata>> newOrders() {
+        Map<CatalogSort, NavigableSet<RemoteFileMetadata>> m = new EnumMap<>(CatalogSort.class);
+        for (CatalogSort s : CatalogSort.values()) m.put(s, new ConcurrentSkipListSet<>(s.order));
+        return m;
+    }
+
+    private static RemoteFileMetadata probe(String name, String id) {
+        RemoteFileMetadata p = new RemoteFileMetadata(); p.setName(name); p.setId(id); return p;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.server.storage;
+
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Small renditions for previews: PNG thumbnails of images and the first {@code -Dserver.preview.textBytes}
+ * (default 16 KB) of text files, cached under {@code <root>/.previews/<id>/<version>-<rendition>}.
+ *
+ * <p>Thumbnails come in a few box sizes (64..1024 px) so caches stay small; large images are decoded with
+ * source subsampling instead of in full. Renditions are built on a bounded pool
+ * ({@code -Dserver.preview.threads}, default 2, {@code -Dserver.preview.queue} waiting, default 256): the default
+ * ones ahead of time when the change log reports new content, skipped when the pool is full, others on first
+ * request, rendered by the requester itself when it is, with concurrent requests for one rendition sharing the work. A content
+ * change or delete drops the entry's cache; the version in the file name keeps a racing reader from ever
+ * getting a stale rendition.
+ */
+@Component
+public class PreviewService implements Closeable {
+    public static final String DIR = ".previews";
+    public static final int DEFAULT_BOX = 256;
+    private static final int[] BOXES = { 64, 128, 256, 512, 1024 };
+    private static final Set<String> IMAGES = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+    private static final Set<String> TEXT = Set.of("txt", "html", "htm", "js", "mjs", "ts", "css", "json", "xml", "md", "csv",
+            "java", "py", "sh", "yml", "yaml", "properties", "log", "sql");
+
+    /** A cached rendition on disk. */
+    public static final class Rendition {
+        public final Path file; public final String contentType; public final String tag;
+        Rendition(Path file, String contentType, String tag) { this.file = file; this.contentType = contentType; this.tag = tag; }
+    }
+
+    private final DiskRemoteStorage storage;
+    private final Path dir;
+    private final int textBytes = Integer.getInteger("server.preview.textBytes", 16 * 1024);
+    private final ThreadPoolExecutor workers;
+    private final Map<String, CompletableFuture<Rendition>> inFlight = new ConcurrentHashMap<>();
+
+    public PreviewService(DiskRemoteStorage storage) throws IOException {
+        this.storage = storage;
+        this.dir = storage.root().resolve(DIR);
+        Files.createDirectories(dir);
+        int threads = Integer.getInteger("server.preview.threads", 2);
+        workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Integer.getInteger("server.preview.queue", 256)), r -> {
+            Thread t = new Thread(r, "preview-worker"); t.setDaemon(true); return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        storage.changeLog().subscribe(this::onChange);
+    }
+
+    public static boolean supports(RemoteFileMetadata meta) { return IMAGES.contains(meta.getExtensionLower()) || TEXT.contains(meta.getExtensionLower()); }
+
+    /** Smallest box size covering the requested dimensions. */
+    public static int box(int w, int h) {
+        int want = Math.max(w, h);
+        for (int b : BOXES) if (b >= want) return b;
+        return BOXES[BOXES.length - 1];
+    }
+
+    /**
+     * The rendition for {@code meta} at {@code box} (ignored for text), built now if it is not cached yet.
+     * @throws FileNotFoundException when the type has no preview
+     */
+    public Rendition get(RemoteFileMetadata meta, int box) throws IOException {
+        if (!supports(meta)) throw new FileNotFoundException("No preview for " + meta.getName());
+        Rendition cached = cached(meta, box);
+        if (Files.exists(cached.file)) return cached;
+        CompletableFuture<Rendition> f = submit(meta, box, true);
+        try { return f.get(30, TimeUnit.SECONDS); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+        catch (TimeoutException e) { throw new IOException("Preview timed out", e); }
+        catch (CancellationException e) { return get(meta, box); } // joined a warm-up the full pool turned away
+        catch (ExecutionException e) { throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()); }
+    }
+
+    /** {@code callerRuns}: render on this thread when the pool is full; else give up (null) and leave it to the first request. */
+    private CompletableFuture<Rendition> submit(RemoteFileMetadata meta, int box, boolean callerRuns) {
+        Rendition target = cached(meta, box);
+        String key = target.file.toString();
+        CompletableFuture<Rendition> mine = new CompletableFuture<>();
+        CompletableFuture<Rendition> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) return running;
+        try {
+            workers.execute(() -> {
+                try { render(meta, box, target.file); mine.complete(target); }
+                catch (Throwable t) { mine.completeExceptionally(t); }
+                finally { inFlight.remove(key, mine); }
+            });
+        } catch (RejectedExecutionException e) { // pool saturated: render on the caller rather than fail
+            inFlight.remove(key, mine);
+            if (!callerRuns) { mine.cancel(false); return null; }
+            try { render(meta, box, target.file); mine.complete(target); } catch (Throwable t) { mine.completeExceptionally(t); }
+        }
+        return mine;
+    }
+
+    private Rendition cached(RemoteFileMetadata meta, int box) {
+        boolean image = IMAGES.contains(meta.getExtensionLower());
+        String name = meta.getVersion() + (image ? "-" + box + ".png" : "-text.txt");
+        String tag = "p-" + (meta.getSha256() != null ? meta.getSha256().substring(0, 16) : String.valueOf(meta.getModifiedAt().toEpochMilli()))
+                + "-" + meta.getVersion() + (image ? "-" + box : "");
+        return new Rendition(dir.resolve(meta.getId()).resolve(name), image ? "image/png" : "text/plain;charset=UTF-8", tag);
+    }
+
+    private void render(RemoteFileMetadata meta, int box, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            if (IMAGES.contains(meta.getExtensionLower())) {
+                BufferedImage img = thumbnail(meta.getId(), box);
+                if (img == null) throw new FileNotFoundException("Unreadable image " + meta.getName());
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) { ImageIO.write(img, "png", os); }
+            } else {
+                byte[] head;
+                try (InputStream in = storage.download(meta.getId())) { head = in.readNBytes(textBytes); }
+                Files.write(tmp, Arrays.copyOf(head, head.length < meta.getSize() ? utf8Boundary(head) : head.length));
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Length of {@code b} without a trailing, cut-off UTF-8 sequence. */
+    static int utf8Boundary(byte[] b) {
+        int start = b.length;
+        while (start > 0 && b.length - start < 4 && (b[start - 1] & 0xC0) == 0x80) start--;
+        if (start == 0) return b.length;
+        int lead = b[start - 1] & 0xFF;
+        int need = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        return b.length - (start - 1) < need ? start - 1 : b.length;
+    }
+
+    private BufferedImage thumbnail(String id, int box) throws IOException {
+        try (InputStream in = storage.download(id); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(w, h) >= box ? Math.max(w, h) / (box * 2) : 1); // decode at >= 2x the box, not in full
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage src = reader.read(0, param);
+                double scale = Math.min(1.0, Math.min((double) box / src.getWidth(), (double) box / src.getHeight()));
+                int tw = Math.max(1, (int) Math.round(src.getWidth() * scale)), th = Math.max(1, (int) Math.round(src.getHeight() * scale));
+                BufferedImage out = new BufferedImage(tw, th, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = out.createGraphics();
+                try {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    g.drawImage(src, 0, 0, tw, th, null);
+                } finally { g.dispose(); }
+                return out;
+            } finally { reader.dispose(); }
+        }
+    }
+
+    private void onChange(ChangeLog.Change c) {
+        if (c.kind != ChangeLog.Kind.CREATED) drop(c.id);
+        if (c.kind == ChangeLog.Kind.DELETED) return;
+        RemoteFileMetadata meta = storage.get(c.id);
+        // warm the default rendition in the background; never on the writer's thread, which is still committing
+        if (meta != null && supports(meta) && !Files.exists(cached(meta, DEFAULT_BOX).file)) submit(meta, DEFAULT_BOX, false);
+    }
+
+    private void drop(String id) {
+        Path d = dir.resolve(id);
+        if (!Files.isDirectory(d)) return;
+        try (Stream<Path> files = Files.list(d)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+            Files.deleteIfExists(d);
+        } catch (IOException ignored) {} // a leftover is harmless: versioned names are never served for newer content
+    }
+
+    @Override public void close() { workers.shutdownNow(); }
+}
@@ -10,6 +10,9 @@ public class RemoteFileMetadata {
     private String uploadedBy;
     private String editedBy;
     private long size;
+    private String sha256;
+    private long version = 1; // +1 on every content change
+    private String encoding; // how the content is stored (gzip) or null when stored as is
 
     public RemoteFileMetadata() {}
     public RemoteFileMetadata(String id, String name, Instant createdAt, Instant modifiedAt,
@@ -24,10 +27,19 @@ public class RemoteFileMetadata {
     public String getUploadedBy() { return uploadedBy; }
     public String getEditedBy() { return editedBy; }
     public long getSize() { return size; }
+    public String getSha256() { return sha256; }
+    public long getVersion() { return version; }
+    public String getEncoding() { return encoding; }
     public void setId(String v) { id=v; } public void setName(String v) { name=v; }
     public void setCreatedAt(Instant v) { createdAt=v; } public void setModifiedAt(Instant v) { modifiedAt=v; }
     public void setUploadedBy(String v) { uploadedBy=v; } public void setEditedBy(String v) { editedBy=v; }
-    public void setSize(long v) { size=v; }
+    public void setSize(long v) { size=v; } public void setSha256(String v) { sha256=v; }
+    public void setVersion(long v) { version=v; } public void setEncoding(String v) { encoding=v; }
+
+    public RemoteFileMetadata copy() {
+        RemoteFileMetadata m = new RemoteFileMetadata(id, name, createdAt, modifiedAt, uploadedBy, editedBy, size);
+        m.sha256 = sha256; m.version = version; m.encoding = encoding; return m;
+    }
 
     public String getExtensionLower() {
         String n = name==null?"":name; int i = n.lastIndexOf('.');
@@ -0,0 +1,38 @@
+package org.example.server.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of one {@link DiskRemoteStorage}: a latency timer per operation ({@code drive.storage.operations},
+ * tagged {@code op}, with a percentile histogram) and byte counters. They are registered on the storage's
+ * composite registry, which records nothing until {@link DiskRemoteStorage#bindTo} adds a real one.
+ */
+final class StorageMetrics {
+    static final String OPERATIONS = "drive.storage.operations";
+    static final String BYTES_UPLOADED = "drive.bytes.uploaded", BYTES_DOWNLOADED = "drive.bytes.downloaded";
+
+    final Timer upload, upsert, update, download, delete, list, changes;
+    final Counter uploaded, downloaded;
+
+    StorageMetrics(MeterRegistry registry) {
+        upload = timer(registry, "upload"); upsert = timer(registry, "upsert"); update = timer(registry, "update");
+        download = timer(registry, "download"); delete = timer(registry, "delete");
+        list = timer(registry, "list"); changes = timer(registry, "changes");
+        uploaded = Counter.builder(BYTES_UPLOADED).baseUnit("bytes").description("Content bytes committed to storage").register(registry);
+        downloaded = Counter.builder(BYTES_DOWNLOADED).baseUnit("bytes").description("Bytes of file content and archives sent to clients").register(registry);
+    }
+
+    private static Timer timer(MeterRegistry registry, String op) {
+        return Timer.builder(OPERATIONS).tag("op", op).description("DiskRemoteStorage call latency")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(50_000)).maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    static void stop(Timer timer, long startNanos) { timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS); }
+}
@@ -0,0 +1,27 @@
+package org.example.server.storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed pools of locks addressed by key hash, one pool for file names and one for ids. Writes to the same
+ * file always meet on the same stripe; writes to different files almost never do. A writer holds at most
+ * one lock of each pool and takes the name lock before the id lock, so stripes cannot deadlock.
+ * Sized with {@code -Dserver.lockStripes} (default 64, rounded up to a power of two).
+ */
+final class StripedLocks {
+    private final ReentrantLock[] names, ids;
+
+    StripedLocks(int stripes) {
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        names = new ReentrantLock[n]; ids = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) { names[i] = new ReentrantLock(); ids[i] = new ReentrantLock(); }
+    }
+
+    static StripedLocks fromSystemProperties() { return new StripedLocks(Integer.getInteger("server.lockStripes", 64)); }
+
+    ReentrantLock name(String name) { return names[stripe(name)]; }
+
+    ReentrantLock id(String id) { return ids[stripe(id)]; }
+
+    private int stripe(String key) { int h = key.hashCode(); return (h ^ (h >>> 16)) & (names.length - 1); }
+}
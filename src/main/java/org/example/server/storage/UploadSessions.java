@@ -0,0 +1,214 @@
+package org.example.server.storage;
+
+import org.example.common.storage.EntryLayout;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Resumable chunked uploads. A session lives in {@code <root>/.uploads/<sid>/}: {@code session.properties}
+ * (name, size, chunk size, user), {@code data.part} that every chunk is written into at its own offset, and
+ * {@code received.map} with one byte per chunk set once that chunk is on disk. Chunks may arrive in any
+ * order and in parallel; on commit the assembled file is renamed into storage, not copied.
+ *
+ * <p>SHA-256 is computed while the next in-order chunk streams in; chunks that arrived early are folded in
+ * from the page cache once the gap before them is filled. Sessions idle longer than
+ * {@code -Dserver.uploads.ttlHours} (default 24) are removed.
+ */
+@Component
+public final class UploadSessions {
+    public static final String DIR = ".uploads";
+    public static final long MIN_CHUNK = 256 * 1024, MAX_CHUNK = 64L * 1024 * 1024, DEFAULT_CHUNK = 8L * 1024 * 1024;
+    private static final Duration TTL = Duration.ofHours(Long.getLong("server.uploads.ttlHours", 24));
+
+    private final Path dir;
+    private final Map<String, Session> open = new ConcurrentHashMap<>();
+
+    public UploadSessions(DiskRemoteStorage storage) throws IOException {
+        this.dir = storage.root().resolve(DIR);
+        Files.createDirectories(dir);
+        expire();
+    }
+
+    /** Snapshot of a session for clients: what to send next. */
+    public static final class Status {
+        public String id, name, fileId; public long size, chunkSize; public int chunks;
+        public List<long[]> receivedRanges = new ArrayList<>(); public List<Integer> missingChunks = new ArrayList<>();
+    }
+
+    /** The assembled upload, ready for {@link DiskRemoteStorage#importFile} / {@link DiskRemoteStorage#replaceContent}. */
+    public static final class Assembled {
+        public final Path file; public final String sha256, name, user, fileId;
+        Assembled(Path file, String sha256, String name, String user, String fileId) { this.file = file; this.sha256 = sha256; this.name = name; this.user = user; this.fileId = fileId; }
+    }
+
+    private static final class Session {
+        final String id, name, user, fileId; final long size, chunkSize; final int chunks; final Path dir;
+        final ReentrantLock lock = new ReentrantLock(); // not the monitor: catching up the digest reads the file
+        MessageDigest digest; int hashed; boolean inlineBusy; // guarded by lock
+        Session(String id, Path dir, Properties p) {
+            this.id = id; this.dir = dir; name = p.getProperty("name"); user = p.getProperty("user"); fileId = p.getProperty("fileId");
+            size = Long.parseLong(p.getProperty("size")); chunkSize = Long.parseLong(p.getProperty("chunkSize"));
+            chunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        }
+        long offset(int n) { return n * chunkSize; }
+        long length(int n) { return Math.min(chunkSize, size - offset(n)); }
+        Path data() { return dir.resolve("data.part"); }
+        Path map() { return dir.resolve("received.map"); }
+    }
+
+    public Status create(String name, long size, Long chunkSize, String user, String fileId) throws IOException {
+        EntryLayout.checkName(name); // same names as a direct upload, refused before any chunk is sent
+        if (size < 0) throw new IllegalArgumentException("Invalid size");
+        long cs = chunkSize == null ? DEFAULT_CHUNK : Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, chunkSize));
+        expire();
+        String id = UUID.randomUUID().toString();
+        Path d = dir.resolve(id); Files.createDirectories(d);
+        Properties p = new Properties();
+        p.setProperty("name", name); p.setProperty("size", String.valueOf(size)); p.setProperty("chunkSize", String.valueOf(cs));
+        p.setProperty("user", user); if (fileId != null) p.setProperty("fileId", fileId);
+        Session s = new Session(id, d, p);
+        try (FileChannel data = FileChannel.open(s.data(), CREATE_NEW, WRITE)) { if (size > 0) data.write(ByteBuffer.allocate(1), size - 1); }
+        try (FileChannel map = FileChannel.open(s.map(), CREATE_NEW, WRITE)) { map.write(ByteBuffer.allocate(s.chunks), 0); }
+        try (OutputStream os = Files.newOutputStream(d.resolve("session.properties"))) { p.store(os, "upload-session"); }
+        s.digest = sha256();
+        open.put(id, s);
+        return status(id);
+    }
+
+    /** Streams one chunk into place. The body must be exactly the chunk's length (the last one may be shorter). */
+    public void writeChunk(String sid, int n, InputStream body) throws IOException {
+        Session s = session(sid);
+        if (n < 0 || n >= s.chunks) throw new IllegalArgumentException("Chunk out of range: " + n);
+        boolean inline;
+        s.lock.lock();
+        try { inline = s.digest != null && n == s.hashed && !s.inlineBusy; if (inline) s.inlineBusy = true; } finally { s.lock.unlock(); }
+        boolean ok = false;
+        try {
+            InputStream in = inline ? new DigestInputStream(body, s.digest) : body;
+            long expected = s.length(n), written = 0;
+            try (FileChannel data = FileChannel.open(s.data(), WRITE)) {
+                byte[] buf = new byte[64 * 1024]; int r;
+                while ((r = in.read(buf)) != -1) {
+                    if (written + r > expected) throw new IllegalArgumentException("Chunk " + n + " longer than " + expected + " bytes");
+                    ByteBuffer bb = ByteBuffer.wrap(buf, 0, r);
+                    while (bb.hasRemaining()) data.write(bb, s.offset(n) + written + (r - bb.remaining()));
+                    written += r;
+                }
+                if (written != expected) throw new IllegalArgumentException("Chunk " + n + " has " + written + " of " + expected + " bytes");
+                data.force(false);
+            }
+            try (FileChannel map = FileChannel.open(s.map(), WRITE)) { map.write(ByteBuffer.wrap(new byte[] { 1 }), n); }
+            ok = true;
+        } finally {
+            s.lock.lock();
+            try {
+                if (inline) { s.inlineBusy = false; if (ok) s.hashed++; else s.digest = null; } // a broken inline pass poisons the digest
+                if (ok) catchUpDigest(s);
+            } finally { s.lock.unlock(); }
+        }
+    }
+
+    public Status status(String sid) throws IOException {
+        Session s = session(sid);
+        boolean[] got = received(s);
+        Status st = new Status();
+        st.id = s.id; st.name = s.name; st.fileId = s.fileId; st.size = s.size; st.chunkSize = s.chunkSize; st.chunks = s.chunks;
+        for (int i = 0; i < got.length; i++) {
+            if (!got[i]) { st.missingChunks.add(i); continue; }
+            long start = s.offset(i), end = start + s.length(i) - 1;
+            long[] last = st.receivedRanges.isEmpty() ? null : st.receivedRanges.get(st.receivedRanges.size() - 1);
+            if (last != null && last[1] + 1 == start) last[1] = end; else st.receivedRanges.add(new long[] { start, end });
+        }
+        return st;
+    }
+
+    /**
+     * Verifies every chunk is present and hands over {@code data.part} for storage to rename into place;
+     * call {@link #discard} once it has. If the import fails the session stays resumable.
+     */
+    public Assembled assemble(String sid) throws IOException {
+        Session s = session(sid);
+        boolean[] got = received(s);
+        for (int i = 0; i < got.length; i++) if (!got[i]) throw new IllegalStateException("Chunk " + i + " missing");
+        String sha = null;
+        s.lock.lock();
+        try { catchUpDigest(s); if (s.digest != null && s.hashed == s.chunks) sha = HexFormat.of().formatHex(s.digest.digest()); s.digest = null; }
+        finally { s.lock.unlock(); }
+        return new Assembled(s.data(), sha, s.name, s.user, s.fileId);
+    }
+
+    public void discard(String sid) throws IOException {
+        open.remove(sid);
+        Path d = dir.resolve(sid);
+        if (!Files.isDirectory(d)) return;
+        try (Stream<Path> files = Files.list(d)) { for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p); }
+        Files.deleteIfExists(d);
+    }
+
+    private Session session(String sid) throws IOException {
+        if (sid.contains("/") || sid.contains("\\") || sid.contains("..")) throw new FileNotFoundException(sid);
+        Session s = open.get(sid);
+        if (s != null) return s;
+        Path d = dir.resolve(sid), props = d.resolve("session.properties");
+        if (!Files.isRegularFile(props) || !Files.exists(d.resolve("data.part"))) throw new FileNotFoundException("No upload session " + sid);
+        Properties p = new Properties();
+        try (InputStream is = Files.newInputStream(props)) { p.load(is); }
+        // resumed after a restart: the running digest is gone, so the hash is computed on commit
+        return open.computeIfAbsent(sid, k -> new Session(k, d, p));
+    }
+
+    private static boolean[] received(Session s) throws IOException {
+        byte[] map = Files.readAllBytes(s.map());
+        boolean[] got = new boolean[s.chunks];
+        for (int i = 0; i < got.length && i < map.length; i++) got[i] = map[i] != 0;
+        try { Files.setLastModifiedTime(s.dir, java.nio.file.attribute.FileTime.from(Instant.now())); } catch (IOException ignored) {}
+        return got;
+    }
+
+    /** Folds chunks that arrived ahead of the hash cursor into the digest; caller holds the session lock. */
+    private static void catchUpDigest(Session s) throws IOException {
+        if (s.digest == null || s.inlineBusy) return;
+        boolean[] got = received(s);
+        if (s.hashed >= s.chunks || !got[s.hashed]) return;
+        try (FileChannel data = FileChannel.open(s.data(), READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (s.hashed < s.chunks && got[s.hashed]) {
+                for (long pos = s.offset(s.hashed), end = pos + s.length(s.hashed); pos < end; ) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                    int r = data.read(buf, pos);
+                    if (r < 0) throw new EOFException();
+                    s.digest.update(buf.array(), 0, r); pos += r;
+                }
+                s.hashed++;
+            }
+        }
+    }
+
+    private void expire() throws IOException {
+        Instant cutoff = Instant.now().minus(TTL);
+        try (Stream<Path> sessions = Files.list(dir)) {
+            for (Path d : (Iterable<Path>) sessions::iterator) {
+                if (Files.getLastModifiedTime(d).toInstant().isBefore(cutoff)) discard(d.getFileName().toString());
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try { return MessageDigest.getInstance("SHA-256"); } catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+}
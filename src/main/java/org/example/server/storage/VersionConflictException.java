@@ -0,0 +1,16 @@
+package org.example.server.storage;
+
+/** A conditional write found the entry at another version than the caller expected (HTTP 412). */
+public class VersionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long current;
+
+    public VersionConflictException(String id, long expected, long current) {
+        super(id == null ? "Entry does not exist" : "Entry " + id + " is at version " + current + (expected > 0 ? ", expected " + expected : ""));
+        this.current = current;
+    }
+
+    /** Version found, 0 when the entry does not exist. */
+    public long getCurrent() { return current; }
+}
@@ -0,0 +1,138 @@
+package org.example.server.storage;
+
+import org.example.common.storage.BlockDelta;
+import org.example.common.storage.EntryLayout;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Previous versions of entries as reverse block deltas under {@code <root>/.versions/<ab>/<cd>/<id>/}: when an
+ * update takes an entry from version N to N+1, {@code N.delta} rebuilds N's content from N+1's and
+ * {@code N.properties} keeps N's metadata. The current content stays a plain file, so reading it costs what
+ * it did; version k is rebuilt by applying the deltas from the newest down to k. Only the newest
+ * {@code -Dserver.versions.keep} (default 10, 0 turns history off) versions are kept; dropping the oldest
+ * never breaks the chain of the others.
+ *
+ * <p>A delta is made durable before the update it belongs to commits, so a crash in between leaves one
+ * numbered like the current version; such files are ignored and overwritten by the next update.
+ */
+final class VersionStore {
+    static final String DIR = ".versions";
+    private static final String DELTA = ".delta", META = ".properties";
+
+    private final Path dir;
+    private final Path tmp;
+    private final int keep;
+    private final GroupCommitter fsync;
+
+    VersionStore(Path root, Path tmp, int keep, GroupCommitter fsync) throws IOException {
+        this.dir = root.resolve(DIR); this.tmp = tmp; this.keep = keep; this.fsync = fsync;
+        Files.createDirectories(dir);
+    }
+
+    static int retention() { return Math.max(0, Integer.getInteger("server.versions.keep", 10)); }
+
+    interface Content { InputStream open() throws IOException; }
+
+    private Path entryDir(String id) { return EntryLayout.fanOut(dir, id); }
+
+    /**
+     * Stores {@code previous} as a delta against the content replacing it, then applies the retention. Called
+     * under the entry's lock, before the new content commits.
+     */
+    void record(RemoteFileMetadata previous, Content previousContent, Content next, long nextSize) throws IOException {
+        Path d = entryDir(previous.getId());
+        if (keep == 0) { prune(d, previous.getVersion() + 1); return; } // history off: what was kept goes
+        Files.createDirectories(d);
+        BlockDelta.Signature sig;
+        try (InputStream in = next.open()) { sig = BlockDelta.signature(in, BlockDelta.blockSizeFor(nextSize)); }
+        long v = previous.getVersion();
+        Path deltaTmp = tmp.resolve(UUID.randomUUID() + DELTA), metaTmp = tmp.resolve(UUID.randomUUID() + META);
+        try {
+            try (InputStream in = previousContent.open(); OutputStream out = new BufferedOutputStream(Files.newOutputStream(deltaTmp), 1 << 16)) { BlockDelta.delta(sig, in, out); }
+            RemoteFileMetadata m = previous.copy(); m.setEncoding(null);
+            try (OutputStream os = Files.newOutputStream(metaTmp)) { DiskRemoteStorage.toProps(m).store(os, "version"); }
+            fsync.sync(deltaTmp, metaTmp);
+            Files.move(deltaTmp, d.resolve(v + DELTA), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(metaTmp, d.resolve(v + META), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally { Files.deleteIfExists(deltaTmp); Files.deleteIfExists(metaTmp); }
+        prune(d, v + 1);
+        List<Path> touched = new ArrayList<>(4);
+        for (Path p = d; p.startsWith(dir); p = p.getParent()) touched.add(p);
+        fsync.sync(touched);
+    }
+
+    /** Drops versions beyond the retention and any below a gap in the chain (left by updates made with history off). */
+    private void prune(Path d, long current) throws IOException {
+        long[] vs = stored(d, current);
+        int kept = 0;
+        for (int i = 0; i < vs.length; i++) {
+            boolean chained = i == 0 ? vs[0] == current - 1 : vs[i] == vs[i - 1] - 1;
+            if (chained && kept < keep) { kept++; continue; }
+            for (int j = i; j < vs.length; j++) { Files.deleteIfExists(d.resolve(vs[j] + META)); Files.deleteIfExists(d.resolve(vs[j] + DELTA)); }
+            break;
+        }
+    }
+
+    /** Versions below {@code current} with both files present, newest first. */
+    private static long[] stored(Path d, long current) throws IOException {
+        if (!Files.isDirectory(d)) return new long[0];
+        List<Long> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(d, "*" + META)) {
+            for (Path p : ds) {
+                String n = p.getFileName().toString();
+                try {
+                    long v = Long.parseLong(n.substring(0, n.length() - META.length()));
+                    if (v < current && Files.exists(d.resolve(v + DELTA))) out.add(v);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        return out.stream().sorted(Comparator.reverseOrder()).mapToLong(Long::longValue).toArray();
+    }
+
+    /** Metadata of the stored versions of an entry currently at {@code current}, newest first. */
+    List<RemoteFileMetadata> list(String id, long current) throws IOException {
+        Path d = entryDir(id);
+        List<RemoteFileMetadata> out = new ArrayList<>();
+        for (long v : stored(d, current)) {
+            if (!out.isEmpty() && out.get(out.size() - 1).getVersion() != v + 1) break; // unreachable below a gap
+            Properties p = new Properties();
+            try (InputStream is = Files.newInputStream(d.resolve(v + META))) { p.load(is); }
+            out.add(DiskRemoteStorage.fromProps(p));
+        }
+        return out.isEmpty() || out.get(0).getVersion() == current - 1 ? out : new ArrayList<>();
+    }
+
+    /**
+     * Rebuilds {@code version} into a temp file by applying deltas to {@code latest}, the plain content of
+     * version {@code current}. Called under the entry's lock, so the chain does not change meanwhile.
+     */
+    Path rebuild(String id, long current, long version, Path latest) throws IOException {
+        Path d = entryDir(id);
+        Path base = latest, out = null;
+        try {
+            for (long v = current - 1; v >= version; v--) {
+                Path next = tmp.resolve(UUID.randomUUID() + ".version");
+                try (InputStream delta = Files.newInputStream(d.resolve(v + DELTA)); OutputStream os = new BufferedOutputStream(Files.newOutputStream(next), 1 << 16)) {
+                    BlockDelta.apply(base, delta, os);
+                } catch (IOException e) {
+                    Files.deleteIfExists(next);
+                    throw e instanceof NoSuchFileException ? new FileNotFoundException(id + " version " + version) : e;
+                }
+                if (out != null) Files.deleteIfExists(out);
+                base = out = next;
+            }
+            return out;
+        } catch (IOException | RuntimeException e) { if (out != null) Files.deleteIfExists(out); throw e; }
+    }
+
+    void delete(String id) throws IOException { EntryLayout.deleteEntryDir(entryDir(id)); }
+
+    /** Removes the history of entries no longer in the catalog, e.g. deleted while history was off. */
+    void collectGarbage(Set<String> live) throws IOException {
+        for (Path bucket : EntryLayout.buckets(dir))
+            for (Path d : EntryLayout.bucketEntries(bucket, null)) if (!live.contains(d.getFileName().toString())) EntryLayout.deleteEntryDir(d);
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.server.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams entries as one ZIP: content is read and deflated straight into {@code out}, so memory stays constant and
+ * nothing is spooled to disk. Formats that are compressed already are written at level 0 (stored deflate blocks)
+ * instead of being deflated again; a true STORED entry would need its CRC up front, i.e. a second pass.
+ */
+public final class ZipArchive {
+    private ZipArchive() {}
+
+    /** @return entries written; entries deleted while the archive is being streamed are left out */
+    public static int write(DiskRemoteStorage storage, List<RemoteFileMetadata> entries, OutputStream out) throws IOException {
+        int written = 0;
+        Set<String> names = new HashSet<>();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (RemoteFileMetadata m : entries) {
+            InputStream in;
+            try { in = storage.download(m.getId()); } catch (FileNotFoundException | NoSuchFileException gone) { continue; }
+            try (in) {
+                ZipEntry e = new ZipEntry(unique(names, m.getName()));
+                e.setLastModifiedTime(FileTime.from(m.getModifiedAt()));
+                zip.setLevel(ContentCompression.precompressed(m.getName()) ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+                zip.putNextEntry(e);
+                in.transferTo(zip);
+                zip.closeEntry();
+                written++;
+            }
+        }
+        zip.finish();
+        return written;
+    }
+
+    private static String unique(Set<String> names, String name) {
+        if (names.add(name)) return name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name, ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; ; i++) { String n = base + " (" + i + ")" + ext; if (names.add(n)) return n; }
+    }
+}
@@ -13,7 +13,7 @@ public class CorsConfig {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
                 registry.addMapping("/api/**").allowedOrigins("http://localhost:5173").allowedMethods("*")
-                        .allowedHeaders("*").exposedHeaders("Content-Disposition");
+                        .allowedHeaders("*").exposedHeaders("Content-Disposition", "Content-Range", "ETag", "Accept-Ranges");
             }
         };
     }
@@ -0,0 +1,28 @@
+package org.example.server.web;
+
+import org.example.server.storage.RemoteFileMetadata;
+
+/** Strong entity tags for file content and single-file metadata. */
+final class EntityTags {
+    private EntityTags() {}
+
+    /** Content hash when known; entries written before hashing fall back to id + modification time + size. */
+    static String content(RemoteFileMetadata m) {
+        return m.getSha256() != null ? quote(m.getSha256()) : quote(m.getId() + "-" + m.getModifiedAt().toEpochMilli() + "-" + m.getSize());
+    }
+
+    /** Tag of the stored (gzip) representation; strong tags must differ between encodings of the same content. */
+    static String encoded(RemoteFileMetadata m) {
+        String c = content(m); return c.substring(0, c.length() - 1) + "-" + m.getEncoding() + "\"";
+    }
+
+    static String metadata(RemoteFileMetadata m) {
+        String c = m.getSha256() != null ? m.getSha256().substring(0, 16) : String.valueOf(m.getSize());
+        return quote("m-" + m.getModifiedAt().toEpochMilli() + "-" + c);
+    }
+
+    /** Per-entry version, accepted by {@code If-Match} next to the content tag. */
+    static String version(RemoteFileMetadata m) { return quote("v" + m.getVersion()); }
+
+    static String quote(String s) { return "\"" + s + "\""; }
+}
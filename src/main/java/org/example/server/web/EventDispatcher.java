@@ -0,0 +1,191 @@
+package org.example.server.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.example.server.ServerThreads;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Delivers server-sent events off the publishing thread. {@link #publish} only records the event in a replay
+ * ring and offers it to each subscriber's bounded queue; sender threads ({@link ServerThreads#elastic}, at most one
+ * per subscriber with queued events) empty every queue on its own, so a slow client delays nobody but itself.
+ * Emitters are completed on a sender thread too, never under a lock publishers take: completing waits for a
+ * send in progress, which for a dead peer can take until the socket times out.
+ *
+ * <ul>
+ *   <li>Queued events with the same key (the file id) collapse into the newest one.</li>
+ *   <li>A full queue either drops its oldest event and later sends {@code resync}, or disconnects the client
+ *       ({@code -Dserver.sse.overflow=drop|disconnect}, default drop; size {@code -Dserver.sse.queue}, default 256).
+ *       With drop, a client that overflows more than {@code -Dserver.sse.maxOverflows} times (default 3) without
+ *       ever catching up in between is disconnected too.</li>
+ *   <li>A client whose send has not returned after {@code -Dserver.sse.sendTimeoutMillis} (default 30000) is
+ *       dropped from the fan-out; its sender thread is released once the write fails.</li>
+ *   <li>Idle connections get a comment ping every {@code -Dserver.sse.heartbeatSeconds} (default 15).</li>
+ *   <li>Every event has an id; a reconnect with {@code Last-Event-ID} replays what it missed from the last
+ *       {@code -Dserver.sse.replay} events (default 1024), or gets {@code resync} when that is too far back.</li>
+ * </ul>
+ * Bound to a registry it reports subscribers, the time {@link #publish} takes to fan an event out, dropped events,
+ * overflow disconnects and send timeouts.
+ */
+@Component
+public class EventDispatcher implements Closeable, MeterBinder {
+    public enum Overflow { DROP, DISCONNECT }
+
+    static final String RESYNC = "resync";
+
+    static final class Event {
+        final long id; final String name, key; final Object data;
+        Event(long id, String name, String key, Object data) { this.id = id; this.name = name; this.key = key; this.data = data; }
+    }
+
+    private final class Subscriber implements Runnable {
+        final SseEmitter emitter;
+        final LinkedHashMap<String, Event> queue = new LinkedHashMap<>(); // guarded by this
+        boolean scheduled, overflowed, closed;
+        int overflows; // overflows since the queue last ran empty
+        volatile long sendingSince; // nanoTime a send started; 0 when none is in progress
+        Subscriber(SseEmitter emitter) { this.emitter = emitter; }
+
+        /** @return false once the subscriber has to go */
+        synchronized boolean offer(Event e) {
+            if (closed) return false;
+            queue.remove(e.key); // coalesce, and move to the tail so ids stay ascending
+            if (queue.size() >= capacity) {
+                if (overflow == Overflow.DISCONNECT || !overflowed && ++overflows > maxOverflows) { closed = true; disconnects.increment(); return false; }
+                Iterator<Event> oldest = queue.values().iterator(); oldest.next(); oldest.remove();
+                overflowed = true; dropped.increment();
+            }
+            queue.put(e.key, e);
+            if (!scheduled) { scheduled = true; senders.execute(this); }
+            return true;
+        }
+
+        @Override public void run() {
+            while (true) {
+                Event e; boolean resync;
+                synchronized (this) {
+                    resync = overflowed; overflowed = false;
+                    Iterator<Event> it = queue.values().iterator();
+                    e = resync || !it.hasNext() ? null : it.next();
+                    if (e != null) it.remove();
+                    if (!resync && e == null) { scheduled = false; overflows = 0; return; }
+                }
+                long t0 = System.nanoTime(); sendingSince = t0 == 0 ? 1 : t0;
+                try {
+                    if (resync) emitter.send(SseEmitter.event().name(RESYNC).data("events were dropped"));
+                    else if (e.name == null) emitter.send(SseEmitter.event().comment(String.valueOf(e.data)));
+                    else emitter.send(SseEmitter.event().id(String.valueOf(e.id)).name(e.name).data(e.data));
+                } catch (Exception ex) { // completed, closed or broken connection
+                    remove(this);
+                    synchronized (this) { scheduled = false; }
+                    return;
+                } finally { sendingSince = 0; }
+            }
+        }
+
+        synchronized boolean idle() { return queue.isEmpty() && !scheduled; }
+    }
+
+    private final int capacity = Integer.getInteger("server.sse.queue", 256);
+    private final Overflow overflow = Overflow.valueOf(System.getProperty("server.sse.overflow", "drop").toUpperCase(Locale.ROOT));
+    private final int maxOverflows = Integer.getInteger("server.sse.maxOverflows", 3);
+    private final long sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("server.sse.sendTimeoutMillis", 30_000));
+    private final Event[] replay = new Event[Math.max(1, Integer.getInteger("server.sse.replay", 1024))];
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeat;
+    private long lastId; // guarded by replay
+    private final CompositeMeterRegistry meters = new CompositeMeterRegistry(); // records nothing until bound
+    private final Timer fanOut = Timer.builder("drive.sse.broadcast").description("Time to queue one event for every subscriber")
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofNanos(1_000)).maximumExpectedValue(Duration.ofSeconds(1)).register(meters);
+    private final Counter dropped = Counter.builder("drive.sse.dropped").description("Events dropped from full subscriber queues").register(meters);
+    private final Counter disconnects = Counter.builder("drive.sse.disconnects").description("Subscribers cut off because their queue was full").register(meters);
+    private final Counter timeouts = Counter.builder("drive.sse.timeouts").description("Subscribers cut off because a send hung").register(meters);
+
+    public EventDispatcher() {
+        senders = ServerThreads.elastic("sse-sender");
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> { Thread t = new Thread(r, "sse-heartbeat"); t.setDaemon(true); return t; });
+        long every = Long.getLong("server.sse.heartbeatSeconds", 15);
+        heartbeat.scheduleAtFixedRate(this::ping, every, every, TimeUnit.SECONDS);
+        long check = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(TimeUnit.SECONDS.toNanos(1), sendTimeoutNanos / 4));
+        heartbeat.scheduleAtFixedRate(this::cutHungSends, check, check, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers an emitter. {@code lastEventId} is the client's {@code Last-Event-ID} (null on a first connect):
+     * newer events still in the replay ring are queued for it first.
+     */
+    public void subscribe(SseEmitter emitter, String lastEventId, String greetingName, Object greeting) {
+        Subscriber s = new Subscriber(emitter);
+        emitter.onCompletion(() -> remove(s));
+        emitter.onTimeout(() -> remove(s));
+        emitter.onError(ex -> remove(s));
+        synchronized (replay) { // no publish can slip between the replay and joining the live stream
+            s.offer(new Event(lastId, greetingName, "\0hello", greeting));
+            if (lastEventId != null) {
+                long after;
+                try { after = Long.parseLong(lastEventId.trim()); } catch (NumberFormatException e) { after = -1; }
+                long oldest = Math.max(1, lastId - replay.length + 1);
+                if (after < oldest - 1 || after > lastId) s.offer(new Event(lastId, RESYNC, "\0resync", "replay window exceeded"));
+                else for (long id = after + 1; id <= lastId; id++) s.offer(replay[(int) (id % replay.length)]);
+            }
+            subscribers.add(s);
+        }
+    }
+
+    /** Queues an event for every subscriber and returns at once; events with the same key coalesce. */
+    public void publish(String name, String key, Object data) {
+        long t0 = System.nanoTime();
+        synchronized (replay) {
+            Event e = new Event(++lastId, name, key, data);
+            replay[(int) (e.id % replay.length)] = e;
+            for (Subscriber s : subscribers) if (!s.offer(e)) remove(s);
+        }
+        fanOut.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+    }
+
+    public int subscriberCount() { return subscribers.size(); }
+
+    @Override public void bindTo(MeterRegistry registry) {
+        Gauge.builder("drive.sse.subscribers", this, EventDispatcher::subscriberCount).description("Open event streams").register(registry);
+        meters.add(registry);
+    }
+
+    private void ping() {
+        Event ping = new Event(0, null, "\0ping", "ping");
+        for (Subscriber s : subscribers) if (s.idle() && !s.offer(ping)) remove(s);
+    }
+
+    private void cutHungSends() {
+        long now = System.nanoTime();
+        for (Subscriber s : subscribers) {
+            long since = s.sendingSince;
+            if (since != 0 && now - since > sendTimeoutNanos) { timeouts.increment(); remove(s); }
+        }
+    }
+
+    /** Takes {@code s} out of the fan-out at once; its emitter is completed on a sender thread. */
+    private void remove(Subscriber s) {
+        if (!subscribers.remove(s)) return;
+        synchronized (s) { s.closed = true; s.queue.clear(); }
+        Runnable complete = () -> { try { s.emitter.complete(); } catch (Exception ignored) {} };
+        try { senders.execute(complete); } catch (RejectedExecutionException shutDown) { complete.run(); }
+    }
+
+    @Override public void close() {
+        heartbeat.shutdownNow();
+        for (Subscriber s : subscribers) remove(s);
+        senders.shutdown();
+    }
+}
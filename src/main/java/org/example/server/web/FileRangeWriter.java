@@ -0,0 +1,183 @@
+package org.example.server.web;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Serves a file with exact Content-Length and byte ranges: a single range answers 206 with Content-Range,
+ * several answer 206 multipart/byteranges, unsatisfiable ones 416. An If-Range that does not match the
+ * current entity tag downgrades the request to a full 200. Bytes go through Tomcat's sendfile
+ * when the connector supports it and the caller can pin the file: give it a name whose bytes stay as they are
+ * until the connector has opened it after the handler returned. Otherwise (no sendfile, small or multipart
+ * ranges) they are read from the file's channel and written through the servlet output stream, which copies
+ * them through a heap buffer. Content
+ * already in memory (a cache hit) is served the same way straight from its array.
+ */
+@Component
+public class FileRangeWriter {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final long SENDFILE_MIN = 48 * 1024; // same threshold as Tomcat's DefaultServlet
+    private static final int CHUNK = 256 * 1024;
+
+    /** Where the bytes come from: a file (possibly via sendfile) or an array. */
+    private interface Body {
+        long length() throws IOException;
+        void copy(long start, long end, WritableByteChannel target) throws IOException;
+        /** Streams [start, end) to the client, or arranges for the connector to. */
+        void send(HttpServletRequest req, HttpServletResponse resp, long start, long end) throws IOException;
+    }
+
+    /**
+     * @param pin for sendfile, a name for {@code file}'s current bytes that outlives the request, or null if it
+     *            cannot make one; null when the file must not be read after the handler returns
+     * @return body bytes sent (or handed to sendfile); 0 for HEAD and 416
+     */
+    public long write(HttpServletRequest req, HttpServletResponse resp, Path file, MediaType type, UnaryOperator<Path> pin, String etag) throws IOException {
+        // pinned before opening, so the length and ranges come from the very bytes sendfile will read even if the
+        // file is replaced in between
+        boolean sendfile = pin != null && !"HEAD".equals(req.getMethod()) && Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT));
+        Path pinned = sendfile && Files.size(file) >= SENDFILE_MIN ? pin.apply(file) : null;
+        try (FileChannel ch = FileChannel.open(pinned != null ? pinned : file, StandardOpenOption.READ)) {
+            return write(req, resp, new Body() {
+                public long length() throws IOException { return ch.size(); }
+                public void copy(long start, long end, WritableByteChannel target) throws IOException { FileRangeWriter.copy(ch, start, end, target); }
+                public void send(HttpServletRequest req, HttpServletResponse resp, long start, long end) throws IOException {
+                    FileRangeWriter.this.send(req, resp, ch, pinned, start, end);
+                }
+            }, type, etag);
+        }
+    }
+
+    /** Same as for a file, from {@code content} held in memory. */
+    public long write(HttpServletRequest req, HttpServletResponse resp, byte[] content, MediaType type, String etag) throws IOException {
+        return write(req, resp, new Body() {
+            public long length() { return content.length; }
+            public void copy(long start, long end, WritableByteChannel target) throws IOException {
+                ByteBuffer b = ByteBuffer.wrap(content, (int) start, (int) (end - start));
+                while (b.hasRemaining()) target.write(b);
+            }
+            public void send(HttpServletRequest req, HttpServletResponse resp, long start, long end) throws IOException {
+                resp.getOutputStream().write(content, (int) start, (int) (end - start));
+            }
+        }, type, etag);
+    }
+
+    private long write(HttpServletRequest req, HttpServletResponse resp, Body body, MediaType type, String etag) throws IOException {
+        long length = body.length();
+        resp.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        List<long[]> ranges;
+        String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+        String range = ifRange == null || ifRange.equals(etag) ? req.getHeader(HttpHeaders.RANGE) : null;
+        try { ranges = ranges(range, length); }
+        catch (IllegalArgumentException e) {
+            resp.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return 0;
+        }
+        boolean head = "HEAD".equals(req.getMethod());
+        if (ranges.isEmpty()) {
+            resp.setContentType(type.toString());
+            resp.setContentLengthLong(length);
+            if (head) return 0;
+            body.send(req, resp, 0, length);
+            return length;
+        } else if (ranges.size() == 1) {
+            long[] r = ranges.get(0);
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setContentType(type.toString());
+            resp.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + r[0] + "-" + r[1] + "/" + length);
+            resp.setContentLengthLong(r[1] - r[0] + 1);
+            if (head) return 0;
+            body.send(req, resp, r[0], r[1] + 1);
+            return r[1] - r[0] + 1;
+        } else {
+            return writeMultipart(resp, body, type, length, ranges, head);
+        }
+    }
+
+    /** @return inclusive [start, end] pairs; empty when the whole file is wanted */
+    private static List<long[]> ranges(String header, long length) {
+        List<long[]> out = new ArrayList<>();
+        if (header == null || length == 0) return out;
+        long total = 0;
+        for (HttpRange r : HttpRange.parseRanges(header)) {
+            long start = r.getRangeStart(length), end = r.getRangeEnd(length);
+            if (start >= length || start > end) throw new IllegalArgumentException("Unsatisfiable range " + r);
+            out.add(new long[] { start, end });
+            total += end - start + 1;
+        }
+        if (out.size() > 1 && total > length) throw new IllegalArgumentException("Ranges exceed content length");
+        return out;
+    }
+
+    private long writeMultipart(HttpServletResponse resp, Body body, MediaType type, long length, List<long[]> ranges, boolean head) throws IOException {
+        String boundary = new String(MimeTypeUtils.generateMultipartBoundary(), StandardCharsets.US_ASCII);
+        List<byte[]> heads = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] r : ranges) {
+            byte[] h = ("\r\n--" + boundary + "\r\nContent-Type: " + type + "\r\nContent-Range: bytes "
+                    + r[0] + "-" + r[1] + "/" + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            heads.add(h);
+            contentLength += h.length + r[1] - r[0] + 1;
+        }
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += tail.length;
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        resp.setContentType("multipart/byteranges; boundary=" + boundary);
+        resp.setContentLengthLong(contentLength);
+        if (head) return 0;
+        ServletOutputStream out = resp.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(heads.get(i));
+            body.copy(ranges.get(i)[0], ranges.get(i)[1] + 1, target);
+        }
+        out.write(tail);
+        return contentLength;
+    }
+
+    /** {@code pinned}: the name {@code ch} was opened with, safe to read after the handler returns; null if none. */
+    private void send(HttpServletRequest req, HttpServletResponse resp, FileChannel ch, Path pinned, long start, long end) throws IOException {
+        if (pinned != null && end - start >= SENDFILE_MIN) {
+            req.setAttribute(SENDFILE_FILENAME, pinned.toAbsolutePath().toString());
+            req.setAttribute(SENDFILE_START, start);
+            req.setAttribute(SENDFILE_END, end);
+            return; // the connector streams the file from the kernel after the handler returns
+        }
+        copy(ch, start, end, Channels.newChannel(resp.getOutputStream()));
+    }
+
+    private static void copy(FileChannel ch, long start, long end, WritableByteChannel target) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(CHUNK, Math.max(1, end - start)));
+        for (long pos = start; pos < end; ) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("File shrank while being served");
+            buf.flip();
+            while (buf.hasRemaining()) target.write(buf);
+            pos += n;
+        }
+    }
+}
@@ -1,75 +1,313 @@
 package org.example.server.web;
 
+import org.example.common.storage.BlockDelta;
+import org.example.common.storage.EntryLayout;
+import org.example.server.storage.CatalogSort;
+import org.example.server.storage.ChangeFeed;
 import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.PreviewService;
 import org.example.server.storage.RemoteFileMetadata;
-import org.springframework.core.io.InputStreamResource;
+import org.example.server.storage.VersionConflictException;
+import org.example.server.storage.ZipArchive;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StreamCorruptedException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.util.List;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 @RestController
 @RequestMapping("/api/files")
 public class FilesController {
     private final DiskRemoteStorage storage;
-    private final ServerSentEvents events;
+    private final FileRangeWriter ranges;
+    private final PreviewService previews;
 
-    public FilesController(DiskRemoteStorage storage, ServerSentEvents events) { this.storage = storage; this.events = events; }
+    public FilesController(DiskRemoteStorage storage, FileRangeWriter ranges, PreviewService previews) {
+        this.storage = storage; this.ranges = ranges; this.previews = previews;
+    }
 
     private String userFrom(@RequestHeader(value="X-Auth", required=false) String token) {
         return token == null ? "anonymous" : token; // token is username
     }
 
+    private static final String REVALIDATE = CacheControl.noCache().cachePrivate().getHeaderValue();
+
+    private static final int DEFAULT_PAGE = 200, MAX_PAGE = 1000;
+
+    /**
+     * Without parameters: the whole catalog as a plain array. {@code type} (extension) and {@code sort}
+     * ({@code name|uploadedBy|modifiedAt|extension[,desc]}) filter and order it; {@code limit} or {@code cursor}
+     * switch to a {@link CatalogPage} whose {@code nextCursor} fetches the following page.
+     */
     @GetMapping
-    public List<RemoteFileMetadata> list() throws Exception { return storage.list(); }
+    public ResponseEntity<?> list(WebRequest request, @RequestParam(required=false) String type, @RequestParam(required=false) String sort,
+                                  @RequestParam(required=false) Integer limit, @RequestParam(required=false) String cursor) {
+        if (request.checkNotModified(EntityTags.quote(storage.catalogTag()))) return null; // 304, listing not even built
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+        if (type == null && sort == null && limit == null && cursor == null) return ok.body(storage.list());
+        String ext = type == null || type.equalsIgnoreCase("all") ? null : type;
+        CatalogSort by = CatalogSort.NAME; boolean desc = false;
+        if (sort != null) {
+            String[] p = sort.split(",");
+            by = CatalogSort.parse(p[0].trim()); desc = p.length > 1 && p[1].trim().equalsIgnoreCase("desc");
+        }
+        if (limit == null && cursor == null) return ok.body(storage.list(ext, by, desc, null, Integer.MAX_VALUE).items);
+        return ok.body(storage.list(ext, by, desc, cursor, Math.min(limit == null ? DEFAULT_PAGE : limit, MAX_PAGE)));
+    }
+
+    /** Incremental sync: only what changed after {@code since}; see {@link ChangeFeed}. */
+    @GetMapping("/changes")
+    public ChangeFeed changes(@RequestParam(defaultValue = "0") long since, @RequestParam(defaultValue = "1000") int limit) {
+        return storage.changesSince(since, Math.max(1, Math.min(limit, 10_000)));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<RemoteFileMetadata> metadata(@PathVariable String id) {
+        RemoteFileMetadata meta = storage.get(id);
+        if (meta == null) return ResponseEntity.notFound().build();
+        // ETag/Last-Modified on a 200 make Spring answer matching conditional GETs with 304
+        return ResponseEntity.ok().eTag(EntityTags.metadata(meta)).lastModified(meta.getModifiedAt())
+                .header(HttpHeaders.CACHE_CONTROL, REVALIDATE).body(meta);
+    }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public RemoteFileMetadata upload(@RequestPart("file") MultipartFile file, @RequestHeader(value="X-Auth", required=false) String token) throws Exception {
-        String user = userFrom(token);
-        RemoteFileMetadata existing = storage.findByName(file.getOriginalFilename());
-        try (InputStream is = file.getInputStream()) {
-            RemoteFileMetadata m;
-            if (existing != null) {
-                // UPSERT by name -> prevents duplicate rows (echo) when client re-uploads same file name
-                m = storage.updateContent(existing.getId(), is, user);
-                events.broadcast("updated:" + m.getId());
-            } else {
-                m = storage.upload(is, file.getOriginalFilename(), user);
-                events.broadcast("uploaded:" + m.getId());
-            }
-            return m;
+    public RemoteFileMetadata upload(@RequestPart("file") MultipartFile file, @RequestHeader(value="X-Auth", required=false) String token,
+                                     @RequestHeader(value="If-Match", required=false) String ifMatch) throws Exception {
+        try (InputStream is = file.getInputStream()) { return upsert(file.getOriginalFilename(), is, userFrom(token), ifMatch); }
+    }
+
+    /**
+     * Same upsert as the multipart upload, but the request body is the file: it streams once into storage
+     * (hashed and counted on the way) instead of being spooled by the multipart resolver first, and is not
+     * subject to the multipart size limits.
+     */
+    @PutMapping(path="/by-name/{name}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public RemoteFileMetadata put(@PathVariable String name, HttpServletRequest req, @RequestHeader(value="X-Auth", required=false) String token,
+                                  @RequestHeader(value="If-Match", required=false) String ifMatch) throws Exception {
+        try (InputStream is = req.getInputStream()) { return upsert(name, is, userFrom(token), ifMatch); }
+    }
+
+    private RemoteFileMetadata upsert(String name, InputStream content, String user, String ifMatch) throws Exception {
+        // UPSERT by name -> prevents duplicate rows (echo) when client re-uploads same file name; atomic in storage
+        EntryLayout.checkName(name);
+        return storage.upsert(name, content, user, expectedVersion(ifMatch, storage.findByName(name)));
+    }
+
+    /**
+     * Maps {@code If-Match} to the version a write must still find: {@code *}, the content ETag or {@code "v<N>"}
+     * of the current entry. Tags that match nothing fail right away; a concurrent write in between is caught
+     * by storage under the entry's lock.
+     */
+    private static Long expectedVersion(String ifMatch, RemoteFileMetadata current) {
+        if (ifMatch == null) return null;
+        if (current == null) throw new VersionConflictException(null, DiskRemoteStorage.ANY_VERSION, 0);
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) return DiskRemoteStorage.ANY_VERSION;
+            if (tag.equals(EntityTags.content(current)) || tag.equals(EntityTags.version(current))) return current.getVersion();
         }
+        throw new VersionConflictException(current.getId(), DiskRemoteStorage.ANY_VERSION, current.getVersion());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) { return ResponseEntity.badRequest().body(e.getMessage()); }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<String> notFound(FileNotFoundException e) { return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); }
+
+    @ExceptionHandler(VersionConflictException.class)
+    public ResponseEntity<String> preconditionFailed(VersionConflictException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
     }
 
     @PutMapping(path="/{id}/content", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public RemoteFileMetadata update(@PathVariable String id, @RequestPart("file") MultipartFile file, @RequestHeader(value="X-Auth", required=false) String token) throws Exception {
+    public RemoteFileMetadata update(@PathVariable String id, @RequestPart("file") MultipartFile file, @RequestHeader(value="X-Auth", required=false) String token,
+                                     @RequestHeader(value="If-Match", required=false) String ifMatch) throws Exception {
         try (InputStream is = file.getInputStream()) {
-            RemoteFileMetadata m = storage.updateContent(id, is, userFrom(token));
-            events.broadcast("updated:" + m.getId());
-            return m;
+            return storage.updateContent(id, is, userFrom(token), expectedVersion(ifMatch, storage.get(id)));
         }
     }
 
+    /**
+     * Block signature of the current content for delta uploads ({@link BlockDelta.Signature#write} format), with
+     * the content ETag to send back as {@code If-Match} with the delta.
+     */
+    @GetMapping(path="/{id}/signature", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public void signature(@PathVariable String id, HttpServletResponse resp) throws Exception {
+        RemoteFileMetadata meta = storage.get(id); // before the signature: the tag may be older than the content, never newer
+        if (meta == null) throw new FileNotFoundException(id);
+        resp.setHeader(HttpHeaders.ETAG, EntityTags.content(meta));
+        resp.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        resp.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        storage.signature(id).write(resp.getOutputStream());
+    }
+
+    /**
+     * Delta upload: the body is a {@link BlockDelta} against the content the signature was taken from, which
+     * {@code If-Match} must name (428 without it, 412 once the file moved on). Only changed bytes travel;
+     * the server rebuilds the file while the body streams in.
+     */
+    @PatchMapping(path="/{id}/content", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> patch(@PathVariable String id, HttpServletRequest req, @RequestHeader(value="X-Auth", required=false) String token,
+                                   @RequestHeader(value="If-Match", required=false) String ifMatch) throws Exception {
+        if (ifMatch == null || ifMatch.trim().equals("*")) return ResponseEntity.status(HttpStatus.PRECONDITION_REQUIRED).body("If-Match with the signature's ETag required");
+        try (InputStream is = req.getInputStream()) {
+            return ResponseEntity.ok(storage.applyDelta(id, is, userFrom(token), expectedVersion(ifMatch, storage.get(id))));
+        }
+    }
+
+    @ExceptionHandler(StreamCorruptedException.class)
+    public ResponseEntity<String> badDelta(StreamCorruptedException e) { return ResponseEntity.badRequest().body(e.getMessage()); }
+
     @DeleteMapping("/{id}")
-    public void delete(@PathVariable String id) throws Exception { storage.delete(id); events.broadcast("deleted:"+id); }
+    public void delete(@PathVariable String id) throws Exception { storage.delete(id); }
+
+    public static class BatchRequest { public String op; public List<String> ids; }
+    public static class BatchResult { public List<RemoteFileMetadata> files = new ArrayList<>(); public List<String> missing = new ArrayList<>(); }
+
+    private static final int MAX_BATCH = 1000;
+
+    /**
+     * Several ids in one round trip: {@code op} {@code metadata} returns their entries, {@code delete} deletes them
+     * (fsyncing once for the batch) and returns what was deleted. Unknown ids come back in {@code missing}.
+     */
+    @PostMapping("/batch")
+    public BatchResult batch(@RequestBody BatchRequest req) throws Exception {
+        Set<String> ids = batchIds(req.ids);
+        BatchResult r = new BatchResult();
+        if ("metadata".equals(req.op)) {
+            for (String id : ids) { RemoteFileMetadata m = storage.get(id); if (m != null) r.files.add(m); }
+        } else if ("delete".equals(req.op)) {
+            r.files = storage.deleteAll(ids);
+        } else throw new IllegalArgumentException("op must be metadata or delete");
+        Set<String> found = new HashSet<>();
+        for (RemoteFileMetadata m : r.files) found.add(m.getId());
+        for (String id : ids) if (!found.contains(id)) r.missing.add(id);
+        return r;
+    }
+
+    /** The given entries as one ZIP, streamed while it is built; 404 if any id is unknown. */
+    @PostMapping("/archive")
+    public void archive(@RequestBody BatchRequest req, HttpServletResponse resp) throws Exception {
+        List<RemoteFileMetadata> entries = new ArrayList<>();
+        for (String id : batchIds(req.ids)) {
+            RemoteFileMetadata m = storage.get(id);
+            if (m == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No such id: " + id);
+            entries.add(m);
+        }
+        resp.setContentType("application/zip");
+        resp.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"");
+        resp.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        long[] sent = new long[1];
+        ZipArchive.write(storage, entries, new FilterOutputStream(resp.getOutputStream()) {
+            @Override public void write(int b) throws IOException { out.write(b); sent[0]++; }
+            @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); sent[0] += len; }
+        });
+        storage.recordDownloaded(sent[0]);
+    }
+
+    private static Set<String> batchIds(List<String> ids) {
+        if (ids == null || ids.isEmpty()) throw new IllegalArgumentException("ids must not be empty");
+        if (ids.size() > MAX_BATCH) throw new IllegalArgumentException("At most " + MAX_BATCH + " ids per request");
+        return new LinkedHashSet<>(ids);
+    }
 
     @GetMapping("/{id}/content")
-    public ResponseEntity<InputStreamResource> download(@PathVariable String id) throws Exception {
-        RemoteFileMetadata meta = storage.list().stream().filter(m -> m.getId().equals(id)).findFirst().orElseThrow(() -> new RuntimeException("Not found"));
-        InputStream is = storage.download(id);
+    public void download(@PathVariable String id, HttpServletRequest req, HttpServletResponse resp, WebRequest web) throws Exception {
+        RemoteFileMetadata meta = storage.get(id);
+        if (meta == null) throw new FileNotFoundException(id);
+        boolean encoded = meta.getEncoding() != null, asStored = encoded && acceptsGzip(req.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String etag = asStored ? EntityTags.encoded(meta) : EntityTags.content(meta);
+        resp.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+        if (encoded) resp.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (web.checkNotModified(etag, meta.getModifiedAt().toEpochMilli())) return;
         String ext = meta.getExtensionLower();
         MediaType mt = "png".equals(ext) ? MediaType.IMAGE_PNG : MediaType.TEXT_PLAIN;
         String fn = URLEncoder.encode(meta.getName(), StandardCharsets.UTF_8.name());
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + fn)
-                .contentType(mt)
-                .body(new InputStreamResource(is));
+        resp.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + fn);
+        byte[] hot = "HEAD".equals(req.getMethod()) ? null : storage.hotContent(meta);
+        if (encoded && !asStored) { // stored gzipped, client can't take it: inflate while streaming, no ranges
+            resp.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+            resp.setContentType(mt.toString());
+            resp.setContentLengthLong(meta.getSize());
+            if (!"HEAD".equals(req.getMethod()))
+                try (InputStream in = hot != null ? new GZIPInputStream(new ByteArrayInputStream(hot)) : storage.download(id)) { storage.recordDownloaded(in.transferTo(resp.getOutputStream())); }
+            return;
+        }
+        if (asStored) resp.setHeader(HttpHeaders.CONTENT_ENCODING, meta.getEncoding()); // stored bytes as is, ranges included
+        storage.recordDownloaded(hot != null ? ranges.write(req, resp, hot, mt, etag)
+                : ranges.write(req, resp, storage.contentPath(id), mt, storage::pin, etag));
+    }
+
+    /** The current version first, then the stored previous ones, newest first. */
+    @GetMapping("/{id}/versions")
+    public List<RemoteFileMetadata> versions(@PathVariable String id) throws Exception { return storage.versions(id); }
+
+    /** Content of one listed version; the bytes of a version never change, so it is cacheable by its tag. */
+    @GetMapping("/{id}/versions/{version}/content")
+    public void downloadVersion(@PathVariable String id, @PathVariable long version, HttpServletResponse resp, WebRequest web) throws Exception {
+        RemoteFileMetadata meta = storage.versions(id).stream().filter(v -> v.getVersion() == version).findFirst()
+                .orElseThrow(() -> new FileNotFoundException(id + " version " + version));
+        if (web.checkNotModified(EntityTags.content(meta))) return;
+        String fn = URLEncoder.encode(meta.getName(), StandardCharsets.UTF_8.name());
+        resp.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + fn);
+        resp.setContentType(("png".equals(meta.getExtensionLower()) ? MediaType.IMAGE_PNG : MediaType.TEXT_PLAIN).toString());
+        resp.setContentLengthLong(meta.getSize());
+        try (InputStream in = storage.downloadVersion(id, version)) { storage.recordDownloaded(in.transferTo(resp.getOutputStream())); }
+    }
+
+    /** Makes an older version's content current again; it becomes a new version and notifies clients like any update. */
+    @PostMapping("/{id}/versions/{version}/restore")
+    public RemoteFileMetadata restore(@PathVariable String id, @PathVariable long version, @RequestHeader(value="X-Auth", required=false) String token) throws Exception {
+        return storage.restoreVersion(id, version, userFrom(token));
+    }
+
+    /**
+     * Small rendition for list views: a PNG thumbnail fitting {@code w}x{@code h} (snapped to the next cached
+     * box size) for images, the first few KB as UTF-8 text for text files; 404 for other types.
+     */
+    @GetMapping("/{id}/preview")
+    public void preview(@PathVariable String id, @RequestParam(defaultValue = "256") int w, @RequestParam(defaultValue = "256") int h,
+                        HttpServletRequest req, HttpServletResponse resp, WebRequest web) throws Exception {
+        RemoteFileMetadata meta = storage.get(id);
+        if (meta == null || !PreviewService.supports(meta)) { resp.sendError(HttpServletResponse.SC_NOT_FOUND); return; }
+        PreviewService.Rendition r;
+        try { r = previews.get(meta, PreviewService.box(w, h)); }
+        catch (FileNotFoundException e) { resp.sendError(HttpServletResponse.SC_NOT_FOUND); return; } // undecodable or deleted meanwhile
+        resp.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+        if (web.checkNotModified(EntityTags.quote(r.tag))) return;
+        ranges.write(req, resp, r.file, MediaType.parseMediaType(r.contentType), null, EntityTags.quote(r.tag));
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] p = coding.trim().split(";");
+            if (!p[0].trim().equalsIgnoreCase("gzip") && !p[0].trim().equals("*")) continue;
+            boolean refused = false;
+            for (int i = 1; i < p.length; i++) {
+                String q = p[i].trim();
+                if (q.startsWith("q=")) try { refused = Double.parseDouble(q.substring(2)) == 0; } catch (NumberFormatException e) { refused = true; }
+            }
+            if (!refused) return true;
+        }
+        return false;
     }
 }
\ No newline at end of file
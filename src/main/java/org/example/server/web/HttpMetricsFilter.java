@@ -0,0 +1,42 @@
+package org.example.server.web;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every API request into {@code drive.http.requests}, tagged with the method, the matched route pattern
+ * (not the raw path, so ids do not explode the series count) and the status. Requests that go async, i.e. event
+ * streams, are left out: they stay open for as long as the client listens.
+ */
+public class HttpMetricsFilter extends OncePerRequestFilter {
+    private final MeterRegistry registry;
+
+    public HttpMetricsFilter(MeterRegistry registry) { this.registry = registry; }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws ServletException, IOException {
+        long t0 = System.nanoTime();
+        int status = 500;
+        try {
+            chain.doFilter(req, resp);
+            status = resp.getStatus();
+        } finally {
+            if (!req.isAsyncStarted()) {
+                Object route = req.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                Timer.builder("drive.http.requests").description("API request latency")
+                        .tag("method", req.getMethod()).tag("uri", route == null ? "UNMATCHED" : route.toString()).tag("status", String.valueOf(status))
+                        .publishPercentileHistogram()
+                        .register(registry).record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.server.web;
+
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server metrics: Prometheus text format by default (what a scraper asks for), JSON with {@code ?format=json}
+ * or {@code Accept: application/json}. Only answers loopback clients unless {@code -Dserver.metrics.remote=true}.
+ * Timers keep bucket counts only (cheaper to record than client-side percentiles), so the JSON percentiles are
+ * the upper bounds of the buckets they fall in, as {@code histogram_quantile} would estimate them.
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+    private final PrometheusMeterRegistry registry;
+    private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+    private final boolean remote = Boolean.getBoolean("server.metrics.remote");
+
+    public MetricsController(PrometheusMeterRegistry registry) { this.registry = registry; }
+
+    @GetMapping
+    public ResponseEntity<?> metrics(HttpServletRequest req, @RequestParam(required = false) String format,
+                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) throws UnknownHostException {
+        if (!remote && !InetAddress.getByName(req.getRemoteAddr()).isLoopbackAddress()) return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        boolean json = format == null ? accept != null && accept.contains(MediaType.APPLICATION_JSON_VALUE) : "json".equalsIgnoreCase(format);
+        if (json) return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(meters());
+        return ResponseEntity.ok().header(HttpHeaders.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004).body(registry.scrape());
+    }
+
+    /** One object per meter: name, tags and its current values; times in milliseconds. */
+    private List<Map<String, Object>> meters() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Meter m : registry.getMeters()) {
+            Map<String, Object> o = new LinkedHashMap<>();
+            o.put("name", m.getId().getName());
+            Map<String, String> tags = new TreeMap<>();
+            for (Tag t : m.getId().getTagsAsIterable()) tags.put(t.getKey(), t.getValue());
+            o.put("tags", tags);
+            o.put("type", m.getId().getType().name().toLowerCase(Locale.ROOT));
+            if (m instanceof Timer) {
+                HistogramSnapshot s = ((Timer) m).takeSnapshot();
+                o.put("count", s.count()); o.put("totalMs", s.total(TimeUnit.MILLISECONDS)); o.put("maxMs", s.max(TimeUnit.MILLISECONDS));
+                for (double p : PERCENTILES) o.put("p" + (int) Math.round(p * 100) + "Ms", percentile(s, p));
+            } else {
+                for (Measurement v : m.measure()) o.put(v.getStatistic().getTagValueRepresentation(), v.getValue());
+            }
+            out.add(o);
+        }
+        out.sort(Comparator.comparing((Map<String, Object> o) -> (String) o.get("name")).thenComparing(o -> o.get("tags").toString()));
+        return out;
+    }
+
+    /** Upper bound of the first bucket holding {@code p} of the samples (bucket counts are cumulative); the max past the last one. */
+    static double percentile(HistogramSnapshot s, double p) {
+        if (s.count() == 0) return 0;
+        double rank = p * s.count();
+        for (CountAtBucket b : s.histogramCounts()) if (b.count() >= rank) return Math.min(b.bucket(TimeUnit.MILLISECONDS), s.max(TimeUnit.MILLISECONDS));
+        return s.max(TimeUnit.MILLISECONDS);
+    }
+}
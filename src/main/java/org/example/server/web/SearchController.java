@@ -0,0 +1,26 @@
+package org.example.server.web;
+
+import org.example.server.search.SearchIndex;
+import org.example.server.search.SearchResults;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/search")
+public class SearchController {
+    private static final int MAX_PAGE = 100, MAX_OFFSET = 10_000;
+
+    private final SearchIndex index;
+
+    public SearchController(SearchIndex index) { this.index = index; }
+
+    /** Full-text search over text entries, best match first; page with {@code offset} and {@code limit}. */
+    @GetMapping
+    public SearchResults search(@RequestParam String q, @RequestParam(defaultValue = "0") int offset, @RequestParam(defaultValue = "20") int limit) {
+        if (offset < 0 || offset > MAX_OFFSET) throw new IllegalArgumentException("offset must be between 0 and " + MAX_OFFSET);
+        return index.search(q, offset, Math.max(1, Math.min(limit, MAX_PAGE)));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) { return ResponseEntity.badRequest().body(e.getMessage()); }
+}
@@ -1,54 +1,76 @@
 package org.example.server.web;
 
+import org.example.server.storage.ChangeFeed;
+import org.example.server.storage.ChangeLog;
+import org.example.server.storage.DiskRemoteStorage;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Pushes catalog changes as {@code changes} events: a JSON {@link ChangeFeed} with the kind, sequence number and
+ * full metadata snapshot of every change, so clients patch their view without fetching the listing. Changes
+ * within {@code -Dserver.sse.batchMillis} (default 50) of the first one go out as one frame, with only the newest
+ * change of each entry in it (its snapshot already shows the earlier ones). The sequence numbers are those of
+ * {@code GET /api/files/changes}, which a client uses to catch up after a {@code resync} event.
+ */
 @RestController
-public class ServerSentEvents {
-    private final Set<SseEmitter> clients = ConcurrentHashMap.newKeySet();
+public class ServerSentEvents implements Closeable {
+    private final EventDispatcher dispatcher;
+    private final DiskRemoteStorage storage;
+    private final long batchMillis = Long.getLong("server.sse.batchMillis", 50);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-batcher"); t.setDaemon(true); return t;
+    });
+    private List<ChangeFeed.Entry> pending = new ArrayList<>(); // guarded by this
+
+    public ServerSentEvents(EventDispatcher dispatcher, DiskRemoteStorage storage) {
+        this.dispatcher = dispatcher; this.storage = storage;
+        storage.changeLog().subscribe(this::onChange);
+    }
 
     @GetMapping(path = "/api/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter events() {
+    public SseEmitter events(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
         // 0L = no timeout; client may still disconnect anytime
         SseEmitter em = new SseEmitter(0L);
-        clients.add(em);
-        em.onCompletion(() -> clients.remove(em));
-        em.onTimeout(() -> clients.remove(em));
-        em.onError((ex) -> clients.remove(em));
-        try {
-            em.send(SseEmitter.event().name("hello").data("connected"));
-        } catch (Exception ignored) {}
+        dispatcher.subscribe(em, lastEventId, "hello", storage.changeLog().publishedSeq());
         return em;
     }
 
-    /**
-     * Broadcast change to all active clients. Swallows failures from stale/completed emitters and
-     * prunes them from the registry to avoid IllegalStateException bubbling into controllers.
-     */
-    public void broadcast(String msg) {
-        List<SseEmitter> dead = new ArrayList<>();
-        for (SseEmitter em : clients) {
-            try {
-                em.send(SseEmitter.event().name("change").data(msg));
-            } catch (IllegalStateException | IOException ex) {
-                // emitter completed/closed; schedule removal
-                dead.add(em);
-            } catch (Exception ex) {
-                // any other send error — also remove
-                dead.add(em);
-            }
-        }
-        if (!dead.isEmpty()) {
-            clients.removeAll(dead);
-            for (SseEmitter em : dead) { try { em.complete(); } catch (Exception ignored) {} }
+    private void onChange(ChangeLog.Change c) {
+        ChangeFeed.Entry e = new ChangeFeed.Entry(c, c.kind == ChangeLog.Kind.DELETED ? null : storage.get(c.id));
+        synchronized (this) {
+            pending.add(e);
+            if (pending.size() > 1) return; // a flush is already scheduled
         }
+        if (batchMillis <= 0) flush(); else flusher.schedule(this::flush, batchMillis, TimeUnit.MILLISECONDS);
     }
-}
\ No newline at end of file
+
+    private void flush() {
+        List<ChangeFeed.Entry> batch;
+        synchronized (this) { batch = pending; pending = new ArrayList<>(); }
+        if (batch.isEmpty()) return;
+        Map<String, ChangeFeed.Entry> newest = new HashMap<>();
+        for (ChangeFeed.Entry e : batch) newest.merge(e.id, e, (a, b) -> a.seq >= b.seq ? a : b);
+        ChangeFeed frame = new ChangeFeed();
+        frame.changes = new ArrayList<>(newest.values());
+        frame.changes.sort((a, b) -> Long.compare(a.seq, b.seq)); // writers publish in commit order, not seq order
+        frame.lastSeq = frame.changes.get(frame.changes.size() - 1).seq;
+        // coalesced above; frames carry different entries, so the dispatcher must not collapse one into the next
+        dispatcher.publish("changes", "changes:" + frame.lastSeq, frame);
+    }
+
+    /** Stops the batching thread; a change after this is not pushed (its listener's rejection is swallowed by the log). */
+    @Override public void close() { flusher.shutdownNow(); }
+}
@@ -0,0 +1,67 @@
+package org.example.server.web;
+
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.storage.UploadSessions;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Resumable uploads for large files: create a session, PUT raw chunks (any order, retried independently),
+ * ask which ranges arrived after a dropped connection, then commit. Commit upserts by name like
+ * {@code POST /api/files}, or replaces {@code fileId} when the session was opened for an existing entry.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadsController {
+    private final UploadSessions sessions;
+    private final DiskRemoteStorage storage;
+
+    public UploadsController(UploadSessions sessions, DiskRemoteStorage storage) {
+        this.sessions = sessions; this.storage = storage;
+    }
+
+    public static class CreateReq { public String name; public long size; public Long chunkSize; public String fileId; }
+
+    @PostMapping
+    public UploadSessions.Status create(@RequestBody CreateReq req, @RequestHeader(value="X-Auth", required=false) String token) throws Exception {
+        if (req.fileId != null && storage.get(req.fileId) == null) throw new FileNotFoundException(req.fileId);
+        return sessions.create(req.name, req.size, req.chunkSize, token == null ? "anonymous" : token, req.fileId);
+    }
+
+    @PutMapping(path="/{sid}/chunks/{n}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> chunk(@PathVariable String sid, @PathVariable int n, HttpServletRequest req) throws Exception {
+        try (InputStream body = req.getInputStream()) { sessions.writeChunk(sid, n, body); }
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/{sid}")
+    public UploadSessions.Status status(@PathVariable String sid) throws Exception { return sessions.status(sid); }
+
+    @PostMapping("/{sid}/commit")
+    public RemoteFileMetadata commit(@PathVariable String sid) throws Exception {
+        UploadSessions.Assembled a = sessions.assemble(sid);
+        RemoteFileMetadata m = a.fileId != null ? storage.replaceContent(a.fileId, a.file, a.sha256, a.user)
+                : storage.importFile(a.file, a.sha256, a.name, a.user);
+        sessions.discard(sid);
+        return m;
+    }
+
+    @DeleteMapping("/{sid}")
+    public void abort(@PathVariable String sid) throws Exception { sessions.discard(sid); }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<String> notFound(FileNotFoundException e) { return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()); }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) { return ResponseEntity.badRequest().body(e.getMessage()); }
+
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<String> conflict(IllegalStateException e) { return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage()); }
+}
@@ -17,7 +17,7 @@ public class CorsFilterConfig {
         cfg.setAllowedOriginPatterns(List.of("http://localhost:*", "http://127.0.0.1:*"));
         cfg.setAllowedMethods(List.of("GET","POST","PUT","PATCH","DELETE","OPTIONS"));
         cfg.setAllowedHeaders(List.of("*"));
-        cfg.setExposedHeaders(List.of("Location","Content-Disposition"));
+        cfg.setExposedHeaders(List.of("Location","Content-Disposition","Content-Range","ETag","Accept-Ranges"));
         cfg.setAllowCredentials(false);
         cfg.setMaxAge(3600L);
 
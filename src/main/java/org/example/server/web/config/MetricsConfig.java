@@ -0,0 +1,40 @@
+package org.example.server.web.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.example.server.web.HttpMetricsFilter;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+/**
+ * One Prometheus registry for the whole server, read by {@code /api/metrics}. Every {@link MeterBinder} bean
+ * (the storage, the event dispatcher) is bound to it, next to a few JVM gauges.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public PrometheusMeterRegistry meterRegistry(List<MeterBinder> binders) {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        new ProcessorMetrics().bindTo(registry);
+        for (MeterBinder b : binders) b.bindTo(registry);
+        return registry;
+    }
+
+    @Bean
+    public FilterRegistrationBean<HttpMetricsFilter> httpMetricsFilter(MeterRegistry registry) {
+        FilterRegistrationBean<HttpMetricsFilter> bean = new FilterRegistrationBean<>(new HttpMetricsFilter(registry));
+        bean.addUrlPatterns("/api/*");
+        return bean;
+    }
+}
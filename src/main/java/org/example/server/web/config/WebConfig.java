@@ -13,7 +13,7 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOriginPatterns("http://localhost:*", "http://127.0.0.1:*")
                 .allowedMethods("GET","POST","PUT","PATCH","DELETE","OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Location","Content-Disposition")
+                .exposedHeaders("Location","Content-Disposition","Content-Range","ETag","Accept-Ranges")
                 .allowCredentials(false)
                 .maxAge(3600);
     }
@@ -0,0 +1,58 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.storage.ZipArchive;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+public class BatchOperationsTest {
+
+    @Test
+    public void delete_all_skips_unknown_ids() throws Exception {
+        Path root = Files.createTempDirectory("batch-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, true, false)) {
+            RemoteFileMetadata a = s.upload(new ByteArrayInputStream(new byte[] { 1 }), "a.txt", "u");
+            RemoteFileMetadata b = s.upload(new ByteArrayInputStream(new byte[] { 2 }), "b.txt", "u");
+            RemoteFileMetadata c = s.upload(new ByteArrayInputStream(new byte[] { 3 }), "c.txt", "u");
+            List<RemoteFileMetadata> gone = s.deleteAll(List.of(b.getId(), "nope", a.getId(), b.getId()));
+            assertEquals(List.of(b.getId(), a.getId()), List.of(gone.get(0).getId(), gone.get(1).getId()));
+            assertEquals(List.of(c.getId()), List.of(s.list().get(0).getId()));
+            assertFalse(Files.exists(root.resolve(a.getId())));
+        }
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, true, false)) {
+            assertEquals(1, s.list().size());
+        }
+    }
+
+    @Test
+    public void archive_round_trips_and_leaves_compressed_formats_undeflated() throws Exception {
+        Path root = Files.createTempDirectory("batch-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            byte[] text = "hello hello hello hello hello hello".repeat(100).getBytes(StandardCharsets.UTF_8);
+            byte[] image = new byte[20_000]; new Random(7).nextBytes(image);
+            RemoteFileMetadata t = s.upload(new ByteArrayInputStream(text), "a.txt", "u");
+            RemoteFileMetadata p = s.upload(new ByteArrayInputStream(image), "b.png", "u");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(2, ZipArchive.write(s, List.of(t, p), out));
+
+            Map<String, byte[]> entries = new HashMap<>();
+            try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                for (ZipEntry e; (e = zin.getNextEntry()) != null; ) entries.put(e.getName(), zin.readAllBytes());
+            }
+            assertArrayEquals(text, entries.get("a.txt"));
+            assertArrayEquals(image, entries.get("b.png"));
+            assertTrue(out.size() < text.length + image.length + 1000); // text deflated, image stored as is
+            assertTrue(out.size() > image.length);
+        }
+    }
+}
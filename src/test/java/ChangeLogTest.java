@@ -0,0 +1,116 @@
+import org.example.server.storage.ChangeFeed;
+import org.example.server.storage.ChangeLog;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.GroupCommitter;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    @Test
+    public void feed_lists_creates_updates_and_tombstones_across_restarts() throws Exception {
+        Path root = Files.createTempDirectory("changes-root");
+        DiskRemoteStorage s = new DiskRemoteStorage(root);
+        RemoteFileMetadata a = s.upsert("a.txt", text("1"), "u", null);
+        RemoteFileMetadata b = s.upsert("b.txt", text("2"), "u", null);
+        s.upsert("a.txt", text("3"), "u", null);
+        s.delete(b.getId());
+        s.close();
+
+        s = new DiskRemoteStorage(root);
+        ChangeFeed all = s.changesSince(0, 100);
+        assertEquals(List.of(ChangeLog.Kind.CREATED, ChangeLog.Kind.CREATED, ChangeLog.Kind.UPDATED, ChangeLog.Kind.DELETED),
+                all.changes.stream().map(e -> e.kind).collect(Collectors.toList()));
+        assertEquals("b.txt", all.changes.get(3).name);
+        assertNull(all.changes.get(3).metadata);
+        assertEquals(2, all.changes.get(2).metadata.getVersion());
+        assertEquals(4, all.lastSeq);
+
+        ChangeFeed tail = s.changesSince(2, 1);
+        assertEquals(3, tail.lastSeq);
+        assertTrue(tail.hasMore);
+        assertEquals(a.getId(), tail.changes.get(0).id);
+        assertTrue(s.changesSince(5, 10).resyncRequired);
+        s.close();
+    }
+
+    @Test
+    public void positions_older_than_the_retained_window_require_a_resync() throws Exception {
+        Path root = Files.createTempDirectory("changes-root");
+        try (ChangeLog log = new ChangeLog(root, 4)) {
+            for (int i = 0; i < 20; i++) log.publish(log.append(ChangeLog.Kind.UPDATED, "id", "n" + i));
+            assertEquals(17, log.firstSeq());
+            assertNull(log.since(15, 10));
+            assertEquals(4, log.since(16, 10).size());
+        }
+        try (ChangeLog log = new ChangeLog(root, 100)) {
+            assertEquals(20, log.lastSeq());
+            assertEquals(16, log.firstSeq()); // what the last compaction left on disk, not more
+            assertNull(log.since(14, 10));
+            assertEquals("n19", log.since(19, 10).get(0).name);
+        }
+    }
+
+    @Test
+    public void readers_see_changes_only_up_to_the_first_unpublished_one() throws Exception {
+        try (ChangeLog log = new ChangeLog(Files.createTempDirectory("changes-root"), 100)) {
+            ChangeLog.Change c1 = log.append(ChangeLog.Kind.CREATED, "a", "a"), c2 = log.append(ChangeLog.Kind.CREATED, "b", "b");
+            ChangeLog.Change c3 = log.append(ChangeLog.Kind.CREATED, "c", "c");
+            log.publish(c2);
+            assertEquals(0, log.publishedSeq());
+            assertTrue(log.since(0, 10).isEmpty());
+            log.publish(c1);
+            assertEquals(2, log.since(0, 10).size());
+            log.abandon(c3); // its write failed: readers move past it
+            assertEquals(3, log.publishedSeq());
+            assertEquals("c", log.since(2, 10).get(0).name);
+        }
+    }
+
+    @Test
+    public void feed_does_not_serve_a_change_whose_commit_is_still_running() throws Exception {
+        Path root = Files.createTempDirectory("changes-root");
+        CountDownLatch inCommit = new CountDownLatch(1), release = new CountDownLatch(1);
+        AtomicBoolean hold = new AtomicBoolean();
+        GroupCommitter slow = new GroupCommitter(GroupCommitter.Mode.OFF, 0, 1) {
+            @Override public void sync(Collection<Path> paths) throws IOException {
+                if (!paths.contains(root.resolve(ChangeLog.FILE)) || !hold.getAndSet(false)) return;
+                inCommit.countDown(); // the change is appended, its fsync not done, the index not updated
+                try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+            }
+        };
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false, slow)) {
+            s.upsert("a.txt", text("1"), "u", null);
+            hold.set(true);
+            Future<RemoteFileMetadata> b = writer.submit(() -> s.upload(text("2"), "b.txt", "u"));
+            inCommit.await();
+            assertEquals(2, s.changeLog().lastSeq());
+            ChangeFeed during = s.changesSince(1, 10);
+            assertTrue(during.changes.isEmpty());
+            assertEquals(1, during.lastSeq);
+            assertFalse(during.hasMore);
+            release.countDown();
+            RemoteFileMetadata created = b.get(10, TimeUnit.SECONDS);
+            ChangeFeed after = s.changesSince(during.lastSeq, 10);
+            assertEquals(1, after.changes.size());
+            assertEquals(created.getId(), after.changes.get(0).metadata.getId());
+        } finally { release.countDown(); writer.shutdownNow(); }
+    }
+}
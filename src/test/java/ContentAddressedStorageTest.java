@@ -0,0 +1,79 @@
+import org.example.server.storage.BlobStore;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ContentAddressedStorageTest {
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    private static long blobCount(Path root) throws Exception {
+        try (Stream<Path> s = Files.walk(root.resolve(BlobStore.DIR))) {
+            return s.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    public void duplicate_content_is_stored_once_and_collected_after_last_delete() throws Exception {
+        Path root = Files.createTempDirectory("cas-root");
+        DiskRemoteStorage s = new DiskRemoteStorage(root, false, true);
+        RemoteFileMetadata a = s.upload(text("same bytes"), "a.html", "u");
+        RemoteFileMetadata b = s.upload(text("same bytes"), "b.html", "u");
+        assertEquals(a.getSha256(), b.getSha256());
+        assertEquals(1, blobCount(root));
+
+        s.delete(a.getId());
+        assertEquals(1, blobCount(root));
+        try (InputStream is = s.download(b.getId())) { assertEquals("same bytes", new String(is.readAllBytes(), StandardCharsets.UTF_8)); }
+
+        s.updateContent(b.getId(), text("other"), "u");
+        assertEquals(1, blobCount(root));
+        s.delete(b.getId());
+        assertEquals(0, blobCount(root));
+    }
+
+    @Test
+    public void switching_modes_migrates_content() throws Exception {
+        Path root = Files.createTempDirectory("cas-root");
+        RemoteFileMetadata m = new DiskRemoteStorage(root, false, false).upload(text("x"), "x.js", "u");
+
+        DiskRemoteStorage cas = new DiskRemoteStorage(root, false, true);
+        assertFalse(Files.exists(root.resolve(m.getId()).resolve("x.js")));
+        assertEquals(1, blobCount(root));
+
+        DiskRemoteStorage plain = new DiskRemoteStorage(root, false, false);
+        assertFalse(Files.exists(root.resolve(BlobStore.DIR)));
+        try (InputStream is = plain.download(m.getId())) { assertEquals("x", new String(is.readAllBytes(), StandardCharsets.UTF_8)); }
+        assertNotNull(cas.get(m.getId()).getSha256());
+    }
+
+    @Test
+    public void a_pinned_blob_stays_readable_after_its_entry_is_gone_until_swept() throws Exception {
+        Path root = Files.createTempDirectory("cas-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, true)) {
+            RemoteFileMetadata m = s.upload(text("served later"), "a.txt", "u");
+            Path pinned = s.pin(s.contentPath(m.getId()));
+            s.delete(m.getId());
+            assertEquals(0, blobCount(root));
+            assertEquals("served later", Files.readString(pinned));
+        }
+        System.setProperty("server.sendfile.pinSeconds", "0");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, true)) {
+            RemoteFileMetadata m = s.upload(text("x"), "b.txt", "u");
+            Path first = s.pin(s.contentPath(m.getId()));
+            Thread.sleep(5);
+            Path second = s.pin(s.contentPath(m.getId()));
+            assertFalse("swept", Files.exists(first));
+            assertTrue(Files.exists(second));
+        } finally { System.clearProperty("server.sendfile.pinSeconds"); }
+    }
+}
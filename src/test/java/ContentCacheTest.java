@@ -0,0 +1,173 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.server.storage.ContentCache;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ContentCacheTest {
+
+    @After public void reset() { System.clearProperty("server.cache.bytes"); System.clearProperty("server.compress"); }
+
+    @Test
+    public void concurrent_misses_share_one_load() throws Exception {
+        ContentCache c = new ContentCache(1 << 20, 1 << 16);
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1), release = new CountDownLatch(1);
+        ContentCache.Loader slow = () -> { reads.incrementAndGet(); loading.countDown(); await(release); return new byte[] { 7 }; };
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> fs = new ArrayList<>();
+            fs.add(pool.submit(() -> c.get("a", 1, slow)));
+            loading.await();
+            for (int i = 0; i < 7; i++) fs.add(pool.submit(() -> c.get("a", 1, slow)));
+            while (c.collapsed() < 7) Thread.sleep(1);
+            release.countDown();
+            for (Future<byte[]> f : fs) assertArrayEquals(new byte[] { 7 }, f.get());
+        } finally { pool.shutdownNow(); }
+        assertEquals(1, reads.get());
+        assertEquals(1, c.loads());
+        assertArrayEquals(new byte[] { 7 }, c.get("a", 1, () -> { throw new AssertionError("hit expected"); }));
+        assertEquals(1, c.hits());
+    }
+
+    @Test
+    public void failed_load_reaches_waiters_and_is_not_cached() throws Exception {
+        ContentCache c = new ContentCache(1 << 20, 1 << 16);
+        try { c.get("a", 1, () -> { throw new IOException("disk"); }); fail(); } catch (IOException expected) {}
+        assertArrayEquals(new byte[] { 1 }, c.get("a", 1, () -> new byte[] { 1 }));
+        assertNull(c.get("b", 1, () -> null));
+        assertEquals(1, c.entries());
+    }
+
+    @Test
+    public void other_versions_miss_and_invalidate_drops() throws Exception {
+        ContentCache c = new ContentCache(1 << 20, 1 << 16);
+        c.get("a", 1, () -> new byte[] { 1 });
+        assertNull(c.peek("a", 2));
+        assertArrayEquals(new byte[] { 2 }, c.get("a", 2, () -> new byte[] { 2 }));
+        assertNull(c.peek("a", 1));
+        c.invalidate("a");
+        assertNull(c.peek("a", 2));
+        assertEquals(0, c.weight());
+    }
+
+    @Test
+    public void a_load_that_finishes_after_invalidate_is_returned_but_not_cached() throws Exception {
+        ContentCache c = new ContentCache(1 << 20, 1 << 16);
+        assertArrayEquals(new byte[] { 1 }, c.get("a", 1, () -> { c.invalidate("a"); return new byte[] { 1 }; })); // read the old file, then it was replaced
+        assertNull(c.peek("a", 1));
+        assertEquals(0, c.entries());
+        c.get("a", 1, () -> new byte[] { 1 });
+        assertArrayEquals(new byte[] { 1 }, c.peek("a", 1));
+    }
+
+    @Test
+    public void stays_within_budget_and_keeps_the_popular_against_a_scan() throws Exception {
+        int size = 1000;
+        ContentCache c = new ContentCache(100 * size, size);
+        for (int round = 0; round < 20; round++)
+            for (int i = 0; i < 50; i++) c.get("hot" + i, 1, () -> new byte[size]);
+        for (int i = 0; i < 5000; i++) {
+            c.get("scan" + i, 1, () -> new byte[size]);
+            assertTrue(c.weight() <= 100 * size);
+        }
+        int kept = 0;
+        for (int i = 0; i < 50; i++) if (c.peek("hot" + i, 1) != null) kept++;
+        assertTrue("a one-off scan must not flush the hot set, kept " + kept, kept >= 45);
+        assertTrue(c.rejections() > 4000);
+        assertNull(c.get("big", 1, () -> null));
+        c.get("toobig", 1, () -> new byte[size + 1]);
+        assertNull(c.peek("toobig", 1));
+    }
+
+    @Test(timeout = 30_000)
+    public void hits_from_many_threads_are_counted_and_keep_the_budget() throws Exception {
+        int size = 1000;
+        ContentCache c = new ContentCache(50 * size, size);
+        for (int i = 0; i < 20; i++) { int k = i; c.get("hot" + k, 1, () -> new byte[] { (byte) k }); }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> fs = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                fs.add(pool.submit(() -> {
+                    int wrong = 0;
+                    for (int i = 0; i < 20_000; i++) {
+                        int k = (i + seed) % 20;
+                        byte[] b = c.get("hot" + k, 1, () -> new byte[] { (byte) k });
+                        if (b[0] != k) wrong++;
+                        if (i % 100 == 0) c.get("cold" + seed + "-" + i, 1, () -> new byte[size]);
+                        assertTrue(c.weight() <= 50 * size);
+                    }
+                    return wrong;
+                }));
+            }
+            for (Future<Integer> f : fs) assertEquals(0, (int) f.get());
+        } finally { pool.shutdownNow(); }
+        assertEquals(8 * 20_000 + 8 * 200 + 20, c.hits() + c.misses());
+        int kept = 0;
+        for (int i = 0; i < 20; i++) if (c.peek("hot" + i, 1) != null) kept++;
+        assertTrue("the hot set survives the cold loads, kept " + kept, kept >= 18);
+    }
+
+    @Test
+    public void storage_serves_hot_content_and_drops_it_on_update_and_delete() throws Exception {
+        System.setProperty("server.compress", "gzip");
+        Path root = Files.createTempDirectory("cache-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            MeterRegistry r = new SimpleMeterRegistry();
+            s.bindTo(r);
+            RemoteFileMetadata m = s.upload(text("<p>one</p>".repeat(500)), "a.html", "u");
+            assertEquals("gzip", m.getEncoding());
+            byte[] stored = s.hotContent(m);
+            assertArrayEquals(Files.readAllBytes(s.contentPath(m.getId())), stored);
+            assertSame(stored, s.hotContent(m));
+            assertEquals("<p>one</p>".repeat(500), read(s.download(m.getId())));
+
+            RemoteFileMetadata v2 = s.updateContent(m.getId(), text("<p>two</p>"), "e");
+            assertNull("an outdated version is not loaded", s.hotContent(m));
+            assertEquals("<p>two</p>", read(s.download(m.getId())));
+            assertNotNull(s.hotContent(v2));
+            s.delete(m.getId());
+            assertNull(s.hotContent(v2));
+
+            assertEquals(3, r.get("drive.cache.requests").tag("result", "hit").functionCounter().count(), 0);
+            assertEquals(2, r.get("drive.cache.loads").functionCounter().count(), 0);
+            assertEquals(0, r.get("drive.cache.entries").gauge().value(), 0);
+        }
+    }
+
+    @Test
+    public void zero_budget_turns_the_cache_off() throws Exception {
+        System.setProperty("server.cache.bytes", "0");
+        Path root = Files.createTempDirectory("cache-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            RemoteFileMetadata m = s.upload(text("x"), "a.txt", "u");
+            assertNull(s.hotContent(m));
+            assertEquals("x", read(s.download(m.getId())));
+        }
+    }
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    private static String read(InputStream in) throws Exception { try (in) { return new String(in.readAllBytes(), StandardCharsets.UTF_8); } }
+
+    private static void await(CountDownLatch l) {
+        try { l.await(); } catch (InterruptedException e) { throw new RuntimeException(e); }
+    }
+}
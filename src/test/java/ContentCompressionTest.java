@@ -0,0 +1,57 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContentCompressionTest {
+
+    @Before public void enable() { System.setProperty("server.compress", "gzip"); }
+    @After public void disable() { System.clearProperty("server.compress"); }
+
+    private static byte[] html() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) sb.append("<div class=\"row\">item ").append(i % 17).append("</div>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] download(DiskRemoteStorage s, String id) throws Exception {
+        try (InputStream is = s.download(id)) { return is.readAllBytes(); }
+    }
+
+    @Test
+    public void text_is_gzipped_at_rest_and_incompressible_content_is_not() throws Exception {
+        Path root = Files.createTempDirectory("gzip-root");
+        DiskRemoteStorage s = new DiskRemoteStorage(root, false, false);
+        byte[] page = html(), noise = new byte[8192]; new Random(1).nextBytes(noise);
+        RemoteFileMetadata a = s.upload(new ByteArrayInputStream(page), "page.html", "u");
+        RemoteFileMetadata b = s.upload(new ByteArrayInputStream(noise), "noise.txt", "u");
+        RemoteFileMetadata c = s.upload(new ByteArrayInputStream(page), "page.png", "u");
+
+        assertEquals("gzip", a.getEncoding());
+        assertEquals(page.length, a.getSize());
+        assertTrue(Files.size(s.contentPath(a.getId())) < page.length / 4);
+        assertNull(b.getEncoding());
+        assertNull(c.getEncoding()); // already-compressed types are never tried
+        assertArrayEquals(page, download(s, a.getId()));
+        assertArrayEquals(noise, download(s, b.getId()));
+        s.close();
+
+        // switching to content-addressed blobs keeps the gzip form and the logical hash
+        s = new DiskRemoteStorage(root, false, true);
+        assertEquals("gzip", s.get(a.getId()).getEncoding());
+        assertEquals(a.getSha256(), s.get(a.getId()).getSha256());
+        assertArrayEquals(page, download(s, a.getId()));
+        assertArrayEquals(page, download(s, c.getId())); // same hash, stored raw: a separate blob
+        s.close();
+    }
+}
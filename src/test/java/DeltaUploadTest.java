@@ -0,0 +1,107 @@
+import org.example.common.storage.BlockDelta;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.storage.VersionConflictException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeltaUploadTest {
+
+    @After public void reset() { System.clearProperty("server.compress"); }
+
+    private static byte[] content(int seed, int size) {
+        StringBuilder sb = new StringBuilder(size + 64);
+        Random r = new Random(seed);
+        while (sb.length() < size) sb.append("<p id=\"").append(r.nextInt()).append("\">").append(Long.toHexString(r.nextLong())).append("</p>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** {@code base} with a few bytes changed in the middle and a line inserted near the start. */
+    private static byte[] edited(byte[] base) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(base, 0, 1000);
+        out.writeBytes("<p>inserted</p>\n".getBytes(StandardCharsets.UTF_8));
+        out.write(base, 1000, base.length - 1000);
+        byte[] b = out.toByteArray();
+        b[b.length / 2] = 'X';
+        return b;
+    }
+
+    private static byte[] read(DiskRemoteStorage s, String id) throws Exception { try (InputStream in = s.download(id)) { return in.readAllBytes(); } }
+
+    private static byte[] delta(BlockDelta.Signature sig, byte[] target) throws Exception {
+        ByteArrayOutputStream d = new ByteArrayOutputStream();
+        BlockDelta.delta(sig, new ByteArrayInputStream(target), d);
+        return d.toByteArray();
+    }
+
+    private static void roundTrip(boolean gzip) throws Exception {
+        if (gzip) System.setProperty("server.compress", "gzip");
+        Path root = Files.createTempDirectory("delta-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            byte[] v1 = content(1, 1 << 20), v2 = edited(v1);
+            RemoteFileMetadata m = s.upload(new ByteArrayInputStream(v1), "big.html", "u");
+            assertEquals(gzip ? "gzip" : null, m.getEncoding());
+
+            byte[] d = delta(s.signature(m.getId()), v2);
+            assertTrue("small edits cost bytes, not megabytes: " + d.length, d.length < 16 * 1024);
+            RemoteFileMetadata updated = s.applyDelta(m.getId(), new ByteArrayInputStream(d), "e", m.getVersion());
+            assertEquals(2, updated.getVersion());
+            assertEquals(v2.length, updated.getSize());
+            assertArrayEquals(v2, read(s, m.getId()));
+            assertArrayEquals(v1, s.downloadVersion(m.getId(), 1).readAllBytes());
+
+            // the same delta again: made against version 1, the entry is at 2 now
+            try { s.applyDelta(m.getId(), new ByteArrayInputStream(d), "e", 1L); fail(); } catch (VersionConflictException expected) {}
+            assertArrayEquals(v2, read(s, m.getId()));
+        }
+    }
+
+    @Test
+    public void small_edit_travels_as_small_delta() throws Exception { roundTrip(false); }
+
+    @Test
+    public void delta_against_gzipped_content() throws Exception { roundTrip(true); }
+
+    @Test
+    public void delta_not_fitting_the_base_changes_nothing() throws Exception {
+        Path root = Files.createTempDirectory("delta-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            byte[] v1 = content(2, 10_000);
+            RemoteFileMetadata m = s.upload(new ByteArrayInputStream(v1), "a.html", "u");
+            ByteArrayOutputStream bad = new ByteArrayOutputStream();
+            DataOutputStream o = new DataOutputStream(bad);
+            o.writeInt(0x42444c31); o.writeInt(2048); o.writeByte(1); o.writeLong(9_000); o.writeInt(4096); o.writeByte(0); o.writeLong(4096);
+            try { s.applyDelta(m.getId(), new ByteArrayInputStream(bad.toByteArray()), "e", null); fail(); } catch (StreamCorruptedException expected) {}
+            assertEquals(1, s.get(m.getId()).getVersion());
+            assertArrayEquals(v1, read(s, m.getId()));
+        }
+    }
+
+    @Test
+    public void desktop_client_sends_delta() throws Exception {
+        Path root = Files.createTempDirectory("delta-root");
+        org.example.desktop.impl.DiskRemoteStorage client = new org.example.desktop.impl.DiskRemoteStorage(root, false);
+        client.login("u", "p");
+        byte[] v1 = content(3, 200_000), v2 = edited(v1);
+        Path local = Files.createTempFile("page", ".html");
+        Files.write(local, v1);
+        org.example.desktop.model.RemoteFileMetadata m = client.upload(local, "u");
+        Files.write(local, v2);
+        org.example.desktop.model.RemoteFileMetadata updated = client.updateContentDelta(m.getId(), local, "e");
+        assertEquals(v2.length, updated.getSize());
+        try (InputStream in = client.download(m.getId())) { assertArrayEquals(v2, in.readAllBytes()); }
+    }
+}
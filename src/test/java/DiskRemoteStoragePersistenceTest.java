@@ -2,10 +2,15 @@ import org.example.desktop.impl.DiskRemoteStorage;
 import org.example.desktop.model.RemoteFileMetadata;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -28,4 +33,34 @@ public class DiskRemoteStoragePersistenceTest {
         List<RemoteFileMetadata> list = s2.listFiles();
         assertTrue(list.stream().anyMatch(m -> m.getId().equals(uploaded.getId())));
     }
+
+    @Test
+    public void reads_and_updates_server_content_keeping_its_metadata() throws Exception {
+        Path root = Files.createTempDirectory("shared-root");
+        String v1 = "<p>one</p>".repeat(500), v2 = "<p>two</p>".repeat(500);
+        String id;
+        System.setProperty("server.compress", "gzip");
+        try (org.example.server.storage.DiskRemoteStorage server = new org.example.server.storage.DiskRemoteStorage(root, false, true)) {
+            org.example.server.storage.RemoteFileMetadata m = server.upload(new ByteArrayInputStream(v1.getBytes(StandardCharsets.UTF_8)), "a.html", "u");
+            assertEquals("gzip", m.getEncoding());
+            id = m.getId();
+        } finally { System.clearProperty("server.compress"); }
+
+        try (DiskRemoteStorage desktop = new DiskRemoteStorage(root)) {
+            desktop.login("u", "p");
+            try (InputStream in = desktop.download(id)) { assertEquals(v1, new String(in.readAllBytes(), StandardCharsets.UTF_8)); }
+            Path edit = Files.createTempFile("edit", ".html");
+            Files.writeString(edit, v2);
+            desktop.updateContent(id, edit, "e");
+            try (InputStream in = desktop.download(id)) { assertEquals(v2, new String(in.readAllBytes(), StandardCharsets.UTF_8)); }
+        }
+
+        try (org.example.server.storage.DiskRemoteStorage server = new org.example.server.storage.DiskRemoteStorage(root, false, true)) {
+            org.example.server.storage.RemoteFileMetadata m = server.get(id);
+            assertEquals(2, m.getVersion());
+            assertEquals("e", m.getEditedBy());
+            assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(v2.getBytes(StandardCharsets.UTF_8))), m.getSha256());
+            try (InputStream in = server.download(id)) { assertEquals(v2, new String(in.readAllBytes(), StandardCharsets.UTF_8)); }
+        }
+    }
 }
@@ -0,0 +1,208 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.server.storage.ChangeFeed;
+import org.example.server.storage.ChangeLog;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.web.EventDispatcher;
+import org.example.server.web.ServerSentEvents;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class EventDispatcherTest {
+
+    /** Records what would go on the wire; each send takes a permit first, so a test can hold it like a stalled socket. */
+    private static final class Recorder extends SseEmitter {
+        final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        final BlockingQueue<ChangeFeed> feeds = new LinkedBlockingQueue<>();
+        final Semaphore permits;
+        final CountDownLatch completed = new CountDownLatch(1);
+        Recorder(int permits) { super(0L); this.permits = new Semaphore(permits); }
+
+        @Override public synchronized void send(SseEventBuilder event) throws IOException { // locks like the real emitter
+            try { permits.acquire(); } catch (InterruptedException e) { throw new InterruptedIOException(); }
+            StringBuilder sb = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType d : event.build()) {
+                if (d.getData() instanceof ChangeFeed) feeds.add((ChangeFeed) d.getData());
+                sb.append(d.getData());
+            }
+            sent.add(sb.toString());
+        }
+
+        @Override public synchronized void complete() { completed.countDown(); }
+
+        void stalled() throws InterruptedException { while (!permits.hasQueuedThreads()) Thread.sleep(1); }
+
+        void release() { permits.release(UNLIMITED); }
+
+        /** The next event's name and data, e.g. {@code file:v1}; comments come back as {@code :text}. */
+        String next() throws InterruptedException {
+            String raw = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no event sent", raw);
+            String name = "", data = "";
+            for (String line : raw.split("\n")) {
+                if (line.startsWith("event:")) name = line.substring(6);
+                else if (line.startsWith("data:")) data = line.substring(5);
+                else if (line.startsWith(":")) data = line.substring(1);
+            }
+            return name + ":" + data;
+        }
+    }
+
+    private static final int UNLIMITED = 1_000_000;
+
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    private Recorder recorder(int permits) { Recorder r = new Recorder(permits); recorders.add(r); return r; }
+
+    @After public void reset() {
+        for (Recorder r : recorders) r.release();
+        for (String p : new String[] { "server.sse.queue", "server.sse.maxOverflows", "server.sse.sendTimeoutMillis", "server.sse.batchMillis" }) System.clearProperty(p);
+    }
+
+    private static double count(MeterRegistry r, String name) { return r.get(name).counter().count(); }
+
+    @Test(timeout = 20_000)
+    public void every_subscriber_gets_every_event_in_order() throws Exception {
+        EventDispatcher d = new EventDispatcher();
+        try {
+            List<Recorder> rs = List.of(recorder(UNLIMITED), recorder(UNLIMITED), recorder(UNLIMITED));
+            for (Recorder r : rs) d.subscribe(r, null, "hello", 0);
+            for (int i = 0; i < 5; i++) d.publish("file", "id" + i, "v" + i);
+            for (Recorder r : rs) {
+                assertEquals("hello:0", r.next());
+                for (int i = 0; i < 5; i++) assertEquals("file:v" + i, r.next());
+            }
+        } finally { d.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void queued_events_for_the_same_key_collapse_into_the_newest() throws Exception {
+        EventDispatcher d = new EventDispatcher();
+        try {
+            Recorder r = recorder(0);
+            d.subscribe(r, null, "hello", 0);
+            r.stalled();
+            d.publish("file", "x", "1"); d.publish("file", "y", "2"); d.publish("file", "x", "3");
+            r.release();
+            assertEquals("hello:0", r.next());
+            assertEquals("file:2", r.next());
+            assertEquals("file:3", r.next());
+            assertNull(r.sent.poll(100, TimeUnit.MILLISECONDS));
+        } finally { d.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void a_full_queue_drops_the_oldest_and_tells_the_client_to_resync() throws Exception {
+        System.setProperty("server.sse.queue", "4");
+        EventDispatcher d = new EventDispatcher();
+        MeterRegistry m = new SimpleMeterRegistry();
+        d.bindTo(m);
+        try {
+            Recorder r = recorder(0);
+            d.subscribe(r, null, "hello", 0);
+            r.stalled();
+            for (int i = 0; i < 10; i++) d.publish("file", "id" + i, "v" + i);
+            r.release();
+            assertEquals("hello:0", r.next());
+            assertEquals("resync:events were dropped", r.next());
+            for (int i = 6; i < 10; i++) assertEquals("file:v" + i, r.next());
+            assertEquals(6, count(m, "drive.sse.dropped"), 0);
+            assertEquals(1, d.subscriberCount());
+        } finally { d.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void a_client_that_keeps_overflowing_is_disconnected_without_blocking_publishers() throws Exception {
+        System.setProperty("server.sse.queue", "2");
+        System.setProperty("server.sse.maxOverflows", "1");
+        EventDispatcher d = new EventDispatcher();
+        MeterRegistry m = new SimpleMeterRegistry();
+        d.bindTo(m);
+        try {
+            Recorder slow = recorder(0);
+            d.subscribe(slow, null, "hello", 0);
+            slow.stalled();
+            for (int i = 0; i < 3; i++) d.publish("file", "a" + i, "a" + i); // first overflow: dropped, resync owed
+            slow.permits.release(); // hello goes out, then the sender stalls again on resync
+            assertEquals("hello:0", slow.next());
+            slow.stalled();
+            for (int i = 0; i < 3; i++) d.publish("file", "b" + i, "b" + i); // overflows again: out
+            assertEquals(0, d.subscriberCount());
+            assertEquals(1, count(m, "drive.sse.disconnects"), 0);
+            assertEquals(1, slow.completed.getCount()); // completing waits for the stalled send, off the publishing thread
+            slow.release();
+            assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+        } finally { d.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void a_send_that_hangs_is_cut_off_and_others_keep_receiving() throws Exception {
+        System.setProperty("server.sse.sendTimeoutMillis", "200");
+        EventDispatcher d = new EventDispatcher();
+        MeterRegistry m = new SimpleMeterRegistry();
+        d.bindTo(m);
+        try {
+            Recorder hung = recorder(0), fine = recorder(UNLIMITED);
+            d.subscribe(hung, null, "hello", 0);
+            d.subscribe(fine, null, "hello", 0);
+            hung.stalled();
+            while (d.subscriberCount() > 1) Thread.sleep(10);
+            assertEquals(1, count(m, "drive.sse.timeouts"), 0);
+            d.publish("file", "x", "after");
+            assertEquals("hello:0", fine.next());
+            assertEquals("file:after", fine.next());
+            hung.release();
+            assertTrue(hung.completed.await(5, TimeUnit.SECONDS));
+        } finally { d.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void changes_of_one_batch_go_out_as_one_frame_with_the_newest_change_per_entry() throws Exception {
+        System.setProperty("server.sse.batchMillis", "500");
+        EventDispatcher d = new EventDispatcher();
+        try (DiskRemoteStorage s = new DiskRemoteStorage(Files.createTempDirectory("sse-root"), false, false)) {
+            ServerSentEvents sse = new ServerSentEvents(d, s);
+            try {
+                Recorder r = recorder(UNLIMITED);
+                d.subscribe(r, null, "hello", 0);
+                assertEquals("hello:0", r.next());
+
+                RemoteFileMetadata a = s.upload(text("1"), "a.txt", "u");
+                s.updateContent(a.getId(), text("22"), "e");
+                RemoteFileMetadata b = s.upload(text("3"), "b.txt", "u");
+                ChangeFeed frame = r.feeds.poll(5, TimeUnit.SECONDS);
+                assertNotNull(frame);
+                assertEquals(2, frame.changes.size());
+                assertEquals(a.getId(), frame.changes.get(0).id);
+                assertEquals(ChangeLog.Kind.UPDATED, frame.changes.get(0).kind);
+                assertEquals(2, frame.changes.get(0).metadata.getSize());
+                assertEquals(b.getId(), frame.changes.get(1).id);
+                assertEquals(frame.changes.get(1).seq, frame.lastSeq);
+
+                s.delete(a.getId());
+                ChangeFeed next = r.feeds.poll(5, TimeUnit.SECONDS);
+                assertNotNull("a later batch is a frame of its own", next);
+                assertEquals(1, next.changes.size());
+                assertEquals(ChangeLog.Kind.DELETED, next.changes.get(0).kind);
+                assertTrue(next.lastSeq > frame.lastSeq);
+            } finally { sse.close(); }
+        } finally { d.close(); }
+    }
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+}
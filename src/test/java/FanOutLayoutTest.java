@@ -0,0 +1,85 @@
+import org.example.common.storage.EntryLayout;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.GroupCommitter;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class FanOutLayoutTest {
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    private static String read(DiskRemoteStorage s, String id) throws Exception {
+        try (InputStream in = s.download(id)) { return new String(in.readAllBytes(), StandardCharsets.UTF_8); }
+    }
+
+    private static DiskRemoteStorage open(Path root, boolean journaled, boolean fanOut) throws Exception {
+        return new DiskRemoteStorage(root, journaled, false, GroupCommitter.fromSystemProperties(), fanOut);
+    }
+
+    private static void migrates(boolean journaled) throws Exception {
+        Path root = Files.createTempDirectory("fanout-root");
+        List<RemoteFileMetadata> files = new ArrayList<>();
+        try (DiskRemoteStorage flat = open(root, journaled, false)) {
+            for (int i = 0; i < 50; i++) files.add(flat.upload(text("v" + i), "f" + i + ".js", "u"));
+        }
+        try (DiskRemoteStorage s = open(root, journaled, true)) {
+            // served while the migration runs
+            s.updateContent(files.get(0).getId(), text("edited"), "v");
+            s.delete(files.get(1).getId());
+            RemoteFileMetadata added = s.upload(text("new"), "new.js", "u");
+            assertTrue(Files.isDirectory(EntryLayout.fanOut(root, added.getId())));
+            assertEquals("v7", read(s, files.get(7).getId()));
+
+            assertTrue(s.awaitLayoutMigration() >= 47);
+            for (RemoteFileMetadata m : files) assertFalse(Files.exists(EntryLayout.flat(root, m.getId())));
+            assertEquals("edited", read(s, files.get(0).getId()));
+            assertEquals(50, s.list().size());
+        }
+        try (DiskRemoteStorage s = open(root, journaled, true)) {
+            assertEquals(0, s.awaitLayoutMigration());
+            assertEquals(50, s.list().size());
+            assertNull(s.get(files.get(1).getId()));
+            assertEquals("v9", read(s, files.get(9).getId()));
+        }
+        try (DiskRemoteStorage back = open(root, journaled, false)) {
+            assertEquals(50, back.list().size());
+            assertEquals("edited", read(back, files.get(0).getId()));
+            assertTrue(Files.isDirectory(EntryLayout.flat(root, files.get(2).getId())));
+            try (Stream<Path> top = Files.list(root)) { assertTrue(top.noneMatch(p -> p.getFileName().toString().length() == 2)); }
+        }
+    }
+
+    @Test
+    public void migrates_to_fan_out_online_and_back() throws Exception { migrates(false); }
+
+    @Test
+    public void migrates_journaled_catalog() throws Exception { migrates(true); }
+
+    @Test
+    public void interrupted_migration_is_redone() throws Exception {
+        Path root = Files.createTempDirectory("fanout-root");
+        RemoteFileMetadata m;
+        try (DiskRemoteStorage flat = open(root, false, false)) { m = flat.upload(text("keep"), "a.js", "u"); }
+        // a crash left a half-assembled copy behind
+        Path staging = EntryLayout.fanOut(root, m.getId()).resolveSibling(m.getId() + ".migrating");
+        Files.createDirectories(staging);
+        Files.write(staging.resolve("a.js"), "torn".getBytes(StandardCharsets.UTF_8));
+
+        try (DiskRemoteStorage s = open(root, false, true)) {
+            assertEquals(1, s.awaitLayoutMigration());
+            assertFalse(Files.exists(staging));
+            assertEquals("keep", read(s, m.getId()));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.PreviewService;
+import org.example.server.web.FileRangeWriter;
+import org.example.server.web.FilesController;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class FilesControllerTest {
+    private DiskRemoteStorage storage;
+    private PreviewService previews;
+    private MockMvc mvc;
+
+    @Before public void setUp() throws Exception {
+        storage = new DiskRemoteStorage(Files.createTempDirectory("web-root"), false, false);
+        previews = new PreviewService(storage);
+        mvc = MockMvcBuilders.standaloneSetup(new FilesController(storage, new FileRangeWriter(), previews)).build();
+    }
+
+    @After public void tearDown() throws Exception { previews.close(); storage.close(); System.clearProperty("server.cache.bytes"); }
+
+    private static final String DIGITS = "0123456789".repeat(100);
+
+    private String uploadDigits() throws Exception {
+        return storage.upload(new ByteArrayInputStream(DIGITS.getBytes(StandardCharsets.UTF_8)), "digits.txt", "u").getId();
+    }
+
+    private void putByName(String name, int status) throws Exception {
+        mvc.perform(put("/api/files/by-name/{name}", name).contentType(MediaType.APPLICATION_OCTET_STREAM).content("x".getBytes(StandardCharsets.UTF_8)))
+                .andExpect(status().is(status));
+    }
+
+    @Test
+    public void put_by_name_stores_a_plain_name() throws Exception {
+        putByName("notes.txt", 200);
+        assertNotNull(storage.findByName("notes.txt"));
+    }
+
+    @Test
+    public void put_by_name_rejects_dot_segments() throws Exception {
+        putByName(".", 400);
+        putByName("..", 400);
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void put_by_name_rejects_the_metadata_file_name() throws Exception {
+        putByName("meta.properties", 400);
+        putByName("META.PROPERTIES", 400);
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void put_by_name_rejects_dot_prefixed_names() throws Exception {
+        putByName(".tmp", 400);
+        putByName(".blobs", 400);
+        putByName(".hidden.txt", 400);
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void put_by_name_rejects_path_separators() throws Exception {
+        putByName("a\\b.txt", 400);
+        assertTrue(storage.list().isEmpty());
+    }
+
+    @Test
+    public void download_of_an_unknown_id_is_404() throws Exception {
+        mvc.perform(get("/api/files/{id}/content", "nope")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void a_single_range_is_206_with_its_content_range() throws Exception {
+        String id = uploadDigits();
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/1000"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 10))
+                .andExpect(content().string("0123456789"));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 997-999/1000"))
+                .andExpect(content().string("789"));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=995-5000"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 995-999/1000"));
+    }
+
+    @Test
+    public void ranges_are_served_the_same_from_disk_as_from_the_cache() throws Exception {
+        tearDown(); System.setProperty("server.cache.bytes", "0"); setUp(); // content read from the file, not memory
+        String id = uploadDigits();
+        assertNull(storage.hotContent(storage.get(id)));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/1000"))
+                .andExpect(content().string("0123456789"));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-1,5-6"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string(containsString("Content-Range: bytes 5-6/1000\r\n\r\n56\r\n")));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=1000-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+    }
+
+    @Test
+    public void large_content_goes_to_sendfile_through_a_pin_that_outlives_an_update() throws Exception {
+        tearDown(); System.setProperty("server.cache.bytes", "0"); setUp();
+        byte[] big = "0123456789abcdef".repeat(8 * 1024).getBytes(StandardCharsets.UTF_8); // 128 KiB, plain layout
+        String id = storage.upload(new ByteArrayInputStream(big), "big.bin", "u").getId();
+        MvcResult r = mvc.perform(get("/api/files/{id}/content", id).requestAttr("org.apache.tomcat.sendfile.support", true))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, big.length))
+                .andReturn();
+        assertEquals(0, r.getResponse().getContentAsByteArray().length); // left to the connector
+        Path pinned = Path.of((String) r.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(0L, r.getRequest().getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals((long) big.length, r.getRequest().getAttribute("org.apache.tomcat.sendfile.end"));
+        assertNotEquals(storage.contentPath(id), pinned);
+        storage.updateContent(id, new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8)), "e");
+        assertArrayEquals(big, Files.readAllBytes(pinned));
+
+        mvc.perform(get("/api/files/{id}/content", id).requestAttr("org.apache.tomcat.sendfile.support", true))
+                .andExpect(content().string("new")); // too small for sendfile: written by the handler
+    }
+
+    @Test
+    public void several_ranges_are_one_multipart_byteranges_body() throws Exception {
+        String id = uploadDigits();
+        MvcResult r = mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-1,5-6"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")))
+                .andReturn();
+        String boundary = r.getResponse().getContentType().substring("multipart/byteranges; boundary=".length());
+        String body = r.getResponse().getContentAsString();
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/1000\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 5-6/1000\r\n\r\n56"
+                + "\r\n--" + boundary + "--\r\n", body);
+        assertEquals(body.length(), r.getResponse().getContentLengthLong());
+    }
+
+    @Test
+    public void an_unsatisfiable_range_is_416_with_the_length() throws Exception {
+        String id = uploadDigits();
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=1000-1010"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */1000"));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-999,0-999"))
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+    }
+
+    @Test
+    public void content_carries_its_hash_as_etag_and_revalidates_to_304() throws Exception {
+        String id = uploadDigits();
+        String etag = "\"" + storage.get(id).getSha256() + "\"";
+        mvc.perform(get("/api/files/{id}/content", id))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("no-cache")))
+                .andExpect(content().string(DIGITS));
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        storage.updateContent(id, new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8)), "e");
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(content().string("new"));
+    }
+
+    @Test
+    public void metadata_and_listing_revalidate_to_304() throws Exception {
+        String id = uploadDigits();
+        String tag = mvc.perform(get("/api/files/{id}", id)).andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(tag);
+        mvc.perform(get("/api/files/{id}", id).header(HttpHeaders.IF_NONE_MATCH, tag)).andExpect(status().isNotModified());
+        String list = mvc.perform(get("/api/files")).andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(list);
+        mvc.perform(get("/api/files").header(HttpHeaders.IF_NONE_MATCH, list)).andExpect(status().isNotModified());
+        uploadDigits();
+        mvc.perform(get("/api/files").header(HttpHeaders.IF_NONE_MATCH, list)).andExpect(status().isOk());
+    }
+
+    @Test
+    public void if_range_with_the_current_tag_gets_the_range_and_a_stale_one_the_whole_file() throws Exception {
+        String id = uploadDigits();
+        String etag = mvc.perform(get("/api/files/{id}/content", id)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-3").header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("0123"));
+        String changed = DIGITS.replace('0', 'x');
+        storage.updateContent(id, new ByteArrayInputStream(changed.getBytes(StandardCharsets.UTF_8)), "e");
+        mvc.perform(get("/api/files/{id}/content", id).header(HttpHeaders.RANGE, "bytes=0-3").header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().string(changed));
+    }
+}
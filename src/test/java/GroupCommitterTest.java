@@ -0,0 +1,83 @@
+import org.example.server.storage.GroupCommitter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitterTest {
+
+    @Test(timeout = 20_000)
+    public void concurrent_requests_share_batches() throws Exception {
+        Path dir = Files.createTempDirectory("fsync");
+        GroupCommitter c = new GroupCommitter(GroupCommitter.Mode.GROUP, 5_000, 64);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> fs = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                Path f = Files.writeString(dir.resolve("f" + i), "x");
+                fs.add(pool.submit(() -> { c.sync(f, dir); return null; }));
+            }
+            for (Future<?> f : fs) f.get();
+            long[] stats = c.stats();
+            assertEquals(64, stats[1]);
+            assertTrue("batched: " + stats[0], stats[0] < 64);
+        } finally { pool.shutdownNow(); c.close(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void requests_racing_close_fail_instead_of_hanging() throws Exception {
+        Path f = Files.writeString(Files.createTempDirectory("fsync").resolve("f"), "x");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50; round++) {
+                GroupCommitter c = new GroupCommitter(GroupCommitter.Mode.GROUP, 100, 64);
+                CountDownLatch go = new CountDownLatch(1);
+                List<Future<?>> fs = new ArrayList<>();
+                for (int i = 0; i < 8; i++) fs.add(pool.submit(() -> {
+                    go.await();
+                    for (int j = 0; j < 20; j++) { try { c.sync(f); } catch (IOException closed) { return null; } }
+                    return null;
+                }));
+                go.countDown();
+                c.close();
+                for (Future<?> x : fs) x.get(5, TimeUnit.SECONDS);
+                try { c.sync(f); fail(); } catch (IOException expected) {}
+            }
+        } finally { pool.shutdownNow(); }
+    }
+
+    @Test(timeout = 20_000)
+    public void a_batch_that_blows_up_fails_its_waiters_and_the_next_one_still_commits() throws Exception {
+        Path f = Files.writeString(Files.createTempDirectory("fsync").resolve("f"), "x");
+        GroupCommitter c = new GroupCommitter(GroupCommitter.Mode.GROUP, 100, 64);
+        try {
+            Collection<Path> broken = new AbstractCollection<Path>() { // throws on the committer thread, not the caller's
+                public Iterator<Path> iterator() { throw new IllegalStateException("boom"); }
+                public int size() { return 1; }
+            };
+            try { c.sync(broken); fail(); }
+            catch (IOException expected) { assertTrue(expected.getCause() instanceof IllegalStateException); }
+            c.sync(f);
+        } finally { c.close(); }
+    }
+
+    @Test
+    public void off_and_always_need_no_committer() throws Exception {
+        Path f = Files.writeString(Files.createTempDirectory("fsync").resolve("f"), "x");
+        try (GroupCommitter off = new GroupCommitter(GroupCommitter.Mode.OFF, 0, 1); GroupCommitter always = new GroupCommitter(GroupCommitter.Mode.ALWAYS, 0, 1)) {
+            off.sync(f);
+            always.sync(f, f);
+            assertEquals(0, off.stats()[2]);
+            assertEquals(1, always.stats()[2]);
+        }
+    }
+}
@@ -1,9 +1,15 @@
+import org.example.common.storage.BlockDelta;
 import org.example.desktop.impl.InMemoryRemoteStorage;
 import org.example.desktop.model.RemoteFileMetadata;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -35,4 +41,24 @@ public class InMemoryRemoteStorageTest {
         assertTrue(s.listFiles().stream().noneMatch(x -> x.getId().equals(m.getId())));
         tmp.delete();
     }
+
+    @Test
+    public void delta_without_server_support_is_rebuilt_and_uploaded_whole() throws Exception {
+        InMemoryRemoteStorage s = new InMemoryRemoteStorage();
+        s.login("u","p");
+        Path base = Files.createTempFile("demo", ".txt"), edited = Files.createTempFile("demo", ".txt");
+        Files.writeString(base, "line\n".repeat(2000));
+        Files.writeString(edited, "line\n".repeat(1000) + "changed\n" + "line\n".repeat(1000));
+        RemoteFileMetadata m = s.upload(base, "u");
+        BlockDelta.Signature sig;
+        try (InputStream in = s.download(m.getId())) { sig = BlockDelta.signature(in, BlockDelta.MIN_BLOCK); }
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(edited)) { BlockDelta.delta(sig, in, delta); }
+        s.applyDelta(m.getId(), sig, new ByteArrayInputStream(delta.toByteArray()), "e");
+        try (InputStream in = s.download(m.getId())) { assertArrayEquals(Files.readAllBytes(edited), in.readAllBytes()); }
+
+        Files.writeString(base, "other");
+        s.updateContent(m.getId(), base, "e");
+        try { s.applyDelta(m.getId(), sig, new ByteArrayInputStream(delta.toByteArray()), "e"); fail(); } catch (IOException expected) {}
+    }
 }
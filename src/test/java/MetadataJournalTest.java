@@ -0,0 +1,76 @@
+import org.example.common.storage.MetadataJournal;
+import org.example.desktop.impl.DiskRemoteStorage;
+import org.example.desktop.model.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class MetadataJournalTest {
+
+    private static Path tmpFile(String content) throws Exception {
+        File tmp = File.createTempFile("demo", ".js");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) { fos.write(content.getBytes("UTF-8")); }
+        return tmp.toPath();
+    }
+
+    @Test
+    public void migrates_properties_layout_and_back() throws Exception {
+        Path root = Files.createTempDirectory("journal-root");
+        DiskRemoteStorage plain = new DiskRemoteStorage(root, false);
+        plain.login("u", "p");
+        RemoteFileMetadata m = plain.upload(tmpFile("x"), "u");
+        assertTrue(Files.exists(root.resolve(m.getId()).resolve("meta.properties")));
+
+        DiskRemoteStorage journaled = new DiskRemoteStorage(root, true);
+        journaled.login("u", "p");
+        assertFalse(Files.exists(root.resolve(m.getId()).resolve("meta.properties")));
+        assertTrue(journaled.listFiles().stream().anyMatch(x -> x.getId().equals(m.getId())));
+        journaled.updateContent(m.getId(), tmpFile("xyz"), "v");
+        journaled.close();
+
+        DiskRemoteStorage back = new DiskRemoteStorage(root, false);
+        back.login("u", "p");
+        assertFalse(Files.exists(root.resolve(MetadataJournal.FILE)));
+        assertEquals("v", back.listFiles().get(0).getEditedBy());
+        assertEquals(3, back.listFiles().get(0).getSize());
+    }
+
+    @Test
+    public void a_journal_in_use_cannot_be_opened_again() throws Exception {
+        Path root = Files.createTempDirectory("journal-root");
+        try (MetadataJournal j = new MetadataJournal(root)) {
+            j.put("a", new Properties());
+            try { new MetadataJournal(root); fail(); } catch (IOException expected) { assertTrue(expected.getMessage().contains("in use")); }
+            try { MetadataJournal.exportPropertiesLayout(root); fail(); } catch (IOException expected) {}
+            assertTrue(Files.exists(root.resolve(MetadataJournal.FILE)));
+        }
+        try (MetadataJournal j = new MetadataJournal(root)) { assertNotNull(j.get("a")); }
+    }
+
+    @Test
+    public void replay_drops_torn_tail_and_compacts() throws Exception {
+        Path root = Files.createTempDirectory("journal-root");
+        try (MetadataJournal j = new MetadataJournal(root)) {
+            Properties p = new Properties();
+            for (int i = 0; i < 3000; i++) { p.setProperty("n", String.valueOf(i)); j.put("id" + (i % 10), p); }
+            j.remove("id0");
+        }
+        long compacted = Files.size(root.resolve(MetadataJournal.FILE));
+        Files.write(root.resolve(MetadataJournal.FILE), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (MetadataJournal j = new MetadataJournal(root)) {
+            assertEquals(9, j.entries().size());
+            assertNull(j.get("id0"));
+            assertEquals("2999", j.get("id9").getProperty("n"));
+            assertEquals(compacted, Files.size(root.resolve(MetadataJournal.FILE)));
+        }
+    }
+}
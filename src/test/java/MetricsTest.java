@@ -0,0 +1,60 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.web.EventDispatcher;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private static long ops(MeterRegistry r, String op) { return r.get("drive.storage.operations").tag("op", op).timer().count(); }
+
+    @Test
+    public void storage_operations_are_timed_once_bound() throws Exception {
+        Path root = Files.createTempDirectory("metrics-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            s.upload(new ByteArrayInputStream(new byte[] { 1 }), "early.txt", "u"); // before binding: not counted
+            MeterRegistry r = new SimpleMeterRegistry();
+            s.bindTo(r);
+            RemoteFileMetadata a = s.upload(new ByteArrayInputStream(new byte[100]), "a.txt", "u");
+            s.upsert("a.txt", new ByteArrayInputStream(new byte[50]), "u", null);
+            try (InputStream in = s.download(a.getId())) { assertEquals(50, in.readAllBytes().length); }
+            s.list();
+            s.delete(a.getId());
+
+            assertEquals(1, ops(r, "upload"));
+            assertEquals(1, ops(r, "upsert"));
+            assertEquals(1, ops(r, "download"));
+            assertEquals(1, ops(r, "list"));
+            assertEquals(1, ops(r, "delete"));
+            assertEquals(150, r.get("drive.bytes.uploaded").counter().count(), 0);
+            assertEquals(0, r.get("drive.bytes.downloaded").counter().count(), 0); // only the HTTP layer reports what it sends
+            assertEquals(1, r.get("drive.catalog.entries").gauge().value(), 0);
+        }
+    }
+
+    @Test
+    public void dispatcher_reports_fan_out_and_subscribers_in_prometheus_format() {
+        PrometheusMeterRegistry r = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        EventDispatcher events = new EventDispatcher();
+        try {
+            events.bindTo(r);
+            events.publish("file", "id1", "x");
+            events.publish("file", "id2", "y");
+            assertEquals(2, r.get("drive.sse.broadcast").timer().count());
+            String text = r.scrape();
+            assertTrue(text.contains("drive_sse_subscribers 0.0"));
+            assertTrue(text.contains("drive_sse_broadcast_seconds_bucket{le="));
+            assertTrue(text.contains("drive_sse_dropped_total 0.0"));
+        } finally { events.close(); }
+    }
+}
@@ -0,0 +1,105 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.PreviewService;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PreviewServiceTest {
+
+    private static byte[] png(int w, int h) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB), "png", bos);
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void thumbnails_fit_the_box_and_are_dropped_on_update() throws Exception {
+        Path root = Files.createTempDirectory("preview-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false); PreviewService previews = new PreviewService(s)) {
+            RemoteFileMetadata m = s.upload(new ByteArrayInputStream(png(2000, 1000)), "big.png", "u");
+            PreviewService.Rendition r = previews.get(m, PreviewService.box(100, 100));
+            BufferedImage thumb = ImageIO.read(r.file.toFile());
+            assertEquals(128, thumb.getWidth());
+            assertEquals(64, thumb.getHeight());
+            assertEquals("image/png", r.contentType);
+
+            RemoteFileMetadata m2 = s.updateContent(m.getId(), new ByteArrayInputStream(png(10, 10)), "u");
+            assertFalse("stale rendition must be gone", Files.exists(r.file));
+            PreviewService.Rendition r2 = previews.get(m2, 128);
+            assertNotEquals(r.tag, r2.tag);
+            assertEquals(10, ImageIO.read(r2.file.toFile()).getWidth()); // never upscaled
+        }
+    }
+
+    @Test
+    public void text_preview_is_a_utf8_safe_head() throws Exception {
+        System.setProperty("server.preview.textBytes", "1001");
+        Path root = Files.createTempDirectory("preview-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false); PreviewService previews = new PreviewService(s)) {
+            String text = "é".repeat(2000); // two bytes per char: byte 1001 would split one
+            RemoteFileMetadata m = s.upload(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "a.js", "u");
+            byte[] head = Files.readAllBytes(previews.get(m, 256).file);
+            assertEquals(1000, head.length);
+            assertEquals("é".repeat(500), new String(head, StandardCharsets.UTF_8));
+
+            System.setProperty("server.preview.textBytes", "1000"); // on a boundary: nothing to trim
+            try (PreviewService even = new PreviewService(s)) {
+                RemoteFileMetadata m2 = s.updateContent(m.getId(), new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), "u");
+                assertEquals(1000, Files.size(even.get(m2, 256).file));
+            }
+
+            RemoteFileMetadata bin = s.upload(new ByteArrayInputStream(new byte[10]), "a.bin", "u");
+            try { previews.get(bin, 256); fail(); } catch (FileNotFoundException expected) {}
+        } finally {
+            System.clearProperty("server.preview.textBytes");
+        }
+    }
+
+    @Test(timeout = 20_000)
+    public void warm_up_is_skipped_when_the_pool_is_full_instead_of_running_on_the_writer() throws Exception {
+        System.setProperty("server.preview.threads", "1");
+        System.setProperty("server.preview.queue", "1");
+        Path root = Files.createTempDirectory("preview-root");
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Thread> readers = new CopyOnWriteArrayList<>();
+        DiskRemoteStorage gated = new DiskRemoteStorage(root, false, false) {
+            @Override public InputStream download(String id) throws IOException {
+                readers.add(Thread.currentThread());
+                if (Thread.currentThread().getName().equals("preview-worker")) {
+                    try { gate.await(); } catch (InterruptedException e) { throw new InterruptedIOException(); }
+                }
+                return super.download(id);
+            }
+        };
+        try (DiskRemoteStorage s = gated; PreviewService previews = new PreviewService(s)) {
+            s.upload(text("a"), "a.txt", "u"); // rendering, stuck on the gate
+            s.upload(text("b"), "b.txt", "u"); // queued
+            RemoteFileMetadata c = s.upload(text("c"), "c.txt", "u"); // pool full: skipped
+            assertFalse("rendered on the uploading thread", readers.contains(Thread.currentThread()));
+            gate.countDown();
+            assertEquals("c", Files.readString(previews.get(c, 256).file));
+        } finally {
+            gate.countDown();
+            System.clearProperty("server.preview.threads");
+            System.clearProperty("server.preview.queue");
+        }
+    }
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+}
@@ -0,0 +1,67 @@
+import org.example.server.search.SearchIndex;
+import org.example.server.search.SearchResults;
+import org.example.server.search.Tokenizer;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+
+    private static ByteArrayInputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    private static List<String> names(SearchResults r) {
+        List<String> out = new ArrayList<>();
+        for (SearchResults.Hit h : r.hits) out.add(h.file.getName());
+        return out;
+    }
+
+    @Test
+    public void html_is_reduced_to_visible_text() {
+        List<String> terms = new ArrayList<>();
+        Tokenizer.tokenize("<html><style>.hidden{}</style><p class=\"x\">Caf&eacute; &amp; Bar</p><!-- note --><script>var secret;</script>Done</html>", true, terms::add);
+        assertEquals(List.of("caf", "eacute", "bar", "done"), terms);
+    }
+
+    @Test
+    public void ranks_updates_deletes_and_survives_restart() throws Exception {
+        Path root = Files.createTempDirectory("search-root");
+        RemoteFileMetadata a, b;
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false); SearchIndex index = new SearchIndex(s)) {
+            a = s.upload(text("<h1>Quarterly report</h1><p>revenue revenue revenue</p>"), "a.html", "u");
+            b = s.upload(text("function revenue() { return report(); } // filler words here to make it longer"), "b.js", "u");
+            s.upload(text("revenue"), "c.bin", "u"); // not a text type
+            assertTrue(index.awaitIdle(5000));
+
+            SearchResults r = index.search("revenue", 0, 10);
+            assertEquals(2, r.total);
+            assertEquals(List.of("a.html", "b.js"), names(r));
+            assertEquals(List.of("b.js"), names(index.search("revenue report", 1, 1)));
+
+            s.updateContent(b.getId(), text("nothing to see"), "u");
+            s.delete(a.getId());
+            assertTrue(index.awaitIdle(5000));
+            assertEquals(0, index.search("revenue", 0, 10).total);
+            assertEquals(List.of("b.js"), names(index.search("SEE", 0, 10)));
+        }
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false); SearchIndex index = new SearchIndex(s)) {
+            assertTrue(index.awaitIdle(5000));
+            assertEquals(List.of("b.js"), names(index.search("nothing", 0, 10)));
+            assertEquals(0, index.search("quarterly", 0, 10).total);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queries_without_terms_are_rejected() throws Exception {
+        Path root = Files.createTempDirectory("search-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false); SearchIndex index = new SearchIndex(s)) { index.search(" - ", 0, 10); }
+    }
+}
@@ -0,0 +1,75 @@
+import org.example.server.storage.CatalogPage;
+import org.example.server.storage.CatalogSort;
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ServerDiskRemoteStorageIndexTest {
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    @Test
+    public void lookups_follow_upload_update_delete() throws Exception {
+        DiskRemoteStorage s = new DiskRemoteStorage(Files.createTempDirectory("srv-index"));
+        RemoteFileMetadata b = s.upload(text("b"), "b.html", "u1");
+        RemoteFileMetadata a = s.upload(text("a"), "A.js", "u2");
+
+        List<String> names = s.list().stream().map(RemoteFileMetadata::getName).collect(Collectors.toList());
+        assertEquals(List.of("A.js", "b.html"), names);
+        assertEquals(b.getId(), s.findByName("b.html").getId());
+        assertNull(s.findByName("B.html"));
+
+        RemoteFileMetadata upd = s.updateContent(a.getId(), text("longer"), "u3");
+        assertEquals(6, s.get(a.getId()).getSize());
+        assertEquals("u3", s.findByName("A.js").getEditedBy());
+        assertEquals(a.getId(), upd.getId());
+
+        s.delete(b.getId());
+        assertNull(s.get(b.getId()));
+        assertNull(s.findByName("b.html"));
+        assertEquals(1, s.list().size());
+    }
+
+    @Test
+    public void index_is_rebuilt_from_disk() throws Exception {
+        Path root = Files.createTempDirectory("srv-index");
+        RemoteFileMetadata m = new DiskRemoteStorage(root).upload(text("x"), "x.js", "u");
+
+        DiskRemoteStorage reopened = new DiskRemoteStorage(root);
+        assertEquals(m.getId(), reopened.findByName("x.js").getId());
+        try (InputStream is = reopened.download(m.getId())) { assertEquals("x", new String(is.readAllBytes(), StandardCharsets.UTF_8)); }
+    }
+
+    @Test
+    public void filtered_sorted_pages_follow_the_cursor() throws Exception {
+        DiskRemoteStorage s = new DiskRemoteStorage(Files.createTempDirectory("srv-index"));
+        s.upload(text("1"), "a.png", "carol");
+        s.upload(text("2"), "b.html", "alice");
+        s.upload(text("3"), "c.PNG", "bob");
+        s.upload(text("4"), "d.png", "alice");
+
+        CatalogPage first = s.list("png", CatalogSort.UPLOADED_BY, true, null, 2);
+        assertEquals(List.of("a.png", "c.PNG"), names(first.items));
+        assertNotNull(first.nextCursor);
+
+        s.upload(text("5"), "e.png", "bert"); // lands between pages: still returned, nothing repeated
+        CatalogPage second = s.list("png", CatalogSort.UPLOADED_BY, true, first.nextCursor, 2);
+        assertEquals(List.of("e.png", "d.png"), names(second.items));
+        assertNull(second.nextCursor);
+
+        try { s.list("png", CatalogSort.NAME, true, first.nextCursor, 2); fail(); } catch (IllegalArgumentException expected) {}
+        assertEquals(List.of("b.html", "a.png", "c.PNG", "d.png", "e.png"), names(s.list(null, CatalogSort.EXTENSION, false, null, 10).items));
+    }
+
+    private static List<String> names(List<RemoteFileMetadata> list) { return list.stream().map(RemoteFileMetadata::getName).collect(Collectors.toList()); }
+}
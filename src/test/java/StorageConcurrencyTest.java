@@ -0,0 +1,58 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.storage.VersionConflictException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class StorageConcurrencyTest {
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    @Test
+    public void concurrent_upserts_of_one_name_are_applied_one_after_the_other() throws Exception {
+        DiskRemoteStorage s = new DiskRemoteStorage(Files.createTempDirectory("locks-root"));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<RemoteFileMetadata>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            String body = "v" + i;
+            results.add(pool.submit(() -> { start.await(); return s.upsert("same.txt", text(body), "u", null); }));
+        }
+        start.countDown();
+        List<Long> versions = new ArrayList<>();
+        for (Future<RemoteFileMetadata> f : results) versions.add(f.get().getVersion());
+        pool.shutdown();
+
+        assertEquals(1, s.list().size());
+        assertEquals(32, s.list().get(0).getVersion());
+        assertEquals(32, versions.stream().distinct().count());
+        s.close();
+    }
+
+    @Test
+    public void conditional_writes_fail_on_a_stale_version() throws Exception {
+        DiskRemoteStorage s = new DiskRemoteStorage(Files.createTempDirectory("locks-root"));
+        try { s.upsert("a.txt", text("x"), "u", DiskRemoteStorage.ANY_VERSION); fail(); } catch (VersionConflictException expected) {}
+
+        RemoteFileMetadata a = s.upsert("a.txt", text("one"), "u", null);
+        assertEquals(1, a.getVersion());
+        assertEquals(2, s.upsert("a.txt", text("two"), "u", 1L).getVersion());
+        try { s.updateContent(a.getId(), text("three"), "u", 1L); fail(); }
+        catch (VersionConflictException e) { assertEquals(2, e.getCurrent()); }
+        assertEquals(3, s.updateContent(a.getId(), text("three"), "u", DiskRemoteStorage.ANY_VERSION).getVersion());
+        s.close();
+
+        DiskRemoteStorage reopened = new DiskRemoteStorage(s.root());
+        assertEquals(3, reopened.get(a.getId()).getVersion());
+        reopened.close();
+    }
+}
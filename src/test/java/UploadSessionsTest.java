@@ -0,0 +1,68 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.example.server.storage.UploadSessions;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class UploadSessionsTest {
+    private static final int CHUNK = (int) UploadSessions.MIN_CHUNK;
+
+    private static InputStream chunk(byte[] data, int n) {
+        int from = n * CHUNK; return new ByteArrayInputStream(Arrays.copyOfRange(data, from, Math.min(data.length, from + CHUNK)));
+    }
+
+    @Test
+    public void out_of_order_chunks_survive_a_restart_and_commit_by_rename() throws Exception {
+        Path root = Files.createTempDirectory("uploads-root");
+        byte[] data = new byte[CHUNK * 2 + 1234]; new Random(7).nextBytes(data);
+        String sha = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+
+        DiskRemoteStorage storage = new DiskRemoteStorage(root);
+        UploadSessions sessions = new UploadSessions(storage);
+        String sid = sessions.create("big.bin", data.length, (long) CHUNK, "u", null).id;
+        sessions.writeChunk(sid, 2, chunk(data, 2));
+        sessions.writeChunk(sid, 0, chunk(data, 0));
+        assertEquals(List.of(1), sessions.status(sid).missingChunks);
+        try { sessions.assemble(sid); fail(); } catch (IllegalStateException expected) {}
+        storage.close();
+
+        storage = new DiskRemoteStorage(root);
+        sessions = new UploadSessions(storage);
+        try { sessions.writeChunk(sid, 1, new ByteArrayInputStream(new byte[10])); fail(); } catch (IllegalArgumentException expected) {}
+        sessions.writeChunk(sid, 1, chunk(data, 1));
+        UploadSessions.Assembled a = sessions.assemble(sid);
+        RemoteFileMetadata m = storage.importFile(a.file, a.sha256, a.name, a.user);
+        sessions.discard(sid);
+
+        assertEquals(sha, m.getSha256());
+        assertEquals(data.length, m.getSize());
+        try (InputStream is = storage.download(m.getId())) { assertArrayEquals(data, is.readAllBytes()); }
+        assertFalse(Files.exists(root.resolve(UploadSessions.DIR).resolve(sid)));
+        storage.close();
+    }
+
+    @Test
+    public void sessions_refuse_names_a_direct_upload_refuses() throws Exception {
+        Path root = Files.createTempDirectory("uploads-root");
+        try (DiskRemoteStorage storage = new DiskRemoteStorage(root)) {
+            UploadSessions sessions = new UploadSessions(storage);
+            for (String name : new String[] { ".", "..", "meta.properties", ".tmp", ".hidden", "a/b", "a\\b", " " }) {
+                try { sessions.create(name, 10, null, "u", null); fail(name); } catch (IllegalArgumentException expected) {}
+            }
+            try (Stream<Path> ds = Files.list(root.resolve(UploadSessions.DIR))) { assertEquals(0, ds.count()); }
+            assertNotNull(sessions.create("report.pdf", 10, null, "u", null).id);
+        }
+    }
+}
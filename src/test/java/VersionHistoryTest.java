@@ -0,0 +1,94 @@
+import org.example.server.storage.DiskRemoteStorage;
+import org.example.server.storage.RemoteFileMetadata;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class VersionHistoryTest {
+
+    @After public void reset() { System.clearProperty("server.versions.keep"); System.clearProperty("server.compress"); }
+
+    private static String page(int edit) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) sb.append("<div class=\"row\">item ").append(i).append(i == 1500 ? " edit " + edit : "").append("</div>\n");
+        return sb.toString();
+    }
+
+    private static InputStream text(String s) { return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)); }
+
+    private static String read(InputStream in) throws Exception { try (in) { return new String(in.readAllBytes(), StandardCharsets.UTF_8); } }
+
+    private static long deltaBytes(Path root) throws Exception {
+        try (Stream<Path> files = Files.walk(root.resolve(".versions"))) {
+            return files.filter(p -> p.toString().endsWith(".delta")).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void history(boolean contentAddressed) throws Exception {
+        Path root = Files.createTempDirectory("versions-root");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, contentAddressed)) {
+            RemoteFileMetadata m = s.upload(text(page(0)), "index.html", "u");
+            for (int i = 1; i <= 4; i++) s.updateContent(m.getId(), text(page(i)), "e" + i);
+
+            List<RemoteFileMetadata> vs = s.versions(m.getId());
+            assertEquals(5, vs.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(5 - i, vs.get(i).getVersion());
+                assertEquals(page(4 - i), read(s.downloadVersion(m.getId(), 5 - i)));
+            }
+            assertEquals("u", vs.get(4).getEditedBy());
+            assertTrue("small edits are stored as small deltas", deltaBytes(root) < page(0).length() / 4);
+            assertEquals(page(4), read(s.download(m.getId())));
+
+            RemoteFileMetadata restored = s.restoreVersion(m.getId(), 2, "r");
+            assertEquals(6, restored.getVersion());
+            assertEquals(page(1), read(s.download(m.getId())));
+            assertEquals(page(4), read(s.downloadVersion(m.getId(), 5)));
+            assertEquals(6, s.versions(m.getId()).size());
+            try { s.downloadVersion(m.getId(), 9); fail(); } catch (FileNotFoundException expected) {}
+
+            s.delete(m.getId());
+            assertEquals(0, deltaBytes(root));
+        }
+    }
+
+    @Test
+    public void keeps_reverse_deltas_and_restores() throws Exception { history(false); }
+
+    @Test
+    public void works_with_content_addressed_blobs() throws Exception { history(true); }
+
+    @Test
+    public void retention_drops_oldest_and_compressed_content_is_diffed_inflated() throws Exception {
+        System.setProperty("server.versions.keep", "2");
+        System.setProperty("server.compress", "gzip");
+        Path root = Files.createTempDirectory("versions-root");
+        RemoteFileMetadata m;
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            m = s.upload(text(page(0)), "index.html", "u");
+            assertEquals("gzip", m.getEncoding());
+            for (int i = 1; i <= 5; i++) s.updateContent(m.getId(), text(page(i)), "e");
+            List<RemoteFileMetadata> vs = s.versions(m.getId());
+            assertEquals(3, vs.size());
+            assertEquals(4, vs.get(2).getVersion());
+            assertEquals(page(3), read(s.downloadVersion(m.getId(), 4)));
+        }
+        System.setProperty("server.versions.keep", "0");
+        try (DiskRemoteStorage s = new DiskRemoteStorage(root, false, false)) {
+            assertEquals(3, s.versions(m.getId()).size());
+            s.updateContent(m.getId(), text(page(6)), "e");
+            assertEquals(1, s.versions(m.getId()).size());
+            assertEquals(0, deltaBytes(root));
+        }
+    }
+}